@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the measurements of collation phases, per phase and per phase and witness. Safe to be shared by
+ * algorithms collating concurrently.
+ */
+public class AggregatingInstrumentation implements CollationInstrumentation {
+
+    private final ConcurrentMap<String, Statistics> phases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Statistics>> witnesses = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(Event event) {
+        phases.computeIfAbsent(event.phase, p -> new Statistics()).add(event);
+        if (event.witness != null) {
+            witnesses.computeIfAbsent(event.witness.getSigil(), w -> new ConcurrentHashMap<>())
+                .computeIfAbsent(event.phase, p -> new Statistics())
+                .add(event);
+        }
+    }
+
+    /**
+     * @return statistics by phase
+     */
+    public SortedMap<String, Statistics> getPhases() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(phases));
+    }
+
+    /**
+     * @return statistics by sigil of the witness and phase, for phases concerning a single witness
+     */
+    public SortedMap<String, SortedMap<String, Statistics>> getWitnesses() {
+        final SortedMap<String, SortedMap<String, Statistics>> result = new TreeMap<>();
+        witnesses.forEach((sigil, statistics) -> result.put(sigil, Collections.unmodifiableSortedMap(new TreeMap<>(statistics))));
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    public void reset() {
+        phases.clear();
+        witnesses.clear();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        getPhases().forEach((phase, statistics) -> report.append(String.format("%-20s %s%n", phase, statistics)));
+        return report.toString();
+    }
+
+    public static class Statistics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final ConcurrentMap<String, LongAdder> sizes = new ConcurrentHashMap<>();
+
+        void add(Event event) {
+            count.increment();
+            nanos.add(event.nanos);
+            maxNanos.accumulate(event.nanos);
+            if (event.allocatedBytes > 0) {
+                allocatedBytes.add(event.allocatedBytes);
+            }
+            event.sizes.forEach((name, value) -> sizes.computeIfAbsent(name, n -> new LongAdder()).add(value));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes.sum();
+        }
+
+        /**
+         * @return the sums of the sizes recorded, by name
+         */
+        public SortedMap<String, Long> getSizes() {
+            final SortedMap<String, Long> result = new TreeMap<>();
+            sizes.forEach((name, value) -> result.put(name, value.sum()));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%6d x %10.3f ms (max %10.3f ms) %12d bytes %s",
+                getCount(), getNanos() / 1e6, getMaxNanos() / 1e6, getAllocatedBytes(), getSizes());
+        }
+    }
+}
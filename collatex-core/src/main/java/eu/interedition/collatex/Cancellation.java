@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a collation be given up cooperatively, either on request or once a deadline has passed.
+ * <p>
+ * Algorithms derived from {@link CollationAlgorithm.Base} poll the cancellation between phases and within their long
+ * running loops, e.g. once per row of a dynamic programming table, so that cancelled collations stop within
+ * milliseconds. Polling is cheap enough for that: it reads a volatile flag and, for cancellations with a deadline, the
+ * system's nano time.
+ *
+ * @see CollationAlgorithm#collate(VariantGraph, java.util.List, Cancellation)
+ */
+public final class Cancellation {
+
+    /**
+     * Never cancelled.
+     */
+    public static final Cancellation NONE = new Cancellation(false, 0);
+
+    private final boolean timed;
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    private Cancellation(boolean timed, long deadline) {
+        this.timed = timed;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return a cancellation only cancelled via {@link #cancel()}
+     */
+    public static Cancellation create() {
+        return new Cancellation(false, 0);
+    }
+
+    /**
+     * @return a cancellation cancelled via {@link #cancel()} or after the given timeout, whatever comes first
+     */
+    public static Cancellation withTimeout(long timeout, TimeUnit unit) {
+        return new Cancellation(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException();
+        }
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (timed && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * @throws CancellationException if cancelled
+     */
+    public void check() {
+        if (cancelled) {
+            throw new CancellationException("Collation cancelled");
+        }
+        if (timed && System.nanoTime() - deadline >= 0) {
+            throw new CancellationException("Collation deadline exceeded");
+        }
+    }
+}
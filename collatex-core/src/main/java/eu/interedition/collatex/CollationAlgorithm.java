@@ -26,6 +26,10 @@ import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VertexMatch;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -41,26 +45,99 @@ public interface CollationAlgorithm {
 
     void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses);
 
+    /**
+     * Collates the given witnesses, giving up once the given cancellation is cancelled. A graph whose collation has been
+     * given up is left incomplete and should be discarded.
+     * <p>
+     * Algorithms not polling the cancellation while collating check it only before and after.
+     *
+     * @throws java.util.concurrent.CancellationException if the collation has been given up
+     */
+    default void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses, Cancellation cancellation) {
+        cancellation.check();
+        collate(against, witnesses);
+        cancellation.check();
+    }
+
     abstract class Base implements CollationAlgorithm {
         protected final Logger LOG = Logger.getLogger(getClass().getName());
         protected Map<Token, VariantGraph.Vertex> witnessTokenVertices;
+        protected CollationInstrumentation instrumentation = CollationInstrumentation.NONE;
+        protected Cancellation cancellation = Cancellation.NONE;
+
+        /**
+         * Reports the phases of subsequent collations to the given instrumentation; {@link CollationInstrumentation#NONE}
+         * by default.
+         */
+        public void setInstrumentation(CollationInstrumentation instrumentation) {
+            this.instrumentation = Objects.requireNonNull(instrumentation);
+        }
 
         @Override
         public void collate(VariantGraph against, Iterable<Token>... witnesses) {
             collate(against, Arrays.asList(witnesses));
         }
 
+        @Override
+        public void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses, Cancellation cancellation) {
+            this.cancellation = Objects.requireNonNull(cancellation);
+            try {
+                collate(against, witnesses);
+            } finally {
+                this.cancellation = Cancellation.NONE;
+            }
+        }
+
         @Override
         public void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses) {
             for (Iterable<Token> witness : witnesses) {
+                cancellation.check();
                 if (LOG.isLoggable(Level.FINE)) {
                     LOG.log(Level.FINE, "heap space: {0}/{1}", new Object[]{
                             Runtime.getRuntime().totalMemory(),
                             Runtime.getRuntime().maxMemory()
                     });
                 }
+                final CollationInstrumentation.Phase phase = instrumentation.start("witness", witnessOf(witness));
                 collate(against, witness);
+                phase.size("vertices", against.nextVertexId).end();
+            }
+        }
+
+        /**
+         * Runs the given number of tasks on the given executor and waits for all of their results.
+         *
+         * @return the results, in the order of the tasks
+         * @throws RuntimeException the failure of the first failed task, e.g. a
+         *                          {@link java.util.concurrent.CancellationException} of a task polling the cancellation
+         */
+        protected static <T> List<T> invokeAll(Executor executor, int tasks, IntFunction<T> task) {
+            final List<CompletableFuture<T>> futures = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                final int taskIndex = t;
+                futures.add(CompletableFuture.supplyAsync(() -> task.apply(taskIndex), executor));
+            }
+            final List<T> results = new ArrayList<>(tasks);
+            for (CompletableFuture<T> future : futures) {
+                try {
+                    results.add(future.join());
+                } catch (CompletionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw e;
+                }
             }
+            return results;
+        }
+
+        private static Witness witnessOf(Iterable<Token> tokens) {
+            final Iterator<Token> it = tokens.iterator();
+            return (it.hasNext() ? it.next().getWitness() : null);
         }
 
         protected void merge(VariantGraph into, Iterable<Token> witnessTokens, Map<Token, VariantGraph.Vertex> alignments) {
@@ -72,6 +149,7 @@ public interface CollationAlgorithm {
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.log(Level.FINE, "{0} + {1}: Merge comparand into graph", new Object[]{into, witness});
             }
+            final CollationInstrumentation.Phase phase = instrumentation.start("merge", witness);
             witnessTokenVertices = new HashMap<>();
             VariantGraph.Vertex last = into.getStart();
             final Set<Witness> witnessSet = Collections.singleton(witness);
@@ -91,6 +169,8 @@ public interface CollationAlgorithm {
                 last = matchingVertex;
             }
             into.connect(last, into.getEnd(), witnessSet);
+            cancellation.check();
+            phase.size("tokens", witnessTokenVertices.size()).size("vertices", into.nextVertexId).end();
         }
 
         protected void mergeTranspositions(VariantGraph into, Iterable<SortedSet<VertexMatch.WithToken>> transpositions) {
@@ -130,7 +210,8 @@ public interface CollationAlgorithm {
             final Set<SortedSet<VertexMatch.WithTokenIndex>> alignedMatches = NeedlemanWunschAlgorithm.align(
                     matchesVertexOrder,
                     matchesTokenOrder,
-                    new MatchPhraseAlignmentScorer(Math.max(tokens.length, vertices.length))
+                    new MatchPhraseAlignmentScorer(Math.max(tokens.length, vertices.length)),
+                    cancellation
             ).keySet();
 
             final Map<Token, VariantGraph.Vertex> alignments = matches.stream()
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receives measurements of the phases of a collation, e.g. for finding out which phase is responsible for a slow one.
+ * <p>
+ * Algorithms derived from {@link CollationAlgorithm.Base} report the following phases, as far as they apply:
+ * <ul>
+ * <li><code>token-index</code>: building the token index of all witnesses</li>
+ * <li><code>ranking</code>: ranking the variant graph before aligning a witness</li>
+ * <li><code>matches</code>: gathering matches between the graph and a witness</li>
+ * <li><code>island-resolution</code>: resolving conflicts between candidate islands of matches</li>
+ * <li><code>alignment</code>: aligning the graph and a witness by dynamic programming</li>
+ * <li><code>phrase-matches</code>: detecting phrase matches</li>
+ * <li><code>transpositions</code>: detecting transpositions</li>
+ * <li><code>merge</code>: merging a witness into the graph</li>
+ * <li><code>witness</code>: all of the above for one witness</li>
+ * </ul>
+ * Phases are measured on the thread running them; the allocated bytes do not include allocations of phases running
+ * partly in parallel on other threads.
+ *
+ * @see CollationAlgorithm.Base#setInstrumentation(CollationInstrumentation)
+ * @see AggregatingInstrumentation
+ */
+public interface CollationInstrumentation {
+
+    /**
+     * Discards all measurements; phases are not even measured when algorithms are instrumented with it.
+     */
+    CollationInstrumentation NONE = event -> {
+    };
+
+    void record(Event event);
+
+    /**
+     * Starts measuring a phase.
+     *
+     * @param witness the witness being collated, or <code>null</code> for phases concerning all witnesses
+     */
+    default Phase start(String phase, Witness witness) {
+        return (this == NONE ? Phase.NONE : new Phase(this, phase, witness));
+    }
+
+    /**
+     * A measured phase of a collation.
+     */
+    final class Event {
+        public final String phase;
+        public final Witness witness;
+        public final long nanos;
+        public final long allocatedBytes;
+        public final Map<String, Long> sizes;
+
+        public Event(String phase, Witness witness, long nanos, long allocatedBytes, Map<String, Long> sizes) {
+            this.phase = phase;
+            this.witness = witness;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.sizes = sizes;
+        }
+
+        @Override
+        public String toString() {
+            return phase + (witness == null ? "" : "[" + witness.getSigil() + "]") + ": " + nanos + " ns, " + allocatedBytes + " bytes, " + sizes;
+        }
+    }
+
+    /**
+     * Measures the wall time and the bytes allocated by the current thread, from its start until its end.
+     */
+    final class Phase {
+        static final Phase NONE = new Phase(null, null, null);
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final CollationInstrumentation instrumentation;
+        private final String phase;
+        private final Witness witness;
+        private final long start;
+        private final long startAllocatedBytes;
+        private Map<String, Long> sizes = Collections.emptyMap();
+
+        private Phase(CollationInstrumentation instrumentation, String phase, Witness witness) {
+            this.instrumentation = instrumentation;
+            this.phase = phase;
+            this.witness = witness;
+            this.start = (instrumentation == null ? 0 : System.nanoTime());
+            this.startAllocatedBytes = (instrumentation == null ? 0 : allocatedBytes());
+        }
+
+        /**
+         * Records the size of a data structure involved, e.g. the number of candidate islands or of graph vertices.
+         */
+        public Phase size(String name, long value) {
+            if (instrumentation != null) {
+                if (sizes.isEmpty()) {
+                    sizes = new LinkedHashMap<>();
+                }
+                sizes.put(name, value);
+            }
+            return this;
+        }
+
+        public void end() {
+            if (instrumentation != null) {
+                final long allocatedBytes = allocatedBytes();
+                instrumentation.record(new Event(
+                    phase,
+                    witness,
+                    System.nanoTime() - start,
+                    (allocatedBytes < 0 || startAllocatedBytes < 0 ? -1 : allocatedBytes - startAllocatedBytes),
+                    sizes
+                ));
+            }
+        }
+
+        /**
+         * @return the bytes allocated by the current thread so far, or <code>-1</code> if the JVM does not support
+         * measuring them
+         */
+        private static long allocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -19,14 +19,16 @@
 
 package eu.interedition.collatex;
 
+import eu.interedition.collatex.util.VariantGraphRanking;
 import eu.interedition.collatex.util.VariantGraphTraversal;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -40,16 +42,24 @@ public class VariantGraph {
     final VariantGraph.Vertex start;
     final VariantGraph.Vertex end;
     final Map<Vertex, Set<Set<Vertex>>> transpositionIndex = new HashMap<>();
+    int nextVertexId = 0;
 
     public VariantGraph() {
-        super();
-        this.start = new VariantGraph.Vertex(this);
-        this.end = new VariantGraph.Vertex(this);
+        this(VariantGraph.Vertex::new);
 
         this.start.outgoing.put(this.end, Collections.emptySet());
         this.end.incoming.put(this.start, Collections.emptySet());
     }
 
+    /**
+     * Creates a graph without edges, whose start and end vertex are created by the given factory.
+     */
+    private VariantGraph(Function<VariantGraph, Vertex> vertexFactory) {
+        super();
+        this.start = vertexFactory.apply(this);
+        this.end = vertexFactory.apply(this);
+    }
+
     public Vertex getStart() {
         return start;
     }
@@ -107,6 +117,15 @@ public class VariantGraph {
         return start.outgoing().values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
     }
 
+    /**
+     * Takes an immutable snapshot of this graph, which can be shared between threads and cached.
+     *
+     * @see Frozen
+     */
+    public Frozen freeze() {
+        return new Frozen(this);
+    }
+
     @Override
     public String toString() {
         return witnesses().toString();
@@ -118,12 +137,36 @@ public class VariantGraph {
      */
     public static class Vertex {
         private final VariantGraph graph;
-        private final Set<Token> tokens = new HashSet<>();
-        private final Map<Vertex, Set<Witness>> outgoing = new HashMap<>();
-        private final Map<Vertex, Set<Witness>> incoming = new HashMap<>();
+        private final int id;
+        private final Set<Token> tokens;
+        private final Map<Vertex, Set<Witness>> outgoing;
+        private final Map<Vertex, Set<Witness>> incoming;
+        private final Set<Witness> witnesses;
 
         public Vertex(VariantGraph graph) {
+            this(graph, new HashSet<>(), new HashMap<>(), new HashMap<>(), null);
+        }
+
+        /**
+         * @param witnesses the witnesses of the incoming edges, or <code>null</code> for determining them on every call
+         *                  of {@link #witnesses()}
+         */
+        private Vertex(VariantGraph graph, Set<Token> tokens, Map<Vertex, Set<Witness>> outgoing, Map<Vertex, Set<Witness>> incoming,
+                       Set<Witness> witnesses) {
             this.graph = graph;
+            this.id = graph.nextVertexId++;
+            this.tokens = tokens;
+            this.outgoing = outgoing;
+            this.incoming = incoming;
+            this.witnesses = witnesses;
+        }
+
+        /**
+         * Numbers the vertices of a graph in the order of their creation, starting with 0 for the start vertex; can
+         * be used to index vertices in arrays and bit sets.
+         */
+        public int id() {
+            return id;
         }
 
         public Map<Vertex, Set<Witness>> incoming() {
@@ -143,6 +186,9 @@ public class VariantGraph {
         }
 
         public Set<Witness> witnesses() {
+            if (witnesses != null) {
+                return witnesses;
+            }
             return incoming().values().stream().flatMap(Set::stream).collect(Collectors.toSet());
         }
 
@@ -159,47 +205,279 @@ public class VariantGraph {
         }
     }
 
-    public static final Function<VariantGraph, VariantGraph> JOIN = graph -> {
-        final Set<Vertex> processed = new HashSet<>();
-        final Deque<Vertex> queue = new ArrayDeque<>(graph.start.outgoing.keySet());
-
-        while (!queue.isEmpty()) {
-            final Vertex vertex = queue.pop();
-            final Set<Set<Vertex>> transpositions = new HashSet<>(vertex.transpositions());
-            if (vertex.outgoing.size() == 1) {
-                final Vertex joinCandidateVertex = vertex.outgoing.keySet().iterator().next();
-                final Set<Set<Vertex>> joinCandidateTranspositions = new HashSet<>(joinCandidateVertex.transpositions());
-
-                boolean canJoin = !graph.end.equals(joinCandidateVertex) && //
-                    joinCandidateVertex.incoming.size() == 1 && //
-                    transpositions.equals(joinCandidateTranspositions);
-                if (canJoin) {
-                    vertex.add(joinCandidateVertex.tokens());
-                    for (Set<Vertex> t : new HashSet<>(joinCandidateVertex.transpositions())) {
-                        final Set<Vertex> transposed = new HashSet<>(t);
-                        transposed.remove(joinCandidateVertex);
-                        transposed.add(vertex);
-                        for (Vertex tv : t) {
-                            graph.transpositionIndex.getOrDefault(tv, Collections.emptySet()).remove(t);
-                        }
-                        graph.transpose(transposed);
-                    }
+    /**
+     * An immutable copy of a variant graph.
+     * <p>
+     * Vertices are copied in topological order. The start and the end vertex keep the {@link Vertex#id() ids} 0 and 1,
+     * the vertices in between are numbered from 2 in topological order. Ids index the arrays, in which the snapshot
+     * keeps its vertices' ranks and, as bit sets over the {@link #witnessList() witnesses ordered by sigil}, the
+     * witnesses of their incoming edges. Token sets, edges and transpositions are exposed as unmodifiable collections;
+     * all mutators throw an {@link UnsupportedOperationException}. The vertices' final fields hold unmodifiable views of collections, which
+     * are filled before the snapshot's constructor returns and are not referenced elsewhere afterwards, so a snapshot
+     * can be read by several threads without further synchronization.
+     * <p>
+     * Being a {@link VariantGraph} itself, a snapshot can be passed to rankings, apparatus generators and serializers
+     * as is; {@link VariantGraphRanking#of(VariantGraph)} returns the snapshot's {@link #ranking() ranking}, computed once.
+     */
+    public static final class Frozen extends VariantGraph {
+        private final List<Vertex> vertices;
+        private final int[] ranks;
+        private final List<Witness> witnessList;
+        private final Set<Witness> witnesses;
+        private final BitSet[] witnessBits;
+        private final Set<Set<Vertex>> transpositions;
+        private final VariantGraphRanking ranking;
+
+        private Frozen(VariantGraph graph) {
+            this(graph, new VertexContents());
+        }
 
-                    vertex.outgoing.clear();
-                    vertex.outgoing.putAll(joinCandidateVertex.outgoing);
+        private Frozen(VariantGraph graph, VertexContents contents) {
+            super(contents::newVertex);
+            final Map<Vertex, Vertex> copies = new HashMap<>();
+            final List<Vertex> order = new ArrayList<>();
+            for (Vertex vertex : graph.vertices()) {
+                final Vertex copy = (vertex == graph.start ? start : vertex == graph.end ? end : contents.newVertex(this));
+                contents.tokens.get(copy).addAll(vertex.tokens);
+                copies.put(vertex, copy);
+                order.add(copy);
+            }
+            this.vertices = Collections.unmodifiableList(order);
+
+            final Set<Witness> witnesses = graph.witnesses();
+            this.witnessList = Collections.unmodifiableList(witnesses.stream()
+                .sorted(Witness.SIGIL_COMPARATOR)
+                .collect(Collectors.toList()));
+            this.witnesses = Collections.unmodifiableSet(new HashSet<>(witnesses));
+            final Map<Witness, Integer> witnessIndex = new HashMap<>();
+            for (Witness witness : witnessList) {
+                witnessIndex.put(witness, witnessIndex.size());
+            }
 
-                    vertex.outgoing.keySet().forEach(v -> v.incoming.put(vertex, v.incoming.remove(joinCandidateVertex)));
+            this.ranks = new int[nextVertexId];
+            this.witnessBits = new BitSet[nextVertexId];
+            for (Vertex vertex : graph.vertices()) {
+                final Vertex copy = copies.get(vertex);
+                for (Map.Entry<Vertex, Set<Witness>> edge : vertex.outgoing.entrySet()) {
+                    final Vertex target = copies.get(edge.getKey());
+                    final Set<Witness> edgeWitnesses = Collections.unmodifiableSet(new HashSet<>(edge.getValue()));
+                    contents.outgoing.get(copy).put(target, edgeWitnesses);
+                    contents.incoming.get(target).put(copy, edgeWitnesses);
+                }
+            }
+            for (Vertex vertex : vertices) {
+                int rank = -1;
+                final BitSet bits = new BitSet(witnessList.size());
+                for (Map.Entry<Vertex, Set<Witness>> edge : vertex.incoming.entrySet()) {
+                    rank = Math.max(rank, ranks[edge.getKey().id]);
+                    edge.getValue().forEach(witness -> bits.set(witnessIndex.get(witness)));
+                }
+                ranks[vertex.id] = rank + 1;
+                witnessBits[vertex.id] = bits;
+                bits.stream().mapToObj(witnessList::get).forEach(contents.witnesses.get(vertex)::add);
+            }
 
-                    queue.push(vertex);
-                    continue;
+            final Set<Set<Vertex>> transpositions = new HashSet<>();
+            for (Set<Vertex> transposition : graph.transpositions()) {
+                final Set<Vertex> copy = Collections.unmodifiableSet(transposition.stream()
+                    .map(copies::get)
+                    .collect(Collectors.toSet()));
+                transpositions.add(copy);
+                for (Vertex vertex : copy) {
+                    transpositionIndex.computeIfAbsent(vertex, v -> new HashSet<>()).add(copy);
                 }
             }
+            transpositionIndex.replaceAll((vertex, index) -> Collections.unmodifiableSet(index));
+            this.transpositions = Collections.unmodifiableSet(transpositions);
+            this.ranking = VariantGraphRanking.of(this, this::rank);
+        }
+
+        /**
+         * The modifiable collections behind the unmodifiable views held by a snapshot's vertices, filled while copying.
+         */
+        private static class VertexContents {
+            final Map<Vertex, Set<Token>> tokens = new HashMap<>();
+            final Map<Vertex, Map<Vertex, Set<Witness>>> outgoing = new HashMap<>();
+            final Map<Vertex, Map<Vertex, Set<Witness>>> incoming = new HashMap<>();
+            final Map<Vertex, Set<Witness>> witnesses = new HashMap<>();
+
+            Vertex newVertex(VariantGraph graph) {
+                final Set<Token> vertexTokens = new HashSet<>();
+                final Map<Vertex, Set<Witness>> vertexOutgoing = new HashMap<>();
+                final Map<Vertex, Set<Witness>> vertexIncoming = new HashMap<>();
+                final Set<Witness> vertexWitnesses = new HashSet<>();
+                final Vertex vertex = new Vertex(graph,
+                    Collections.unmodifiableSet(vertexTokens),
+                    Collections.unmodifiableMap(vertexOutgoing),
+                    Collections.unmodifiableMap(vertexIncoming),
+                    Collections.unmodifiableSet(vertexWitnesses));
+                tokens.put(vertex, vertexTokens);
+                outgoing.put(vertex, vertexOutgoing);
+                incoming.put(vertex, vertexIncoming);
+                witnesses.put(vertex, vertexWitnesses);
+                return vertex;
+            }
+        }
+
+        /**
+         * @return the vertices in topological order, as determined by a {@link VariantGraphTraversal traversal} of the
+         * original graph
+         */
+        @Override
+        public List<Vertex> vertices() {
+            return vertices;
+        }
+
+        /**
+         * @return the length of the longest path from the start vertex to the given one
+         */
+        public int rank(Vertex vertex) {
+            return ranks[vertex.id];
+        }
+
+        /**
+         * @return the ranking of this graph, computed once from the precomputed ranks
+         */
+        public VariantGraphRanking ranking() {
+            return ranking;
+        }
+
+        @Override
+        public Set<Witness> witnesses() {
+            return witnesses;
+        }
+
+        /**
+         * @return the witnesses of this graph, ordered by sigil; the order of bits in {@link #witnessBits(Vertex)}
+         */
+        public List<Witness> witnessList() {
+            return witnessList;
+        }
+
+        /**
+         * @return a copy of the set of witnesses running through the given vertex, as indices into {@link #witnessList()}
+         */
+        public BitSet witnessBits(Vertex vertex) {
+            return (BitSet) witnessBits[vertex.id].clone();
+        }
+
+        @Override
+        public Set<Set<Vertex>> transpositions() {
+            return transpositions;
+        }
+
+        @Override
+        public Vertex add(Token token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void connect(Vertex from, Vertex to, Set<Witness> witnesses) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Vertex> transpose(Set<Vertex> vertices) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Frozen freeze() {
+            return this;
+        }
+    }
+
+    /**
+     * Joins vertices, which follow each other in all witnesses and share their transpositions, into one vertex.
+     * <p>
+     * Joinable pairs of vertices are determined in one topological pass; every maximal chain of them gets merged into its
+     * first vertex at once. Chain members are linked to their first vertex via a union-find structure, by which all
+     * transpositions involving joined vertices are rewritten in one batch afterwards.
+     */
+    public static final Function<VariantGraph, VariantGraph> JOIN = graph -> {
+        final List<Vertex> vertices = new ArrayList<>();
+        graph.vertices().forEach(vertices::add);
+
+        // a vertex is joined with its successor, if it is its only successor and the successor's only predecessor
+        final BitSet joinedWithSuccessor = new BitSet();
+        final BitSet joinedWithPredecessor = new BitSet();
+        for (Vertex vertex : vertices) {
+            if (vertex == graph.start || vertex.outgoing.size() != 1) {
+                continue;
+            }
+            final Vertex successor = vertex.outgoing.keySet().iterator().next();
+            if (successor != graph.end && successor.incoming.size() == 1 && vertex.transpositions().equals(successor.transpositions())) {
+                joinedWithSuccessor.set(vertex.id);
+                joinedWithPredecessor.set(successor.id);
+            }
+        }
+        if (joinedWithSuccessor.isEmpty()) {
+            return graph;
+        }
+
+        final int[] representatives = new int[graph.nextVertexId];
+        for (int i = 0; i < representatives.length; i++) {
+            representatives[i] = i;
+        }
+        final Set<Set<Vertex>> joinedTranspositions = new HashSet<>();
+        for (Vertex first : vertices) {
+            if (!joinedWithSuccessor.get(first.id) || joinedWithPredecessor.get(first.id)) {
+                continue;
+            }
+            Vertex last = first;
+            while (joinedWithSuccessor.get(last.id)) {
+                last = last.outgoing.keySet().iterator().next();
+                first.tokens.addAll(last.tokens);
+                joinedTranspositions.addAll(last.transpositions());
+                union(representatives, first.id, last.id);
+            }
 
-            // FIXME: Why do we run out of memory in some cases here, if this is not checked?
-            processed.add(vertex);
-            vertex.outgoing.keySet().stream().filter(v -> !processed.contains(v)).forEach(queue::push);
+            first.outgoing.clear();
+            first.outgoing.putAll(last.outgoing);
+            for (Vertex successor : first.outgoing.keySet()) {
+                successor.incoming.put(first, successor.incoming.remove(last));
+            }
         }
 
+        if (!joinedTranspositions.isEmpty()) {
+            final Vertex[] byId = new Vertex[graph.nextVertexId];
+            for (Vertex vertex : vertices) {
+                byId[vertex.id] = vertex;
+            }
+            for (Set<Vertex> transposition : joinedTranspositions) {
+                for (Vertex vertex : transposition) {
+                    final Set<Set<Vertex>> index = graph.transpositionIndex.get(vertex);
+                    if (index != null) {
+                        index.remove(transposition);
+                        if (index.isEmpty() || vertex.id != find(representatives, vertex.id)) {
+                            graph.transpositionIndex.remove(vertex);
+                        }
+                    }
+                }
+            }
+            for (Set<Vertex> transposition : joinedTranspositions) {
+                final Set<Vertex> joined = new HashSet<>();
+                for (Vertex vertex : transposition) {
+                    final int representative = find(representatives, vertex.id);
+                    joined.add(representative == vertex.id ? vertex : byId[representative]);
+                }
+                for (Vertex vertex : joined) {
+                    graph.transpositionIndex.computeIfAbsent(vertex, v -> new HashSet<>()).add(joined);
+                }
+            }
+        }
         return graph;
     };
+
+    private static int find(int[] representatives, int id) {
+        while (representatives[id] != id) {
+            representatives[id] = representatives[representatives[id]];
+            id = representatives[id];
+        }
+        return id;
+    }
+
+    private static void union(int[] representatives, int first, int joined) {
+        representatives[find(representatives, joined)] = find(representatives, first);
+    }
 }
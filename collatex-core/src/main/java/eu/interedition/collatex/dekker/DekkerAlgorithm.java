@@ -19,6 +19,7 @@
 package eu.interedition.collatex.dekker;
 
 import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationInstrumentation;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
@@ -32,7 +33,9 @@ import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -41,6 +44,8 @@ public class DekkerAlgorithm extends CollationAlgorithm.Base implements Inspecta
     // tokens are mapped to vertices by their position in the token array
     protected VariantGraph.Vertex[] vertex_array;
     private final Comparator<Token> comparator;
+    private Path tokenIndexSnapshots;
+    private boolean compactTokenIndex;
     private final PhraseMatchDetector phraseMatchDetector;
     private final TranspositionDetector transpositionDetector;
     // for debugging purposes only
@@ -68,146 +73,191 @@ public class DekkerAlgorithm extends CollationAlgorithm.Base implements Inspecta
     // This phase uses a priority queue and looks at overlap between possible matches to find the optimal alignment and moves
     @Override
     public void collate(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
+        try {
+            index(witnesses);
+            align(graph, witnesses);
+        } catch (CancellationException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    private void index(List<? extends Iterable<Token>> witnesses) {
         // phase 1: matching phase
         if (LOG.isLoggable(Level.FINE)) {
             LOG.fine("Building token index from the tokens of all witnesses");
         }
 
+        final CollationInstrumentation.Phase indexing = instrumentation.start("token-index", null);
         this.tokenIndex = new TokenIndex(comparator, witnesses);
-        tokenIndex.prepare();
+        tokenIndex.setCompact(compactTokenIndex);
+        if (tokenIndexSnapshots == null) {
+            tokenIndex.prepare();
+        } else {
+            tokenIndex.prepare(tokenIndexSnapshots);
+        }
+        indexing.size("tokens", tokenIndex.size()).size("blocks", tokenIndex.blocks.size()).end();
+        cancellation.check();
+    }
 
+    private void align(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
         // phase 2: alignment phase
         this.vertex_array = new VariantGraph.Vertex[tokenIndex.token_array.length];
         boolean firstWitness = true;
 
         for (Iterable<Token> tokens : witnesses) {
-            final Witness witness = StreamUtil.stream(tokens)
-                    .findFirst()
-                    .map(Token::getWitness)
-                    .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
+            cancellation.check();
+            final Witness witness = witness(tokens);
+            final CollationInstrumentation.Phase phase = instrumentation.start("witness", witness);
 
             // first witness has a fast path
             if (firstWitness) {
                 super.merge(graph, tokens, Collections.emptyMap());
                 updateTokenToVertexArray(tokens, witness);
                 firstWitness = false;
-                continue;
-            }
-
-            // align second, third, fourth witness etc.
-            if (LOG.isLoggable(Level.FINER)) {
-                LOG.log(Level.FINER, "{0} + {1}: {2} vs. {3}", new Object[]{graph, witness, graph.vertices(), tokens});
+            } else {
+                // align second, third, fourth witness etc.
+                align(graph, tokens);
             }
+            phase.end();
+        }
+    }
 
-            // Phase 2a: Gather matches from the token index
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from token index", new Object[]{graph, witness});
-            }
+    private void align(VariantGraph graph, Iterable<Token> tokens) {
+        final Witness witness = witness(tokens);
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.log(Level.FINER, "{0} + {1}: {2} vs. {3}", new Object[]{graph, witness, graph.vertices(), tokens});
+        }
 
-            allPossibleIslands = TokenIndexToMatches.createMatches(tokenIndex, vertex_array, graph, tokens);
+        // Phase 2a: Gather matches from the token index
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from token index", new Object[]{graph, witness});
+        }
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Aligning witness and graph", new Object[]{graph, witness});
-            }
+        CollationInstrumentation.Phase phase = instrumentation.start("matches", witness);
+        allPossibleIslands = TokenIndexToMatches.createMatches(tokenIndex, vertex_array, graph, tokens);
+        phase.size("islands", allPossibleIslands.size()).end();
+        cancellation.check();
 
-            // Phase 2b: do the actual alignment
-            IslandConflictResolver resolver = new IslandConflictResolver(new IslandCollection(allPossibleIslands));
-            preferredIslands = resolver.createNonConflictingVersion().getIslands();
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Aligning witness and graph", new Object[]{graph, witness});
+        }
 
-            // we need to convert the islands into Map<Token, Vertex> for further processing
-            Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
-            for (Island island : preferredIslands) {
-                for (Coordinate c : island) {
-                    alignments.put(c.match.token, c.match.vertex);
-                }
+        // Phase 2b: do the actual alignment
+        phase = instrumentation.start("island-resolution", witness);
+        IslandConflictResolver resolver = new IslandConflictResolver(new IslandCollection(allPossibleIslands), cancellation);
+        preferredIslands = resolver.createNonConflictingVersion().getIslands();
+        phase.size("islands", preferredIslands.size()).end();
+        cancellation.check();
+
+        // we need to convert the islands into Map<Token, Vertex> for further processing
+        Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
+        for (Island island : preferredIslands) {
+            for (Coordinate c : island) {
+                alignments.put(c.match.token, c.match.vertex);
             }
+        }
 
-            if (LOG.isLoggable(Level.FINER)) {
-                for (Map.Entry<Token, VariantGraph.Vertex> tokenLink : alignments.entrySet()) {
-                    LOG.log(Level.FINER, "{0} + {1}: Aligned token (incl transposed): {2} = {3}", new Object[]{graph, witness, tokenLink.getValue(), tokenLink.getKey()});
-                }
+        if (LOG.isLoggable(Level.FINER)) {
+            for (Map.Entry<Token, VariantGraph.Vertex> tokenLink : alignments.entrySet()) {
+                LOG.log(Level.FINER, "{0} + {1}: Aligned token (incl transposed): {2} = {3}", new Object[]{graph, witness, tokenLink.getValue(), tokenLink.getKey()});
             }
+        }
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Detect phrase matches", new Object[]{graph, witness});
-            }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Detect phrase matches", new Object[]{graph, witness});
+        }
 
-            // Phase 2c: detect phrases and transpositions
-            phraseMatches = phraseMatchDetector.detect(alignments, graph, tokens);
+        // Phase 2c: detect phrases and transpositions
+        phase = instrumentation.start("phrase-matches", witness);
+        phraseMatches = phraseMatchDetector.detect(alignments, graph, tokens);
+        phase.size("phrase-matches", phraseMatches.size()).end();
+        cancellation.check();
 
-            if (LOG.isLoggable(Level.FINER)) {
-                for (List<Match> phraseMatch : phraseMatches) {
-                    LOG.log(Level.FINER, "{0} + {1}: Phrase match: {2}", new Object[]{graph, witness, phraseMatch});
-                }
+        if (LOG.isLoggable(Level.FINER)) {
+            for (List<Match> phraseMatch : phraseMatches) {
+                LOG.log(Level.FINER, "{0} + {1}: Phrase match: {2}", new Object[]{graph, witness, phraseMatch});
             }
+        }
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Detect transpositions", new Object[]{graph, witness});
-            }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Detect transpositions", new Object[]{graph, witness});
+        }
 
-            transpositions = transpositionDetector.detect(phraseMatches, graph);
+        phase = instrumentation.start("transpositions", witness);
+        transpositions = transpositionDetector.detect(phraseMatches, graph);
+        phase.size("transpositions", transpositions.size()).end();
+        cancellation.check();
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "transpositions:{0}", transpositions);
-            }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "transpositions:{0}", transpositions);
+        }
 
-            if (LOG.isLoggable(Level.FINER)) {
-                for (List<Match> transposition : transpositions) {
-                    LOG.log(Level.FINER, "{0} + {1}: Transposition: {2}", new Object[]{graph, witness, transposition});
-                }
+        if (LOG.isLoggable(Level.FINER)) {
+            for (List<Match> transposition : transpositions) {
+                LOG.log(Level.FINER, "{0} + {1}: Transposition: {2}", new Object[]{graph, witness, transposition});
             }
+        }
 
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Determine aligned tokens by filtering transpositions", new Object[]{graph, witness});
-            }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Determine aligned tokens by filtering transpositions", new Object[]{graph, witness});
+        }
 
-            // Filter out transposed tokens from aligned tokens
-            for (List<Match> transposedPhrase : transpositions) {
-                for (Match match : transposedPhrase) {
-                    alignments.remove(match.token);
-                }
+        // Filter out transposed tokens from aligned tokens
+        for (List<Match> transposedPhrase : transpositions) {
+            for (Match match : transposedPhrase) {
+                alignments.remove(match.token);
             }
+        }
 
-            if (LOG.isLoggable(Level.FINER)) {
-                for (Map.Entry<Token, VariantGraph.Vertex> alignment : alignments.entrySet()) {
-                    LOG.log(Level.FINER, "{0} + {1}: Alignment: {2} = {3}", new Object[]{graph, witness, alignment.getValue(), alignment.getKey()});
-                }
+        if (LOG.isLoggable(Level.FINER)) {
+            for (Map.Entry<Token, VariantGraph.Vertex> alignment : alignments.entrySet()) {
+                LOG.log(Level.FINER, "{0} + {1}: Alignment: {2} = {3}", new Object[]{graph, witness, alignment.getValue(), alignment.getKey()});
             }
+        }
 
-            // Phase 2d: and merge
-            merge(graph, tokens, alignments);
+        // Phase 2d: and merge
+        merge(graph, tokens, alignments);
 
-            // we filter out small transposed phrases over large distances
-            List<List<Match>> falseTranspositions = new ArrayList<>();
+        // we filter out small transposed phrases over large distances
+        List<List<Match>> falseTranspositions = new ArrayList<>();
 
-            // rank the variant graph
-            VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+        // rank the variant graph
+        phase = instrumentation.start("ranking", witness);
+        VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+        phase.size("ranks", ranking.size()).end();
 
-            for (List<Match> transposedPhrase : transpositions) {
-                Match match = transposedPhrase.get(0);
-                VariantGraph.Vertex v1 = witnessTokenVertices.get(match.token);
-                VariantGraph.Vertex v2 = match.vertex;
-                int distance = Math.abs(ranking.apply(v1) - ranking.apply(v2)) - 1;
-                if (distance > transposedPhrase.size() * 3) {
-                    falseTranspositions.add(transposedPhrase);
-                }
+        for (List<Match> transposedPhrase : transpositions) {
+            Match match = transposedPhrase.get(0);
+            VariantGraph.Vertex v1 = witnessTokenVertices.get(match.token);
+            VariantGraph.Vertex v2 = match.vertex;
+            int distance = Math.abs(ranking.apply(v1) - ranking.apply(v2)) - 1;
+            if (distance > transposedPhrase.size() * 3) {
+                falseTranspositions.add(transposedPhrase);
             }
+        }
 
-            transpositions.removeAll(falseTranspositions);
+        transpositions.removeAll(falseTranspositions);
 
-            // merge transpositions
-            if (mergeTranspositions) {
-                mergeTranspositions(graph, transpositions);
-            }
+        // merge transpositions
+        if (mergeTranspositions) {
+            mergeTranspositions(graph, transpositions);
+        }
 
-            updateTokenToVertexArray(tokens, witness);
+        updateTokenToVertexArray(tokens, witness);
 
-            if (LOG.isLoggable(Level.FINER)) {
-                LOG.log(Level.FINER, "!{0}: {1}", new Object[]{graph, StreamUtil.stream(graph.vertices()).map(Object::toString).collect(Collectors.joining(", "))});
-            }
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.log(Level.FINER, "!{0}: {1}", new Object[]{graph, StreamUtil.stream(graph.vertices()).map(Object::toString).collect(Collectors.joining(", "))});
         }
     }
 
+    private static Witness witness(Iterable<Token> tokens) {
+        return StreamUtil.stream(tokens)
+                .findFirst()
+                .map(Token::getWitness)
+                .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
+    }
+
     private void updateTokenToVertexArray(Iterable<Token> tokens, Witness witness) {
         // we need to update the token -> vertex map
         // that information is stored in protected map
@@ -219,9 +269,102 @@ public class DekkerAlgorithm extends CollationAlgorithm.Base implements Inspecta
         }
     }
 
+    /**
+     * Aligns one more witness against a graph, which has been collated by this instance before or whose state has been
+     * restored via {@link #resume(TokenIndex, VariantGraph.Vertex[])}. The witness is appended to the existing token
+     * index instead of indexing all witnesses again, and only the new witness gets aligned. Collating into an empty
+     * graph starts a new collation.
+     *
+     * @throws IllegalStateException if the graph is neither empty nor the one of the kept or restored state
+     */
     @Override
     public void collate(VariantGraph graph, Iterable<Token> tokens) {
-        throw new RuntimeException("Progressive alignment is not supported!");
+        if (graph.witnesses().isEmpty()) {
+            // the state of earlier collations is of no use for a new graph
+            collate(graph, Collections.singletonList(tokens));
+            return;
+        }
+        if (tokenIndex == null || !indexes(graph)) {
+            throw new IllegalStateException("No token index for " + graph + "; resume the collation first");
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Appending the tokens of the witness to the token index");
+        }
+        final Witness witness = witness(tokens);
+        final CollationInstrumentation.Phase phase = instrumentation.start("witness", witness);
+        final CollationInstrumentation.Phase indexing = instrumentation.start("token-index", witness);
+        try {
+            tokenIndex.append(tokens);
+            indexing.size("tokens", tokenIndex.size()).size("blocks", tokenIndex.blocks.size()).end();
+            cancellation.check();
+            vertex_array = Arrays.copyOf(vertex_array, tokenIndex.size());
+            align(graph, tokens);
+        } catch (CancellationException e) {
+            discard();
+            throw e;
+        }
+        phase.end();
+    }
+
+    /**
+     * Drops the state of a cancelled collation, which cannot be resumed.
+     */
+    private void discard() {
+        this.tokenIndex = null;
+        this.vertex_array = null;
+        this.allPossibleIslands = null;
+        this.preferredIslands = null;
+        this.phraseMatches = null;
+        this.transpositions = null;
+    }
+
+    /**
+     * Whether the kept token index and vertex array belong to the given graph.
+     */
+    private boolean indexes(VariantGraph graph) {
+        for (VariantGraph.Vertex vertex : vertex_array) {
+            if (vertex != null) {
+                return vertex.graph() == graph;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reuses token indices across collations of the same witnesses, by keeping snapshots of them in the given directory.
+     *
+     * @see TokenIndex#prepare(Path)
+     */
+    public void setTokenIndexSnapshots(Path directory) {
+        this.tokenIndexSnapshots = directory;
+    }
+
+    /**
+     * Keeps the suffix and LCP arrays of token indices in compact form, saving memory at the expense of matching speed.
+     *
+     * @see TokenIndex#setCompact(boolean)
+     */
+    public void setCompactTokenIndex(boolean compactTokenIndex) {
+        this.compactTokenIndex = compactTokenIndex;
+    }
+
+    /**
+     * Restores the state of an earlier collation, so further witnesses can be aligned progressively.
+     *
+     * @param tokenIndex   the token index of all witnesses in the graph
+     * @param vertex_array the vertices of the graph, by position of their tokens in the token index
+     */
+    public void resume(TokenIndex tokenIndex, VariantGraph.Vertex[] vertex_array) {
+        if (vertex_array.length != tokenIndex.size()) {
+            throw new IllegalArgumentException("Vertex array does not match token index");
+        }
+        this.tokenIndex = tokenIndex;
+        this.vertex_array = vertex_array;
+    }
+
+    public VariantGraph.Vertex[] getVertexArray() {
+        return vertex_array;
     }
 
     @Override
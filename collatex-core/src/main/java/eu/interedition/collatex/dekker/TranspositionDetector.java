@@ -22,13 +22,32 @@ import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
+ * Detects transpositions among the phrase matches of a witness and a variant graph.
+ * <p>
+ * Phrase matches are ordered in witness order as well as in graph order. The distance of the <code>k</code>-th
+ * phrase match in witness order is the difference between its position in graph order and the position of the
+ * <code>k</code>-th phrase match in graph order. The phrase match with the largest distance, and among those the
+ * smallest one, is taken to be transposed, together with the phrase match it has been swapped with if both are
+ * equally distant. Transposed phrase matches are removed and distances are updated until none remain that are out
+ * of order.
+ * <p>
+ * Both orders are kept as <code>int</code> arrays, with Fenwick trees for counting the remaining phrase matches
+ * preceding a given one in either order. Distances are kept in a heap, from which stale entries of removed or
+ * updated phrase matches get discarded lazily. Removing a phrase match only changes the distances of those phrase
+ * matches ranked between its positions in witness order and in graph order, so each step costs time proportional
+ * to the number of these times the logarithm of the number of phrase matches.
+ *
  * @author Ronald Haentjens Dekker
  */
 public class TranspositionDetector {
-    private Map<List<Match>, Integer> phraseMatchToIndex;
 
     public List<List<Match>> detect(final List<List<Match>> phraseMatches, VariantGraph base) {
         // if there are no phrase matches it is not possible
@@ -45,111 +64,120 @@ public class TranspositionDetector {
      */
         final VariantGraphRanking ranking = rankTheGraph(phraseMatches, base);
 
-        Comparator<List<Match>> comp = (pm1, pm2) -> {
-            int rank1 = ranking.apply(pm1.get(0).vertex);
-            int rank2 = ranking.apply(pm2.get(0).vertex);
-            int difference = rank1 - rank2;
-            if (difference != 0) {
-                return difference;
-            }
-            int index1 = phraseMatches.indexOf(pm1);
-            int index2 = phraseMatches.indexOf(pm2);
-            return index1 - index2;
-        };
+        final int size = phraseMatches.size();
+        final long[] graphOrder = new long[size];
+        for (int i = 0; i < size; i++) {
+            graphOrder[i] = ((long) ranking.apply(phraseMatches.get(i).get(0).vertex) << 32) | i;
+        }
+        Arrays.sort(graphOrder);
 
-        List<List<Match>> phraseMatchesGraphOrder = new ArrayList<>(phraseMatches);
-        phraseMatchesGraphOrder.sort(comp);
+        // position of each phrase match (indexed in witness order) in graph order
+        final int[] graphPosition = new int[size];
+        for (int i = 0; i < size; i++) {
+            graphPosition[(int) graphOrder[i]] = i;
+        }
 
-        // Map 1
-        phraseMatchToIndex = new HashMap<>();
-        for (int i = 0; i < phraseMatchesGraphOrder.size(); i++) {
-            phraseMatchToIndex.put(phraseMatchesGraphOrder.get(i), i);
+        final int[] phraseSize = new int[size];
+        final int[] distance = new int[size];
+        for (int i = 0; i < size; i++) {
+            phraseSize[i] = determineSize(phraseMatches.get(i));
+            distance[i] = Math.abs(i - graphPosition[i]);
         }
 
     /*
-     * We calculate the index for all the phrase matches
-     * First in witness order, then in graph order
+     * Remaining phrase matches, in witness order and in graph order
      */
-        List<Integer> phraseMatchesGraphIndex = new ArrayList<>();
-        List<Integer> phraseMatchesWitnessIndex = new ArrayList<>();
-
-        for (int i = 0; i < phraseMatches.size(); i++) {
-            phraseMatchesGraphIndex.add(i);
-        }
-
-        for (List<Match> phraseMatch : phraseMatches) {
-            phraseMatchesWitnessIndex.add(phraseMatchToIndex.get(phraseMatch));
+        final RankIndex witnessRanks = new RankIndex(size);
+        final RankIndex graphRanks = new RankIndex(size);
+        final int[] previous = new int[size];
+        final int[] next = new int[size];
+        for (int i = 0; i < size; i++) {
+            previous[i] = i - 1;
+            next[i] = (i + 1 < size ? i + 1 : -1);
         }
 
     /*
-     * Initialize result variables
+     * sort phrase matches on distance, size and witness order
+     *
+     * Ties in distance and size are broken by witness order, as the stable
+     * sort of earlier versions did. Ordering them by graph rank instead has
+     * been considered, but no use case has come up that needs it.
      */
-        List<List<Match>> nonTransposedPhraseMatches = new ArrayList<>(phraseMatches);
-        List<List<Match>> transpositions = new ArrayList<>();
+        final PriorityQueue<int[]> distances = new PriorityQueue<>(size, (e1, e2) -> {
+            if (e1[1] != e2[1]) {
+                return Integer.compare(e2[1], e1[1]);
+            }
+            if (phraseSize[e1[0]] != phraseSize[e2[0]]) {
+                return Integer.compare(phraseSize[e1[0]], phraseSize[e2[0]]);
+            }
+            return Integer.compare(e1[0], e2[0]);
+        });
+        for (int i = 0; i < size; i++) {
+            distances.add(new int[] { i, distance[i] });
+        }
+
+        final boolean[] transposed = new boolean[size];
+        final List<List<Match>> transpositions = new ArrayList<>();
 
     /*
      * loop here until the maximum distance == 0
      */
         while (true) {
-            // Map 2
-            final Map<List<Match>, Integer> phraseMatchToDistanceMap = new LinkedHashMap<>();
-            for (int i = 0; i < nonTransposedPhraseMatches.size(); i++) {
-                Integer graphIndex = phraseMatchesGraphIndex.get(i);
-                Integer witnessIndex = phraseMatchesWitnessIndex.get(i);
-                Integer distance = Math.abs(graphIndex - witnessIndex);
-                List<Match> phraseMatch = nonTransposedPhraseMatches.get(i);
-                phraseMatchToDistanceMap.put(phraseMatch, distance);
+            int[] top;
+            while ((top = distances.peek()) != null && (transposed[top[0]] || distance[top[0]] != top[1])) {
+                distances.poll();
             }
-
-            List<Integer> distanceList = new ArrayList<>(phraseMatchToDistanceMap.values());
-
-            if (distanceList.isEmpty() || Collections.max(distanceList) == 0) {
+            if (top == null || top[1] == 0) {
                 break;
             }
 
-            // sort phrase matches on distance, size
-            // TODO: order by 3) graph rank?
-            // TODO: I have not yet found evidence/a use case that
-            // TODO: indicates that it is needed.
-            Comparator<List<Match>> comp2 = (pm1, pm2) -> {
-                // first order by distance
-                int distance1 = phraseMatchToDistanceMap.get(pm1);
-                int distance2 = phraseMatchToDistanceMap.get(pm2);
-                int difference = distance2 - distance1;
-                if (difference != 0) {
-                    return difference;
-                }
-                // second order by size
-                // return pm1.size() - pm2.size();
-                return determineSize(pm1) - determineSize(pm2);
-            };
-
-            List<List<Match>> sortedPhraseMatches = new ArrayList<>(nonTransposedPhraseMatches);
-            sortedPhraseMatches.sort(comp2);
+            // the transposed phrase is linked to the phrase, whose rank in witness order equals its rank in graph order
+            final int transposedPhrase = top[0];
+            final int linkedTransposedPhrase = witnessRanks.select(graphRanks.rank(graphPosition[transposedPhrase]));
+            final int linkedDistance = distance[linkedTransposedPhrase];
 
-            List<Match> transposedPhrase = sortedPhraseMatches.remove(0);
+            transpositions.add(phraseMatches.get(transposedPhrase));
+            remove(transposedPhrase, graphPosition, witnessRanks, graphRanks, previous, next, transposed, distance, distances);
 
-            Integer transposedIndex = phraseMatchToIndex.get(transposedPhrase);
-            Integer graphIndex = phraseMatchesGraphIndex.indexOf(transposedIndex);
-            Integer transposedWithIndex = phraseMatchesWitnessIndex.get(graphIndex);
-            List<Match> linkedTransposedPhrase = phraseMatchesGraphOrder.get(transposedWithIndex);
-
-            addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, transposedPhrase);
-
-            Integer distance = phraseMatchToDistanceMap.get(transposedPhrase);
-            if (Objects.equals(distance, phraseMatchToDistanceMap.get(linkedTransposedPhrase)) && distance > 1) {
-                addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, linkedTransposedPhrase);
+            if (top[1] == linkedDistance && top[1] > 1) {
+                transpositions.add(phraseMatches.get(linkedTransposedPhrase));
+                remove(linkedTransposedPhrase, graphPosition, witnessRanks, graphRanks, previous, next, transposed, distance, distances);
             }
         }
         return transpositions;
     }
 
-    private void addTransposition(List<Integer> phraseWitnessRanks, List<Integer> phraseGraphRanks, List<List<Match>> nonTransposedPhraseMatches, List<List<Match>> transpositions, List<Match> transposedPhrase) {
-        Integer indexToRemove = phraseMatchToIndex.get(transposedPhrase);
-        nonTransposedPhraseMatches.remove(transposedPhrase);
-        transpositions.add(transposedPhrase);
-        phraseGraphRanks.remove(indexToRemove);
-        phraseWitnessRanks.remove(indexToRemove);
+    /**
+     * Removes a transposed phrase match, updating the distances of all remaining phrase matches affected.
+     * <p>
+     * Phrase matches preceding the removed one in witness order keep their rank, those following it move up by one,
+     * and the graph position at each rank from the removed phrase match's rank in graph order onwards becomes the one
+     * previously found at the next rank. Hence only the distances of phrase matches ranked between both ranks of the
+     * removed phrase match change.
+     */
+    private static void remove(int phrase, int[] graphPosition, RankIndex witnessRanks, RankIndex graphRanks, int[] previous, int[] next,
+                               boolean[] transposed, int[] distance, PriorityQueue<int[]> distances) {
+        final int witnessRank = witnessRanks.rank(phrase);
+        final int graphRank = graphRanks.rank(graphPosition[phrase]);
+
+        transposed[phrase] = true;
+        witnessRanks.remove(phrase);
+        graphRanks.remove(graphPosition[phrase]);
+        if (previous[phrase] >= 0) {
+            next[previous[phrase]] = next[phrase];
+        }
+        if (next[phrase] >= 0) {
+            previous[next[phrase]] = previous[phrase];
+        }
+
+        final int[] neighbours = (graphRank < witnessRank ? previous : next);
+        for (int i = neighbours[phrase], steps = Math.abs(witnessRank - graphRank); steps > 0; i = neighbours[i], steps--) {
+            final int updated = Math.abs(graphRanks.select(witnessRanks.rank(i)) - graphPosition[i]);
+            if (updated != distance[i]) {
+                distance[i] = updated;
+                distances.add(new int[] { i, updated });
+            }
+        }
     }
 
     private VariantGraphRanking rankTheGraph(List<List<Match>> phraseMatches, VariantGraph base) {
@@ -179,4 +207,55 @@ public class TranspositionDetector {
         }
         return charLength;
     }
+
+    /**
+     * A Fenwick tree over the positions <code>0..n-1</code>, counting those not removed yet.
+     */
+    private static class RankIndex {
+        private final int[] tree;
+        private final int highestBit;
+
+        RankIndex(int size) {
+            tree = new int[size + 1];
+            for (int i = 1; i <= size; i++) {
+                tree[i]++;
+                final int parent = i + (i & -i);
+                if (parent <= size) {
+                    tree[parent] += tree[i];
+                }
+            }
+            highestBit = Integer.highestOneBit(size);
+        }
+
+        void remove(int position) {
+            for (int i = position + 1; i < tree.length; i += (i & -i)) {
+                tree[i]--;
+            }
+        }
+
+        /**
+         * @return the number of remaining positions before the given one
+         */
+        int rank(int position) {
+            int rank = 0;
+            for (int i = position; i > 0; i -= (i & -i)) {
+                rank += tree[i];
+            }
+            return rank;
+        }
+
+        /**
+         * @return the remaining position with the given rank
+         */
+        int select(int rank) {
+            int position = 0;
+            for (int bit = highestBit; bit > 0; bit >>= 1) {
+                if (position + bit < tree.length && tree[position + bit] <= rank) {
+                    position += bit;
+                    rank -= tree[position];
+                }
+            }
+            return position;
+        }
+    }
 }
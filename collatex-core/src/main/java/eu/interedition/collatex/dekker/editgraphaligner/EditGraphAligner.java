@@ -1,24 +1,28 @@
 package eu.interedition.collatex.dekker.editgraphaligner;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationInstrumentation;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.Match;
+import eu.interedition.collatex.dekker.token_index.Block;
 import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.util.LongestIncreasingSubsequence;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
-import static java.util.Collections.max;
-import static java.util.Comparator.comparingInt;
 
 /**
  * Created by Ronald Haentjens Dekker on 06/01/17.
@@ -53,7 +57,17 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
     // tokens are mapped to vertices by their position in the token array
     public VariantGraph.Vertex[] vertex_array;
     private final Comparator<Token> comparator;
-    Score[][] cells;
+    private Path tokenIndexSnapshots;
+    private boolean compactTokenIndex;
+    private boolean anchored;
+    private Executor regionExecutor = Runnable::run;
+
+    /**
+     * Transitions into a cell of the edit graph table.
+     */
+    private static final int FROM_UPPER_LEFT = 0;
+    private static final int FROM_LEFT = 1;
+    private static final int FROM_UPPER = 2;
 
     public EditGraphAligner() {
         this(new EqualityTokenComparator());
@@ -65,11 +79,18 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
 
     @Override
     public void collate(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
-        // phase 1: matching phase
-        match(witnesses);
-
-        // phase 2: alignment phase
-        align(graph, witnesses);
+        try {
+            // phase 1: matching phase
+            match(witnesses);
+
+            // phase 2: alignment phase
+            align(graph, witnesses);
+        } catch (CancellationException e) {
+            // the state of a cancelled collation cannot be resumed
+            this.tokenIndex = null;
+            this.vertex_array = null;
+            throw e;
+        }
     }
 
     private void match(List<? extends Iterable<Token>> witnesses) {
@@ -77,8 +98,16 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
             LOG.fine("Building token index from the tokens of all witnesses");
         }
 
+        final CollationInstrumentation.Phase phase = instrumentation.start("token-index", null);
         this.tokenIndex = new TokenIndex(comparator, witnesses);
-        tokenIndex.prepare();
+        tokenIndex.setCompact(compactTokenIndex);
+        if (tokenIndexSnapshots == null) {
+            tokenIndex.prepare();
+        } else {
+            tokenIndex.prepare(tokenIndexSnapshots);
+        }
+        phase.size("tokens", tokenIndex.size()).size("blocks", tokenIndex.blocks.size()).end();
+        cancellation.check();
     }
 
     private void align(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
@@ -86,192 +115,278 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
         boolean firstWitness = true;
 
         for (Iterable<Token> tokens : witnesses) {
-            final Witness witness = StreamUtil.stream(tokens)
-                .findFirst()
-                .map(Token::getWitness)
-                .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
+            final Witness witness = witness(tokens);
+            cancellation.check();
+            final CollationInstrumentation.Phase phase = instrumentation.start("witness", witness);
 
             // first witness has a fast path
             if (firstWitness) {
                 super.merge(graph, tokens, emptyMap());
                 updateTokenToVertexArray(tokens, witness);
                 firstWitness = false;
-                continue;
+            } else {
+                // align second, third, fourth witness etc.
+                align(graph, tokens);
             }
+            phase.end();
+        }
+    }
 
-            // align second, third, fourth witness etc.
-            if (LOG.isLoggable(Level.FINER)) {
-                LOG.log(Level.FINER, "{0} + {1}: {2} vs. {3}", new Object[]{graph, witness, graph.vertices(), tokens});
-            }
+    private void align(VariantGraph graph, Iterable<Token> tokens) {
+        final Witness witness = witness(tokens);
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.log(Level.FINER, "{0} + {1}: {2} vs. {3}", new Object[]{graph, witness, graph.vertices(), tokens});
+        }
 
-            // Phase 2a: Gather matches from the token index
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from token index", new Object[]{graph, witness});
-            }
+        // Phase 2a: Gather matches from the token index
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from token index", new Object[]{graph, witness});
+        }
 
-            // now we can create the space for the edit graph.. using arrays and stuff
-            // the horizontal size is the number of ranks in the graph starting from 0
-            VariantGraphRanking variantGraphRanking = VariantGraphRanking.of(graph);
-            Map<VariantGraph.Vertex, Integer> byVertex = variantGraphRanking.getByVertex();
-            List<Integer> variantGraphRanks = StreamUtil.stream(graph.vertices())//
-                .map(byVertex::get)//
-                .distinct()//
-                .collect(Collectors.toList());
+        // now we can create the space for the edit graph.. using arrays and stuff
+        // the horizontal size is the number of ranks in the graph starting from 0
+        CollationInstrumentation.Phase phase = instrumentation.start("ranking", witness);
+        VariantGraphRanking variantGraphRanking = VariantGraphRanking.of(graph);
+        Map<VariantGraph.Vertex, Integer> byVertex = variantGraphRanking.getByVertex();
+        List<Integer> variantGraphRanks = StreamUtil.stream(graph.vertices())//
+            .map(byVertex::get)//
+            .distinct()//
+            .collect(Collectors.toList());
 
-            // we leave in the rank of the start vertex, but remove the rank of the end vertex
-            variantGraphRanks.remove(variantGraphRanks.size() - 1);
+        // we leave in the rank of the start vertex, but remove the rank of the end vertex
+        variantGraphRanks.remove(variantGraphRanks.size() - 1);
 
-            // System.out.println("horizontal (graph, rank): " + variantGraphRanks);
+        // System.out.println("horizontal (graph, rank): " + variantGraphRanks);
 
 //            Map<Integer, Set<VariantGraph.Vertex>> vertexSetByRank = variantGraphRanking.getByRank();
 
-            // now the vertical stuff
-            List<Token> witnessTokens = StreamUtil.stream(tokens).collect(Collectors.toList());
-            List<Integer> tokensAsIndexList = asIndexList(tokens);
-            // System.out.println("vertical (next witness, token index): " + tokensAsIndexList);
+        // now the vertical stuff: the witness tokens, starting from 0
+        final int width = variantGraphRanks.size();
+        final int height = (int) StreamUtil.stream(tokens).count() + 1;
+
+        phase.size("ranks", width).end();
+        cancellation.check();
 
-            MatchCube cube = new MatchCube(tokenIndex, tokens, vertex_array, variantGraphRanking);
-            fillNeedlemanWunschTable(variantGraphRanks, witnessTokens, tokensAsIndexList, cube);
+        phase = instrumentation.start("matches", witness);
+        MatchCube cube = new MatchCube(tokenIndex, tokens, vertex_array, variantGraphRanking);
+        final int[][] matchedRanks = cube.getMatchedRanksByRow(height - 1);
+        phase.size("matches", cube.size()).end();
+        cancellation.check();
 
-            // debug only
-            // printScoringTable(variantGraphRanks, tokensAsIndexList);
+        phase = instrumentation.start("alignment", witness);
+        final List<Match> matches = (anchored
+            ? alignBetweenAnchors(witness, width, height, matchedRanks, cube, variantGraphRanking)
+            : alignRegion(0, 0, width, height, matchedRanks, cube, cancellation));
+        phase.size("cells", (long) width * height).size("matches", matches.size()).end();
 
-            Map<Token, VariantGraph.Vertex> aligned = alignMatchingTokens(cube);
-            merge(graph, tokens, aligned);
-            updateTokenToVertexArray(tokens, witness);
+        // later for the transposition detection, we also want to keep track of all the additions, omissions, and replacements
+        Map<Token, VariantGraph.Vertex> aligned = new HashMap<>();
+        Set<VariantGraph.Vertex> matchedVertices = new HashSet<>();
+        for (Match match : matches) {
+            if (matchedVertices.add(match.vertex)) {
+                aligned.put(match.token, match.vertex);
+            }
         }
+        merge(graph, tokens, aligned);
+        updateTokenToVertexArray(tokens, witness);
     }
 
-    private List<Integer> asIndexList(Iterable<Token> tokens) {
-        List<Integer> tokensAsIndexList = new ArrayList<>();
-        tokensAsIndexList.add(0);
-        int counter = 1;
-        for (Token t : tokens) {
-            tokensAsIndexList.add(counter++);
+    /**
+     * Splits the edit graph table at anchors and aligns the regions between them independently, on the region executor.
+     * <p>
+     * Anchors are tokens of blocks occurring exactly once in every witness of the token index, whose occurrences in
+     * the graph have all been aligned to the same vertex. Of these, the longest sequence that is ordered consistently
+     * in the witness and in the graph is kept, so that every region between consecutive anchors spans the tokens and
+     * ranks in between.
+     *
+     * @return the matches along the alignment path, from the lower right to the upper left cell of the table
+     */
+    private List<Match> alignBetweenAnchors(Witness witness, int width, int height, int[][] matchedRanks, MatchCube cube, VariantGraphRanking ranking) {
+        final int witnessStart = tokenIndex.getStartTokenPositionForWitness(witness);
+        final int witnessCount = tokenIndex.getNumberOfWitnesses();
+
+        // rank of the anchor vertex by row, -1 for no anchor, -2 for conflicting anchors
+        final int[] anchorRanks = new int[height - 1];
+        Arrays.fill(anchorRanks, -1);
+        for (Block.Instance witnessInstance : tokenIndex.getBlockInstancesForWitness(witness)) {
+            final Block block = witnessInstance.block;
+            if (block.getDepth() != witnessCount || block.getFrequency() != witnessCount) {
+                continue;
+            }
+            final List<Block.Instance> graphInstances = block.getAllInstances().stream()
+                .filter(instance -> instance.start_token < witnessStart)
+                .collect(Collectors.toList());
+            for (int i = 0; i < block.length; i++) {
+                final int row = witnessInstance.start_token + i - witnessStart;
+                VariantGraph.Vertex vertex = null;
+                for (Block.Instance graphInstance : graphInstances) {
+                    final VariantGraph.Vertex instanceVertex = vertex_array[graphInstance.start_token + i];
+                    if (vertex == null) {
+                        vertex = instanceVertex;
+                    } else if (vertex != instanceVertex) {
+                        vertex = null;
+                        break;
+                    }
+                }
+                final int rank = (vertex == null ? -2 : ranking.apply(vertex) - 1);
+                anchorRanks[row] = (anchorRanks[row] == -1 || anchorRanks[row] == rank ? rank : -2);
+            }
+        }
+
+        final int[] rows = IntStream.range(0, anchorRanks.length).filter(row -> anchorRanks[row] >= 0).toArray();
+        final int[] ranks = Arrays.stream(rows).map(row -> anchorRanks[row]).toArray();
+        final int[] anchors = LongestIncreasingSubsequence.of(ranks);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0}: {1} anchors", new Object[] { witness, anchors.length });
+        }
+
+        // the anchors' cells, preceded by the upper left cell and followed by the lower right cell of the table
+        final int[] ys = new int[anchors.length + 2];
+        final int[] xs = new int[anchors.length + 2];
+        for (int a = 0; a < anchors.length; a++) {
+            ys[a + 1] = rows[anchors[a]] + 1;
+            xs[a + 1] = ranks[anchors[a]] + 1;
+        }
+        ys[ys.length - 1] = height;
+        xs[xs.length - 1] = width;
+
+        final List<List<Match>> regions = invokeAll(regionExecutor, anchors.length + 1,
+            r -> alignRegion(xs[r], ys[r], xs[r + 1] - xs[r], ys[r + 1] - ys[r], matchedRanks, cube, cancellation));
+
+        final List<Match> matches = new ArrayList<>();
+        for (int r = anchors.length; r >= 0; r--) {
+            if (r < anchors.length) {
+                matches.add(cube.getMatch(ys[r + 1] - 1, xs[r + 1] - 1));
+            }
+            matches.addAll(regions.get(r));
         }
-        return tokensAsIndexList;
+        return matches;
     }
 
-    private void fillNeedlemanWunschTable(List<Integer> variantGraphRanks, List<Token> witnessTokens, List<Integer> tokensAsIndexList, MatchCube cube) {
-        // code below is partly taken from the CSA branch.
-        // init cells and scorer
-        this.cells = new Score[tokensAsIndexList.size()][variantGraphRanks.size()];
-        Scorer scorer = new Scorer(cube);
+    /**
+     * Aligns a region of the edit graph table, starting at the given upper left cell.
+     *
+     * @return the matches along the alignment path through the region, from its lower right to its upper left cell
+     */
+    private static List<Match> alignRegion(int x0, int y0, int width, int height, int[][] matchedRanks, MatchCube cube, Cancellation cancellation) {
+        return traceMatches(x0, y0, width, height, fillNeedlemanWunschTable(x0, y0, width, height, matchedRanks, cancellation), cube);
+    }
 
-        // init 0,0
-        this.cells[0][0] = new Score(Score.Type.empty, 0, 0, null, 0);
+    /**
+     * Fills the edit graph table row by row, i.e. token by token of the witness, keeping the global scores of the
+     * current and the previous row only. For each cell, the transition yielding its score is recorded in a packed
+     * table of 2 bits per cell (see {@link #FROM_UPPER_LEFT}, {@link #FROM_LEFT} and {@link #FROM_UPPER}).
+     * <p>
+     * Going from the upper left cell is scored as a match or mismatch, going from the left cell as a gap. Going from
+     * the upper cell is scored as a match or mismatch as well if the upper cell's token matches at the same rank,
+     * and as a gap otherwise. Ties are broken in this order.
+     *
+     * <p>
+     * The table may be a region of the complete table, whose upper left cell is the cell <code>(x0, y0)</code> of the
+     * complete table; coordinates are relative to this cell.
+     *
+     * @param matchedRanks the ranks (starting from 0 for the first column after the start) matching each token of
+     *                     the witness
+     * @param cancellation polled once per row
+     * @return the packed transitions, by <code>y * width + x</code>
+     */
+    private static long[] fillNeedlemanWunschTable(int x0, int y0, int width, int height, int[][] matchedRanks, Cancellation cancellation) {
+        // code below is partly taken from the CSA branch.
+        final long[] traceback = new long[(int) (((long) width * height * 2 + 63) >>> 6)];
+        int[] previousScores = new int[width];
+        int[] scores = new int[width];
+        boolean[] upperMatches = new boolean[width];
+        boolean[] matches = new boolean[width];
 
         // fill the first row with gaps
-        IntStream.range(1, variantGraphRanks.size()).forEach(x -> {
-            int previousX = x - 1;
-            this.cells[0][x] = scorer.gap(x, 0, this.cells[0][previousX]);
-        });
-
-        // fill the first column with gaps
-        IntStream.range(1, tokensAsIndexList.size()).forEach(y -> {
-            int previousY = y - 1;
-            this.cells[y][0] = scorer.gap(0, y, this.cells[previousY][0]);
-        });
-
-        // fill the remaining cells
+        for (int x = 1; x < width; x++) {
+            scores[x] = scores[x - 1] - 1;
+            setTransition(traceback, x, FROM_LEFT);
+        }
+
         // fill the rest of the cells in a y by x fashion
-        IntStream.range(1, tokensAsIndexList.size()).forEach(//
-            y -> IntStream.range(1, variantGraphRanks.size()).forEach(
-                x -> {
-                    int previousY = y - 1;
-                    int previousX = x - 1;
-                    Score fromUpperLeft = scorer.score(x, y, this.cells[previousY][previousX]);
-                    Score fromLeft = scorer.gap(x, y, this.cells[y][previousX]);
-                    Score fromUpper = calculateFromUpper(scorer, y, x, previousY, cube);
-                    Score max = max(asList(fromUpperLeft, fromLeft, fromUpper), comparingInt(score -> score.globalScore));
-                    this.cells[y][x] = max;
-                }));
+        for (int y = 1; y < height; y++) {
+            cancellation.check();
+            final int[] swap = previousScores;
+            previousScores = scores;
+            scores = swap;
+            final boolean[] swapMatches = upperMatches;
+            upperMatches = matches;
+            matches = swapMatches;
+            markMatches(matches, matchedRanks[y0 + y - 1], x0, width, true);
+
+            // fill the first column with gaps
+            final long row = (long) y * width;
+            scores[0] = previousScores[0] - 1;
+            setTransition(traceback, row, FROM_UPPER);
+
+            for (int x = 1; x < width; x++) {
+                final int score = (matches[x] ? 1 : -1);
+                final int fromUpperLeft = previousScores[x - 1] + score;
+                final int fromLeft = scores[x - 1] - 1;
+                final int fromUpper = previousScores[x] + (upperMatches[x] ? score : -1);
+                if (fromUpperLeft >= fromLeft && fromUpperLeft >= fromUpper) {
+                    scores[x] = fromUpperLeft;
+                } else if (fromLeft >= fromUpper) {
+                    scores[x] = fromLeft;
+                    setTransition(traceback, row + x, FROM_LEFT);
+                } else {
+                    scores[x] = fromUpper;
+                    setTransition(traceback, row + x, FROM_UPPER);
+                }
+            }
+
+            if (y > 1) {
+                markMatches(upperMatches, matchedRanks[y0 + y - 2], x0, width, false);
+            }
+        }
+        return traceback;
     }
 
-    private Map<Token, VariantGraph.Vertex> alignMatchingTokens(MatchCube cube) {
-        // using the score iterator..
-        // find all the matches
-        // later for the transposition detection, we also want to keep track of all the additions, omissions, and replacements
-        Map<Token, VariantGraph.Vertex> aligned = new HashMap<>();
-        ScoreIterator scores = new ScoreIterator(this.cells);
-        Set<VariantGraph.Vertex> matchedVertices = new HashSet<>();
-        while (scores.hasNext()) {
-            Score score = scores.next();
-            if (score.type == Score.Type.match) {
-                int rank = score.x - 1;
-                Match match = cube.getMatch(score.y - 1, rank);
-                if (!matchedVertices.contains(match.vertex)) {
-                    aligned.put(match.token, match.vertex);
-                    matchedVertices.add(match.vertex);
-                }
+    private static void markMatches(boolean[] matches, int[] ranks, int x0, int width, boolean match) {
+        for (int rank : ranks) {
+            final int x = rank + 1 - x0;
+            if (x > 0 && x < width) {
+                matches[x] = match;
             }
         }
-        return aligned;
     }
 
-    private Score calculateFromUpper(Scorer scorer, int y, int x, int previousY, MatchCube matchCube) {
-        boolean upperIsMatch = matchCube.hasMatch(previousY - 1, x - 1);
-        return upperIsMatch //
-            ? scorer.score(x, y, this.cells[previousY][x]) //
-            : scorer.gap(x, y, this.cells[previousY][x]);
+    private static void setTransition(long[] traceback, long cell, int transition) {
+        final long bit = cell * 2;
+        traceback[(int) (bit >>> 6)] |= ((long) transition) << bit;
     }
 
-    private void printScoringTable(List<Integer> verticesAsRankList, List<Integer> tokensAsIndexList) {
-        // print the scoring table for debugging reasons
-        for (int y = 0; y < tokensAsIndexList.size(); y++) {
-            System.out.print("|");
-            for (int x = 0; x < verticesAsRankList.size(); x++) {
-                Score cell = cells[y][x];
-                String value;
-                if (cell == null) {
-                    value = "unscored";
-                } else {
-                    value = "" + cell.getGlobalScore();
-                    if (cell.type == Score.Type.match) {
-                        value += "M";
-                    } else {
-                        value += " ";
-                    }
-                    if (cell.getGlobalScore() > -1) {
-                        value = " " + value;
-                    }
-                }
-                System.out.print(value + "|");
+    private static int getTransition(long[] traceback, long cell) {
+        final long bit = cell * 2;
+        return (int) (traceback[(int) (bit >>> 6)] >>> bit) & 3;
+    }
+
+    private static List<Match> traceMatches(int x0, int y0, int width, int height, long[] traceback, MatchCube cube) {
+        // walk back from the lower right cell
+        // find all the matches
+        final List<Match> matches = new ArrayList<>();
+        int x = width - 1;
+        int y = height - 1;
+        while (x != 0 || y != 0) {
+            final int transition = getTransition(traceback, (long) y * width + x);
+            final int row = y0 + y - 1;
+            final int rank = x0 + x - 1;
+            final boolean match = (x > 0 && y > 0 && transition != FROM_LEFT && cube.hasMatch(row, rank)
+                && (transition == FROM_UPPER_LEFT || (y > 1 && cube.hasMatch(row - 1, rank))));
+            if (match) {
+                matches.add(cube.getMatch(row, rank));
+            }
+            if (transition != FROM_LEFT) {
+                y--;
+            }
+            if (transition != FROM_UPPER) {
+                x--;
             }
-            System.out.println();
-            System.out.println("----------");
         }
-        System.out.println();
+        return matches;
     }
 
-    //    private void printScoringTable(List<Integer> verticesAsRankList, List<Integer> tokensAsIndexList) {
-//        // print the scoring table for debugging reasons
-//        for (int y = 0; y < tokensAsIndexList.size(); y++) {
-//            System.out.print("|");
-//            for (int x = 0; x < verticesAsRankList.size(); x++) {
-//                Score cell = cells[y][x];
-//                String value;
-//                if (cell == null) {
-//                    value = "unscored";
-//                } else {
-//                    value = "" + cell.getGlobalScore();
-//                    if (cell.type == Score.Type.match) {
-//                        value += "M";
-//                    } else {
-//                        value += " ";
-//                    }
-//                    if (cell.getGlobalScore() > -1) {
-//                        value = " " + value;
-//                    }
-//                }
-//                System.out.print(value + "|");
-//            }
-//            System.out.println();
-//            System.out.println("-");
-//        }
-//        System.out.println();
-//    }
-
     private void updateTokenToVertexArray(Iterable<Token> tokens, Witness witness) {
         // we need to update the token -> vertex map
         // that information is stored in protected map
@@ -283,113 +398,107 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
         }
     }
 
-    @Override
-    public void collate(VariantGraph against, Iterable<Token> witness) {
-        collate(against, Arrays.asList(witness));
+    private static Witness witness(Iterable<Token> tokens) {
+        return StreamUtil.stream(tokens)
+            .findFirst()
+            .map(Token::getWitness)
+            .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
     }
 
-    public static class Score {
-
-        public Type type;
-        public Score parent;
-        public int globalScore = 0;
-        int x;
-        int y;
-        int previousX;
-        int previousY;
-
-        public Score(Type type, int x, int y, Score parent, int i) {
-            this.type = type;
-            this.x = x;
-            this.y = y;
-            this.parent = parent;
-            this.previousX = parent == null ? 0 : parent.x;
-            this.previousY = parent == null ? 0 : parent.y;
-            this.globalScore = i;
-        }
-
-        public Score(Type type, int x, int y, Score parent) {
-            this.type = type;
-            this.x = x;
-            this.y = y;
-            this.parent = parent;
-            this.previousX = parent.x;
-            this.previousY = parent.y;
-            this.globalScore = parent.globalScore;
-        }
-
-        public int getGlobalScore() {
-            return this.globalScore;
+    /**
+     * Aligns one more witness against a graph collated by this instance before, or whose state has been restored via
+     * {@link #resume(TokenIndex, VariantGraph.Vertex[])}, appending the witness to the existing token index. Collating
+     * into an empty graph starts a new collation.
+     *
+     * @throws IllegalStateException if the graph is neither empty nor the one of the kept or restored state
+     */
+    @Override
+    public void collate(VariantGraph against, Iterable<Token> witness) {
+        if (against.witnesses().isEmpty()) {
+            // the state of earlier collations is of no use for a new graph
+            collate(against, Arrays.asList(witness));
+            return;
         }
-
-        public void setGlobalScore(int globalScore) {
-            this.globalScore = globalScore;
+        if (tokenIndex == null || !indexes(against)) {
+            throw new IllegalStateException("No token index for " + against + "; resume the collation first");
         }
-
-        @Override
-        public String toString() {
-            return "[" + this.y + "," + this.x + "]:" + this.globalScore;
-        }
-
-        public enum Type {
-            match, mismatch, addition, deletion, empty
+        final CollationInstrumentation.Phase phase = instrumentation.start("witness", witness(witness));
+        final CollationInstrumentation.Phase indexing = instrumentation.start("token-index", witness(witness));
+        try {
+            tokenIndex.append(witness);
+            indexing.size("tokens", tokenIndex.size()).size("blocks", tokenIndex.blocks.size()).end();
+            cancellation.check();
+            vertex_array = Arrays.copyOf(vertex_array, tokenIndex.size());
+            align(against, witness);
+        } catch (CancellationException e) {
+            this.tokenIndex = null;
+            this.vertex_array = null;
+            throw e;
         }
+        phase.end();
     }
 
-    class Scorer {
-        private final MatchCube matchCube;
-
-        public Scorer(MatchCube matchCube) {
-            this.matchCube = matchCube;
-        }
-
-        public Score gap(int x, int y, Score parent) {
-            Score.Type type = determineType(x, y, parent);
-            return new Score(type, x, y, parent, parent.globalScore - 1);
-        }
-
-        public Score score(int x, int y, Score parent) {
-            int rank = (x - 1);
-            if (this.matchCube.hasMatch(y - 1, rank)) {
-                Match match = this.matchCube.getMatch(y - 1, rank);
-                return new Score(Score.Type.match, x, y, parent, parent.globalScore + 1);
+    /**
+     * Whether the kept token index and vertex array belong to the given graph.
+     */
+    private boolean indexes(VariantGraph graph) {
+        for (VariantGraph.Vertex vertex : vertex_array) {
+            if (vertex != null) {
+                return vertex.graph() == graph;
             }
-            return new Score(Score.Type.mismatch, x, y, parent, parent.globalScore - 1);
         }
+        return false;
+    }
 
-        private Score.Type determineType(int x, int y, Score parent) {
-            if (x == parent.x) {
-                return Score.Type.addition;
-            }
-            if (y == parent.y) {
-                return Score.Type.deletion;
-            }
-            return Score.Type.empty;
-        }
+    /**
+     * Reuses token indices across collations of the same witnesses, by keeping snapshots of them in the given directory.
+     *
+     * @see TokenIndex#prepare(Path)
+     */
+    public void setTokenIndexSnapshots(Path directory) {
+        this.tokenIndexSnapshots = directory;
     }
 
-    private static class ScoreIterator implements Iterator<Score> {
-        Integer y;
-        Integer x;
-        private Score[][] matrix;
+    /**
+     * Keeps the suffix and LCP arrays of token indices in compact form, saving memory at the expense of matching speed.
+     *
+     * @see TokenIndex#setCompact(boolean)
+     */
+    public void setCompactTokenIndex(boolean compactTokenIndex) {
+        this.compactTokenIndex = compactTokenIndex;
+    }
 
-        ScoreIterator(Score[][] matrix) {
-            this.matrix = matrix;
-            this.x = matrix[0].length - 1;
-            this.y = matrix.length - 1;
-        }
+    /**
+     * Aligns witnesses between anchors, i.e. unique tokens shared by all witnesses, instead of filling the complete
+     * edit graph table for each witness. For long and mostly identical witnesses, this reduces the cost of the
+     * alignment to the size of the regions between anchors, which can be aligned in parallel via
+     * {@link #setRegionExecutor(Executor)}. Alignments may differ from the complete table's in case the latter does
+     * not align anchors.
+     */
+    public void setAnchored(boolean anchored) {
+        this.anchored = anchored;
+    }
 
-        @Override
-        public boolean hasNext() {
-            return !(this.x == 0 && this.y == 0);
-        }
+    /**
+     * Aligns the regions between anchors on the given executor; on the collating thread by default.
+     *
+     * @see #setAnchored(boolean)
+     */
+    public void setRegionExecutor(Executor regionExecutor) {
+        this.regionExecutor = Objects.requireNonNull(regionExecutor);
+    }
 
-        @Override
-        public Score next() {
-            Score currentScore = this.matrix[this.y][this.x];
-            this.x = currentScore.previousX;
-            this.y = currentScore.previousY;
-            return currentScore;
+    /**
+     * Restores the state of an earlier collation, so further witnesses can be aligned progressively.
+     *
+     * @param tokenIndex   the token index of all witnesses in the graph
+     * @param vertex_array the vertices of the graph, by position of their tokens in the token index
+     */
+    public void resume(TokenIndex tokenIndex, VariantGraph.Vertex[] vertex_array) {
+        if (vertex_array.length != tokenIndex.size()) {
+            throw new IllegalArgumentException("Vertex array does not match token index");
         }
+        this.tokenIndex = tokenIndex;
+        this.vertex_array = vertex_array;
     }
 }
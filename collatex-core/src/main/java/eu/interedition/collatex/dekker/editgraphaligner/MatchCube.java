@@ -75,6 +75,33 @@ public class MatchCube {
         return matches.get(c);
     }
 
+    /**
+     * @return the number of matches
+     */
+    public int size() {
+        return matches.size();
+    }
+
+    /**
+     * @param rows the number of tokens in the witness
+     * @return for each token of the witness, the ranks of the vertices it matches
+     */
+    public int[][] getMatchedRanksByRow(int rows) {
+        final int[] counts = new int[rows];
+        for (MatchCoordinate c : matches.keySet()) {
+            counts[c.tokenIndex]++;
+        }
+        final int[][] ranks = new int[rows][];
+        for (int row = 0; row < rows; row++) {
+            ranks[row] = new int[counts[row]];
+            counts[row] = 0;
+        }
+        for (MatchCoordinate c : matches.keySet()) {
+            ranks[c.tokenIndex][counts[c.tokenIndex]++] = c.rankInVG;
+        }
+        return ranks;
+    }
+
     class MatchCoordinate {
         final int tokenIndex; // position in witness, starting from zero
         final int rankInVG; // rank in the variant graph
@@ -20,10 +20,10 @@
 package eu.interedition.collatex.dekker.island;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -36,22 +36,43 @@ public class Archipelago {
 
     private final List<Island> islands;
     private final Set<Integer> islandvectors;
+    // committed coordinates, indexed by row; maintained on every change so lookups do not have to iterate islands
+    private final BitSet rows;
+    private int[] columnsByRow;
+    // island vectors once more, as bit sets of their non-negative values and of their negated negative values
+    private final BitSet positiveVectors;
+    private final BitSet negativeVectors;
 
     public Archipelago() {
         islands = new ArrayList<>();
         this.islandvectors = new HashSet<>(); // row - column, all islands should have direction 1, so this diff should be the same for all coordinates on the island.
+        this.rows = new BitSet();
+        this.columnsByRow = new int[16];
+        this.positiveVectors = new BitSet();
+        this.negativeVectors = new BitSet();
     }
 
     //copy constructor
     public Archipelago(Archipelago orig) {
         this.islands = new ArrayList<>(orig.islands);
         this.islandvectors = new HashSet<>(orig.islandvectors);
+        this.rows = (BitSet) orig.rows.clone();
+        this.columnsByRow = orig.columnsByRow.clone();
+        this.positiveVectors = (BitSet) orig.positiveVectors.clone();
+        this.negativeVectors = (BitSet) orig.negativeVectors.clone();
     }
 
     public void add(Island island) {
         islands.add(island);
         Coordinate leftEnd = island.getLeftEnd();
-        islandvectors.add(leftEnd.row - leftEnd.column);
+        final int vector = leftEnd.row - leftEnd.column;
+        islandvectors.add(vector);
+        if (vector < 0) {
+            negativeVectors.set(-vector);
+        } else {
+            positiveVectors.set(vector);
+        }
+        index(island);
     }
 
     public int size() {
@@ -63,7 +84,18 @@ public class Archipelago {
     }
 
     public boolean containsCoordinate(int row, int column) {
-        return Objects.equals(getCoordinatesMap().get(row), column);
+        return containsRow(row) && columnsByRow[row] == column;
+    }
+
+    public boolean containsRow(int row) {
+        return row >= 0 && rows.get(row);
+    }
+
+    /*
+     * Return whether an island with the given vector (row - column) has been added
+     */
+    public boolean containsVector(int vector) {
+        return (vector < 0 ? negativeVectors.get(-vector) : positiveVectors.get(vector));
     }
 
     public List<Island> getIslands() {
@@ -72,6 +104,18 @@ public class Archipelago {
 
     protected void remove(int i) {
         islands.remove(i);
+        rows.clear();
+        islands.forEach(this::index);
+    }
+
+    private void index(Island island) {
+        for (final Coordinate c : island) {
+            if (c.row >= columnsByRow.length) {
+                columnsByRow = Arrays.copyOf(columnsByRow, Math.max(c.row + 1, columnsByRow.length * 2));
+            }
+            rows.set(c.row);
+            columnsByRow[c.row] = c.column;
+        }
     }
 
     @Override
@@ -103,16 +147,6 @@ public class Archipelago {
         return true;
     }
 
-    private Map<Integer, Integer> getCoordinatesMap() {
-        final Map<Integer, Integer> map = new HashMap<>();
-        for (final Island isl : islands) {
-            for (final Coordinate c : isl) {
-                map.put(c.getRow(), c.getColumn());
-            }
-        }
-        return map;
-    }
-
     public Set<Integer> getIslandVectors() {
         return islandvectors;
     }
@@ -20,6 +20,8 @@
 package eu.interedition.collatex.dekker.island;
 
 import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.dekker.Match;
 import eu.interedition.collatex.dekker.token_index.Block;
 import eu.interedition.collatex.simple.SimpleToken;
 
@@ -30,21 +32,42 @@ import java.util.List;
 
 public class Island implements Iterable<Coordinate> {
 
-    private final List<Coordinate> islandCoordinates = new ArrayList<>();
+    // null as long as an island gathered from the token index is described by primitives only
+    private List<Coordinate> islandCoordinates;
     private final Block.Instance blockInstance;
 
+    // description of an island gathered from the token index: the row of its first coordinate, the token position of
+    // its first graph token, and the columns and vertices of all graph tokens, indexed by token position
+    private final int row;
+    private final int graphStart;
+    private final int[] columns;
+    private final VariantGraph.Vertex[] vertices;
+
     public Island(Block.Instance blockInstance) {
-        this.blockInstance = blockInstance;
+        this(blockInstance, 0, 0, null, null);
+        islandCoordinates = new ArrayList<>();
+    }
+
+    /**
+     * Creates an island from a witness instance of a block and a graph instance of the same block, without creating
+     * its coordinates; they get materialized on first access.
+     */
+    public Island(Block.Instance witnessInstance, int row, int graphStart, int[] columns, VariantGraph.Vertex[] vertices) {
+        this.blockInstance = witnessInstance;
+        this.row = row;
+        this.graphStart = graphStart;
+        this.columns = columns;
+        this.vertices = vertices;
     }
 
     // for legacy code
     public Island() {
-        blockInstance = null;
+        this(null);
     }
 
     // for legacy code
     public Island(Coordinate first, Coordinate last) {
-        blockInstance = null;
+        this(null);
         add(first);
         Coordinate newCoordinate = first;
         while (!newCoordinate.equals(last)) {
@@ -55,11 +78,11 @@ public class Island implements Iterable<Coordinate> {
     }
 
     public void add(Coordinate coordinate) {
-        islandCoordinates.add(coordinate);
+        coordinates().add(coordinate);
     }
 
     public void removeCoordinate(Coordinate c) {
-        islandCoordinates.remove(c);
+        coordinates().remove(c);
     }
 
     /**
@@ -67,46 +90,110 @@ public class Island implements Iterable<Coordinate> {
      * vertical line which goes through both islands
      */
     public boolean isCompetitor(Island isl) {
-        for (Coordinate c : isl) {
-            for (Coordinate d : islandCoordinates) {
-                if (c.sameColumn(d) || c.sameRow(d)) return true;
+        for (int i = 0, is = isl.size(); i < is; i++) {
+            final int r = isl.rowAt(i);
+            final int c = isl.columnAt(i);
+            for (int j = 0, js = size(); j < js; j++) {
+                if (c == columnAt(j) || r == rowAt(j)) return true;
             }
         }
         return false;
     }
 
     public boolean contains(Coordinate c) {
-        return islandCoordinates.contains(c);
+        return contains(c.row, c.column);
+    }
+
+    private boolean contains(int row, int column) {
+        if (islandCoordinates != null) {
+            return islandCoordinates.contains(new Coordinate(row, column));
+        }
+        for (int i = 0; i < size(); i++) {
+            if (rowAt(i) == row && columnAt(i) == column) return true;
+        }
+        return false;
     }
 
     public Coordinate getLeftEnd() {
-        Coordinate coor = islandCoordinates.get(0);
-        for (Coordinate c : islandCoordinates) {
-            if (c.column < coor.column) coor = c;
+        if (islandCoordinates != null) {
+            Coordinate coor = islandCoordinates.get(0);
+            for (Coordinate c : islandCoordinates) {
+                if (c.column < coor.column) coor = c;
+            }
+            return coor;
+        }
+        int left = 0;
+        for (int i = 1; i < size(); i++) {
+            if (columnAt(i) < columnAt(left)) left = i;
         }
-        return coor;
+        return coordinateAt(left);
     }
 
     public Coordinate getRightEnd() {
-        Coordinate coor = islandCoordinates.get(0);
-        for (Coordinate c : islandCoordinates) {
-            if (c.column > coor.column) coor = c;
+        if (islandCoordinates != null) {
+            Coordinate coor = islandCoordinates.get(0);
+            for (Coordinate c : islandCoordinates) {
+                if (c.column > coor.column) coor = c;
+            }
+            return coor;
+        }
+        int right = 0;
+        for (int i = 1; i < size(); i++) {
+            if (columnAt(i) > columnAt(right)) right = i;
         }
-        return coor;
+        return coordinateAt(right);
     }
 
     public int size() {
-        return islandCoordinates.size();
+        return (islandCoordinates == null ? blockInstance.length() : islandCoordinates.size());
+    }
+
+    int rowAt(int i) {
+        return (islandCoordinates == null ? row + i : islandCoordinates.get(i).row);
+    }
+
+    int columnAt(int i) {
+        return (islandCoordinates == null ? columns[graphStart + i] : islandCoordinates.get(i).column);
+    }
+
+    VariantGraph.Vertex vertexAt(int i) {
+        return (islandCoordinates == null ? vertices[graphStart + i] : islandCoordinates.get(i).match.vertex);
+    }
+
+    private Coordinate coordinateAt(int i) {
+        if (islandCoordinates != null) {
+            return islandCoordinates.get(i);
+        }
+        return new Coordinate(row + i, columns[graphStart + i], new Match(vertices[graphStart + i], blockInstance.getToken(i)));
+    }
+
+    private List<Coordinate> coordinates() {
+        if (islandCoordinates == null) {
+            final List<Coordinate> coordinates = new ArrayList<>(size());
+            for (int i = 0, length = size(); i < length; i++) {
+                coordinates.add(coordinateAt(i));
+            }
+            islandCoordinates = coordinates;
+        }
+        return islandCoordinates;
     }
 
     @Override
     public Iterator<Coordinate> iterator() {
-        return Collections.unmodifiableList(islandCoordinates).iterator();
+        return Collections.unmodifiableList(coordinates()).iterator();
     }
 
     @Override
     public int hashCode() {
-        return islandCoordinates.hashCode();
+        if (islandCoordinates != null) {
+            return islandCoordinates.hashCode();
+        }
+        // equals the hash code of the list of coordinates
+        int hashCode = 1;
+        for (int i = 0; i < size(); i++) {
+            hashCode = 31 * hashCode + (31 * (31 + rowAt(i)) + columnAt(i));
+        }
+        return hashCode;
     }
 
     @Override
@@ -119,8 +206,8 @@ public class Island implements Iterable<Coordinate> {
         if (isl.size() != size()) return false;
 
         boolean result = true;
-        for (Coordinate c : isl) {
-            result &= this.contains(c);
+        for (int i = 0; i < isl.size(); i++) {
+            result &= this.contains(isl.rowAt(i), isl.columnAt(i));
         }
         return result;
     }
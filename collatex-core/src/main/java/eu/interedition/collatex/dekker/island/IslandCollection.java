@@ -34,14 +34,12 @@ public class IslandCollection implements IslandSelection {
     Logger LOG = Logger.getLogger(IslandCollection.class.getName());
     private final PriorityQueue<Island> islandPriorityQueue;
     private final Archipelago fixedIslands;
-    //this fields are needed for the locking of table cells
-    private final BitSet fixedRows;
-    private final Set<VariantGraph.Vertex> fixedVertices;
+    //this field is needed for the locking of table cells, together with the rows of the fixed islands; vertices are indexed by id
+    private final BitSet fixedVertices;
     private final Comparator<Island> comparator = new IslandSizeComparator();
 
     public IslandCollection(Set<Island> islands) {
-        fixedRows = new BitSet();
-        fixedVertices = new HashSet<>();
+        fixedVertices = new BitSet();
         this.fixedIslands = new Archipelago();
         islandPriorityQueue = new PriorityQueue<>(comparator);
         islandPriorityQueue.addAll(islands);
@@ -52,7 +50,7 @@ public class IslandCollection implements IslandSelection {
      */
     @Override
     public boolean doesCoordinateOverlapWithCommittedCoordinate(Coordinate coordinate) {
-        return fixedRows.get(coordinate.row) || fixedVertices.contains(coordinate.match.vertex);
+        return fixedIslands.containsRow(coordinate.row) || fixedVertices.get(coordinate.match.vertex.id());
     }
 
     /*
@@ -60,8 +58,8 @@ public class IslandCollection implements IslandSelection {
      */
     @Override
     public boolean isIslandPossibleCandidate(Island island) {
-        for (Coordinate coordinate : island) {
-            if (doesCoordinateOverlapWithCommittedCoordinate(coordinate)) return false;
+        for (int i = 0, size = island.size(); i < size; i++) {
+            if (fixedIslands.containsRow(island.rowAt(i)) || fixedVertices.get(island.vertexAt(i).id())) return false;
         }
         return true;
     }
@@ -76,8 +74,7 @@ public class IslandCollection implements IslandSelection {
             LOG.log(Level.FINE, "adding island: '{0}'", isl);
         }
         for (Coordinate coordinate : isl) {
-            fixedRows.set(coordinate.row);
-            fixedVertices.add(coordinate.match.vertex);
+            fixedVertices.set(coordinate.match.vertex.id());
         }
         fixedIslands.add(isl);
     }
@@ -85,7 +82,7 @@ public class IslandCollection implements IslandSelection {
     @Override
     public boolean doesCandidateLayOnVectorOfCommittedIsland(Island island) {
         Coordinate leftEnd = island.getLeftEnd();
-        return fixedIslands.getIslandVectors().contains(leftEnd.row - leftEnd.column);
+        return fixedIslands.containsVector(leftEnd.row - leftEnd.column);
     }
 
     @Override
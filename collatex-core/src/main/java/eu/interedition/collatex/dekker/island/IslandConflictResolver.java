@@ -19,6 +19,8 @@
 
 package eu.interedition.collatex.dekker.island;
 
+import eu.interedition.collatex.Cancellation;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -40,9 +42,18 @@ public class IslandConflictResolver {
     Logger LOG = Logger.getLogger(IslandConflictResolver.class.getName());
     // fixed islands contains all the islands that are selected for the final alignment
     private final IslandSelection selection;
+    private final Cancellation cancellation;
 
     public IslandConflictResolver(IslandSelection collection) {
+        this(collection, Cancellation.NONE);
+    }
+
+    /**
+     * @param cancellation polled once per round of selecting islands
+     */
+    public IslandConflictResolver(IslandSelection collection, Cancellation cancellation) {
         selection = collection;
+        this.cancellation = cancellation;
     }
 
     /*
@@ -52,6 +63,7 @@ public class IslandConflictResolver {
     public IslandSelection createNonConflictingVersion() {
         List<Island> possibleIslands;
         do {
+            cancellation.check();
             possibleIslands = selection.getPossibleIslands();
             // check the possible islands of a certain size against each other.
             if (possibleIslands.size() == 1) {
@@ -139,18 +151,68 @@ public class IslandConflictResolver {
         return nonCompetingIslands;
     }
 
-    private Set<Island> getCompetingIslands(List<Island> islands) {
-        Set<Island> competingIslands = new HashSet<>();
+    /*
+     * Islands compete if a row or a column runs through both of them. Instead of comparing all pairs of islands, every
+     * row and column records the two lowest indices of islands running through it, which yields the lowest index of a
+     * competitor per island in a single pass over all coordinates.
+     */
+    Set<Island> getCompetingIslands(List<Island> islands) {
+        final Map<Integer, int[]> rows = new HashMap<>();
+        final Map<Integer, int[]> columns = new HashMap<>();
+        for (int i = 0; i < islands.size(); i++) {
+            final Island island = islands.get(i);
+            for (int c = 0, size = island.size(); c < size; c++) {
+                register(rows, island.rowAt(c), i);
+                register(columns, island.columnAt(c), i);
+            }
+        }
+
+        // the pairwise comparison of islands (i, j) with i < j, this method once did, determined the insertion order
+        // into the resulting set, and thereby its iteration order, which decides between islands equally far from the
+        // ideal line; islands get inserted at their first competing pair in that order
+        final List<int[]> firstCompetitions = new ArrayList<>();
         for (int i = 0; i < islands.size(); i++) {
-            Island i1 = islands.get(i);
-            for (int j = 1; j < islands.size() - i; j++) {
-                Island i2 = islands.get(i + j);
-                if (i1.isCompetitor(i2)) {
-                    competingIslands.add(i1);
-                    competingIslands.add(i2);
+            final Island island = islands.get(i);
+            int competitor = Integer.MAX_VALUE;
+            for (int c = 0, size = island.size(); c < size; c++) {
+                competitor = Math.min(competitor, Math.min(lowestOther(rows.get(island.rowAt(c)), i), lowestOther(columns.get(island.columnAt(c)), i)));
+            }
+            if (competitor < i) {
+                firstCompetitions.add(new int[] { competitor, i, 1, i });
+            } else if (competitor < Integer.MAX_VALUE) {
+                firstCompetitions.add(new int[] { i, competitor, 0, i });
+            }
+        }
+        firstCompetitions.sort((a, b) -> {
+            for (int k = 0; k < 3; k++) {
+                if (a[k] != b[k]) {
+                    return Integer.compare(a[k], b[k]);
                 }
             }
+            return 0;
+        });
+
+        Set<Island> competingIslands = new HashSet<>();
+        for (int[] competition : firstCompetitions) {
+            competingIslands.add(islands.get(competition[3]));
         }
         return competingIslands;
     }
+
+    private static void register(Map<Integer, int[]> lines, int line, int island) {
+        final int[] lowest = lines.computeIfAbsent(line, l -> new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE });
+        if (island == lowest[0] || island == lowest[1]) {
+            return;
+        }
+        if (island < lowest[0]) {
+            lowest[1] = lowest[0];
+            lowest[0] = island;
+        } else if (island < lowest[1]) {
+            lowest[1] = island;
+        }
+    }
+
+    private static int lowestOther(int[] lowest, int island) {
+        return (lowest[0] == island ? lowest[1] : lowest[0]);
+    }
 }
\ No newline at end of file
@@ -25,13 +25,12 @@ import eu.interedition.collatex.dekker.island.Island;
 import eu.interedition.collatex.dekker.island.IslandSelection;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -45,14 +44,12 @@ public class MatchTableSelection implements IslandSelection {
     Logger LOG = Logger.getLogger(MatchTableSelection.class.getName());
     private final Map<Integer, List<Island>> islandMultimap;
     private final Archipelago fixedIslands;
-    //this fields are needed for the locking of table cells
-    private final Set<Integer> fixedRows;
-    private final Set<VariantGraph.Vertex> fixedVertices;
+    //this field is needed for the locking of table cells, together with the rows of the fixed islands; vertices are indexed by id
+    private final BitSet fixedVertices;
     private final MatchTable table;
 
     public MatchTableSelection(MatchTable table) {
-        fixedRows = new HashSet<>();
-        fixedVertices = new HashSet<>();
+        fixedVertices = new BitSet();
         this.table = table;
         this.fixedIslands = new Archipelago();
         islandMultimap = new HashMap<>();
@@ -66,8 +63,7 @@ public class MatchTableSelection implements IslandSelection {
         // table structure is read only, does not have to be copied
         this.islandMultimap = orig.islandMultimap.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> new ArrayList<>(e.getValue())));
         this.fixedIslands = new Archipelago(orig.fixedIslands);
-        this.fixedRows = new HashSet<>(orig.fixedRows);
-        this.fixedVertices = new HashSet<>(orig.fixedVertices);
+        this.fixedVertices = (BitSet) orig.fixedVertices.clone();
         this.table = orig.table;
     }
 
@@ -75,8 +71,11 @@ public class MatchTableSelection implements IslandSelection {
      * Return whether a coordinate overlaps with an already committed coordinate
      */
     public boolean doesCoordinateOverlapWithCommittedCoordinate(Coordinate coordinate) {
-        return fixedRows.contains(coordinate.row) || //
-            fixedVertices.contains(table.vertexAt(coordinate.row, coordinate.column));
+        if (fixedIslands.containsRow(coordinate.row)) {
+            return true;
+        }
+        final VariantGraph.Vertex vertex = table.vertexAt(coordinate.row, coordinate.column);
+        return vertex != null && fixedVertices.get(vertex.id());
     }
 
     /*
@@ -98,8 +97,10 @@ public class MatchTableSelection implements IslandSelection {
             LOG.log(Level.FINE, "adding island: '{0}'", isl);
         }
         for (Coordinate coordinate : isl) {
-            fixedRows.add(coordinate.row);
-            fixedVertices.add(table.vertexAt(coordinate.row, coordinate.column));
+            final VariantGraph.Vertex vertex = table.vertexAt(coordinate.row, coordinate.column);
+            if (vertex != null) {
+                fixedVertices.set(vertex.id());
+            }
         }
         fixedIslands.add(isl);
         islandMultimap.computeIfPresent(isl.size(), (s, i) -> {
@@ -110,7 +111,7 @@ public class MatchTableSelection implements IslandSelection {
 
     public boolean doesCandidateLayOnVectorOfCommittedIsland(Island island) {
         Coordinate leftEnd = island.getLeftEnd();
-        return fixedIslands.getIslandVectors().contains(leftEnd.row - leftEnd.column);
+        return fixedIslands.containsVector(leftEnd.row - leftEnd.column);
     }
 
     public int size() {
@@ -19,6 +19,8 @@ public class Block {
     // depth = number of witnesses this block of text occurs in
     // Note: depth is lazy initialized
     private Integer depth;
+    // witnesses = indices of the witnesses this block of text occurs in, if known from building the block
+    final BitSet witnesses;
 
     // For building blocks only
     public Block(TokenIndex tokenIndex, int suffix_start_position, int length) {
@@ -27,6 +29,7 @@ public class Block {
         this.length = length;
         this.end = 0;
         this.depth = 0;
+        this.witnesses = null;
     }
 
     public Block(TokenIndex tokenIndex, int start, int end, int length) {
@@ -35,6 +38,16 @@ public class Block {
         this.end = end;
         this.length = length;
         this.depth = null;
+        this.witnesses = null;
+    }
+
+    public Block(TokenIndex tokenIndex, int start, int end, int length, BitSet witnesses) {
+        this.tokenIndex = tokenIndex;
+        this.start = start;
+        this.end = end;
+        this.length = length;
+        this.depth = witnesses.cardinality();
+        this.witnesses = witnesses;
     }
 
     public int getDepth() {
@@ -56,7 +69,7 @@ public class Block {
         List<Block.Instance> instances = new ArrayList<>();
         for (int i = start; i <= end; i++) {
             // every i is one occurrence
-            int token_position = tokenIndex.suffix_array[i];
+            int token_position = tokenIndex.suffix(i);
             Block.Instance instance = new Instance(token_position, this);
             instances.add(instance);
         }
@@ -69,7 +82,7 @@ public class Block {
         // with/or without end
         for (int i = start; i < end; i++) {
             // every i is one occurrence
-            int token_position = tokenIndex.suffix_array[i];
+            int token_position = tokenIndex.suffix(i);
             IntStream range = IntStream.range(token_position, token_position + length);
             result = IntStream.concat(result, range);
         }
@@ -132,6 +145,10 @@ public class Block {
             return tokens;
         }
 
+        public Token getToken(int i) {
+            return block.tokenIndex.token_array[start_token + i];
+        }
+
         public Witness getWitness() {
             Token startToken = block.tokenIndex.token_array[start_token];
             return startToken.getWitness();
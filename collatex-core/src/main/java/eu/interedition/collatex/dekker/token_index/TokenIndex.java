@@ -2,26 +2,57 @@ package eu.interedition.collatex.dekker.token_index;
 
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.matching.EditDistanceTokenComparator;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.matching.StrictEqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.suffixarray.SAIS;
 import eu.interedition.collatex.suffixarray.SuffixArrays;
 import eu.interedition.collatex.suffixarray.SuffixData;
 import eu.interedition.collatex.util.StreamUtil;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Created by ronald on 4/20/15.
  */
 public class TokenIndex {
-    private final List<? extends Iterable<Token>> witnesses;
+    private static final Logger LOG = Logger.getLogger(TokenIndex.class.getName());
+
+    // header of snapshot files: magic number, format version, SHA-256 key, number of witnesses, number of tokens
+    private static final int SNAPSHOT_MAGIC = 0x43585449;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_KEY_LENGTH = 32;
+
+    private final List<Iterable<Token>> witnesses;
     private final Comparator<Token> comparator;
     //TODO: not sure this functionality should be in this class or in a separate class
     private Map<Witness, Integer> witnessToStartToken;
     private Map<Witness, Integer> witnessToEndToken;
     public Token[] token_array;
+    // index of the witness a token belongs to, by position in the token array; -1 for marker tokens
+    private int[] witness_array;
+    // the suffix array orders equal tokens by the position of their first occurrence in the token array
+    private TreeMap<Token, Integer> tokenIds;
+    private int[] id_array;
     //END witness data
-    public int[] suffix_array;
-    public int[] LCP_array;
+    // suffix and LCP array
+    private SuffixData suffixData;
+    private boolean compact;
     public List<Block> blocks;
     private Map<Witness, List<Block.Instance>> witnessToBlockInstances;
 
@@ -31,10 +62,20 @@ public class TokenIndex {
     }
 
     public TokenIndex(Comparator<Token> comparator, List<? extends Iterable<Token>> witnesses) {
-        this.witnesses = witnesses;
+        this.witnesses = new ArrayList<>(witnesses);
         this.comparator = new MarkerTokenComparator(comparator);
     }
 
+    /**
+     * Keeps the suffix and LCP arrays in compact form, see {@link SuffixData#compact()}, once they have been derived
+     * or loaded; off by default. Compact arrays take at most half the memory of plain ones for up to 2^24 tokens,
+     * but every access to them during matching has to unpack an entry, so compaction only pays off for indices,
+     * which otherwise would not fit into memory.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     public int getStartTokenPositionForWitness(Witness witness) {
         return witnessToStartToken.get(witness);
     }
@@ -46,18 +87,379 @@ public class TokenIndex {
     // TODO: we do not have to store witnesses!
     public void prepare() {
         this.token_array = this.prepareTokenArray();
-        SuffixData suffixData = SuffixArrays.createWithLCP(token_array, new SAIS(), comparator);
-        this.suffix_array = suffixData.getSuffixArray();
-        this.LCP_array = suffixData.getLCP();
+        this.tokenIds = new TreeMap<>(comparator);
+        this.id_array = new int[token_array.length];
+        assignTokenIds(0);
+        this.suffixData = compacted(SuffixArrays.createWithLCP(token_array, new SAIS(), comparator));
+        this.blocks = splitLCP_ArrayIntoIntervals();
+        constructWitnessToBlockInstancesMap();
+    }
+
+    /**
+     * Prepares the index from a snapshot in the given directory, or prepares it from scratch and saves a snapshot there
+     * for later runs.
+     * <p>
+     * Snapshots are keyed by the hash of the comparator's configuration and the witnesses' tokens, see
+     * {@link #snapshotKey()}, so any change of the input leads to a new snapshot. Snapshots which cannot be read or
+     * do not check out are ignored and written anew. Comparators without a known configuration, see
+     * {@link #comparatorKey(Comparator)}, are not snapshotted at all. Failing to save a snapshot is logged and does
+     * not affect the prepared index.
+     */
+    public void prepare(Path snapshotDirectory) {
+        final byte[] key = snapshotKey();
+        if (key == null) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "No token index snapshots for comparator " + ((MarkerTokenComparator) comparator).delegate);
+            }
+            prepare();
+            return;
+        }
+        final Path snapshot = snapshotDirectory.resolve(hex(key) + ".idx");
+        try {
+            if (Files.isRegularFile(snapshot) && load(snapshot, key)) {
+                return;
+            }
+        } catch (IOException e) {
+            if (LOG.isLoggable(Level.WARNING)) {
+                LOG.log(Level.WARNING, "Ignoring token index snapshot " + snapshot, e);
+            }
+        }
+        prepare();
+        try {
+            Files.createDirectories(snapshotDirectory);
+            save(snapshot, key);
+        } catch (IOException e) {
+            if (LOG.isLoggable(Level.WARNING)) {
+                LOG.log(Level.WARNING, "Cannot save token index snapshot " + snapshot, e);
+            }
+        }
+    }
+
+    /**
+     * Computes the key of this index' snapshots: a SHA-256 hash over the comparator's configuration and the tokens of
+     * all witnesses, using their normalized form, which is supposed to determine how the comparator matches them.
+     * Tokens other than {@link SimpleToken simple tokens} are hashed via their string representation.
+     *
+     * @return <code>null</code> if the comparator's configuration is unknown
+     */
+    public byte[] snapshotKey() {
+        final String comparatorKey = comparatorKey(((MarkerTokenComparator) comparator).delegate);
+        if (comparatorKey == null) {
+            return null;
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            digest.update(comparatorKey.getBytes(StandardCharsets.UTF_8));
+            for (Iterable<Token> tokens : witnesses) {
+                for (Token token : tokens) {
+                    final byte[] normalized = (token instanceof SimpleToken
+                            ? ((SimpleToken) token).getNormalized()
+                            : token.toString()).getBytes(StandardCharsets.UTF_8);
+                    length.clear();
+                    digest.update(length.putInt(normalized.length).array());
+                    digest.update(normalized);
+                }
+                // witness boundary
+                length.clear();
+                digest.update(length.putInt(-1).array());
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Describes the configuration of the comparators, whose token indices can be snapshotted; an index built with one
+     * of them must only be reused with a comparator matching tokens in exactly the same way.
+     *
+     * @return the class name of stateless comparators, plus the threshold of an {@link EditDistanceTokenComparator};
+     * <code>null</code> for any other comparator, e.g. lambdas or scripted ones
+     */
+    static String comparatorKey(Comparator<Token> comparator) {
+        final Class<?> type = comparator.getClass();
+        if (type == EqualityTokenComparator.class || type == StrictEqualityTokenComparator.class) {
+            return type.getName();
+        }
+        if (type == EditDistanceTokenComparator.class) {
+            return type.getName() + ":" + ((EditDistanceTokenComparator) comparator).getThreshold();
+        }
+        return null;
+    }
+
+    /**
+     * Writes the suffix array, the LCP array and the token ids of this prepared index to a snapshot file.
+     * The file is written next to its final location first and then moved in place, so concurrent readers never see
+     * partial snapshots.
+     */
+    public void save(Path snapshot, byte[] key) throws IOException {
+        final int length = token_array.length;
+        final long size = 4 * Integer.BYTES + SNAPSHOT_KEY_LENGTH + (long) Integer.BYTES * (witnesses.size() + 3L * length);
+        final Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).put(key, 0, SNAPSHOT_KEY_LENGTH);
+                buffer.putInt(witnesses.size()).putInt(length);
+                final IntBuffer data = buffer.asIntBuffer();
+                for (Iterable<Token> witness : witnesses) {
+                    final Witness w = StreamUtil.stream(witness).findFirst().map(Token::getWitness).get();
+                    data.put(witnessToEndToken.get(w) - witnessToStartToken.get(w));
+                }
+                for (int i = 0; i < length; i++) {
+                    data.put(suffixData.suffix(i));
+                }
+                for (int i = 0; i < length; i++) {
+                    data.put(suffixData.lcp(i));
+                }
+                data.put(id_array, 0, length);
+                buffer.force();
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Prepares this index from a snapshot file, which is mapped into memory.
+     * <p>
+     * The suffix array, the LCP array and the token ids are taken from the snapshot; only the LCP intervals get derived
+     * again, in a single pass over the LCP array. Unless they get {@link #setCompact(boolean) compacted}, the suffix
+     * and LCP arrays are read from the mapping as long as this index is in use, without copying them onto the heap;
+     * the token ids are copied, as appending a witness extends them.
+     *
+     * @return <code>false</code> if the snapshot does not match the format, the key or the witnesses of this index, or
+     * if its arrays do not check out, see {@link #isValid(Token[], SuffixData, int[])}
+     */
+    public boolean load(Path snapshot, byte[] key) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 4 * Integer.BYTES + SNAPSHOT_KEY_LENGTH
+                    || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            final byte[] snapshotKey = new byte[SNAPSHOT_KEY_LENGTH];
+            buffer.get(snapshotKey);
+            if (!Arrays.equals(key, snapshotKey) || buffer.getInt() != witnesses.size()) {
+                return false;
+            }
+            final int length = buffer.getInt();
+            final IntBuffer data = buffer.asIntBuffer();
+            if (data.remaining() != witnesses.size() + 3L * length) {
+                return false;
+            }
+
+            final Token[] tokens = prepareTokenArray();
+            if (tokens.length != length) {
+                return false;
+            }
+            for (Iterable<Token> witness : witnesses) {
+                final Witness w = StreamUtil.stream(witness).findFirst().map(Token::getWitness).get();
+                if (data.get() != witnessToEndToken.get(w) - witnessToStartToken.get(w)) {
+                    return false;
+                }
+            }
+
+            final int index = data.position();
+            final SuffixData suffixes = SuffixData.of(data, index, length);
+            final int[] ids = new int[length];
+            for (int i = 0; i < length; i++) {
+                ids[i] = data.get(index + 2 * length + i);
+            }
+            if (!isValid(tokens, suffixes, ids)) {
+                if (LOG.isLoggable(Level.WARNING)) {
+                    LOG.warning("Ignoring corrupt token index snapshot " + snapshot);
+                }
+                return false;
+            }
+
+            this.token_array = tokens;
+            this.id_array = ids;
+            // only needed to append witnesses, see assignTokenIds()
+            this.tokenIds = null;
+            this.suffixData = compacted(suffixes);
+            this.blocks = splitLCP_ArrayIntoIntervals();
+            constructWitnessToBlockInstancesMap();
+        }
+        return true;
+    }
+
+    /**
+     * Checks the arrays of a snapshot against the token array in linear time: the suffix array has to be a permutation,
+     * every token id has to point to the first occurrence of an equal token, and adjacent suffixes have to differ in
+     * ascending order right after their common prefix, as given by the LCP array.
+     */
+    private boolean isValid(Token[] tokens, SuffixData suffixes, int[] ids) {
+        final int length = tokens.length;
+        final BitSet seen = new BitSet(length);
+        for (int i = 0; i < length; i++) {
+            final int id = ids[i];
+            if (id < 0 || id > i || ids[id] != id || comparator.compare(tokens[id], tokens[i]) != 0) {
+                return false;
+            }
+            final int suffix = suffixes.suffix(i);
+            if (suffix < 0 || suffix >= length || seen.get(suffix)) {
+                return false;
+            }
+            seen.set(suffix);
+        }
+        for (int i = 0; i < length; i++) {
+            final int lcp = suffixes.lcp(i);
+            if (i == 0) {
+                if (lcp != -1) {
+                    return false;
+                }
+                continue;
+            }
+            final int previous = suffixes.suffix(i - 1) + lcp;
+            final int current = suffixes.suffix(i) + lcp;
+            if (lcp < 0 || previous >= length || current >= length || ids[previous] >= ids[current]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SuffixData compacted(SuffixData suffixData) {
+        return (compact ? suffixData.compact() : suffixData);
+    }
+
+    private static String hex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Adds another witness to a prepared index, without rebuilding it from scratch.
+     * <p>
+     * Every witness in the token array is terminated by a marker token of its own, and tokens are ordered by the position
+     * of their first occurrence, so the suffixes already indexed keep their relative order when the token array grows.
+     * Only the suffixes of the appended witness have to be sorted; they are then merged into the existing suffix array. LCP values are carried over for all pairs of suffixes, which
+     * remain adjacent, and only computed anew where a suffix of the appended witness got inserted. The resulting suffix
+     * and LCP arrays are the same as the ones of an index prepared for all witnesses at once.
+     *
+     * @param tokens the tokens of the witness to append
+     */
+    public void append(Iterable<Token> tokens) {
+        if (token_array == null) {
+            throw new IllegalStateException("Token index has not been prepared yet");
+        }
+        final Witness witness = StreamUtil.stream(tokens)
+                .findFirst()
+                .map(Token::getWitness)
+                .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
+        if (witnessToStartToken.containsKey(witness)) {
+            throw new IllegalArgumentException("Witness " + witness + " has already been indexed");
+        }
+
+        // 1. extend the token array
+        final int offset = token_array.length;
+        final int witnessIndex = witnesses.size();
+        final List<Token> witnessTokens = new ArrayList<>();
+        tokens.forEach(witnessTokens::add);
+        witnessToStartToken.put(witness, offset);
+        witnessToEndToken.put(witness, offset + witnessTokens.size());
+        witnessTokens.add(new MarkerToken(witnessToStartToken.size()));
+        witnesses.add(tokens);
+
+        final Token[] appended = witnessTokens.toArray(new Token[witnessTokens.size()]);
+        token_array = Arrays.copyOf(token_array, offset + appended.length);
+        System.arraycopy(appended, 0, token_array, offset, appended.length);
+        witness_array = Arrays.copyOf(witness_array, token_array.length);
+        Arrays.fill(witness_array, offset, token_array.length - 1, witnessIndex);
+        witness_array[token_array.length - 1] = -1;
+
+        id_array = Arrays.copyOf(id_array, token_array.length);
+        assignTokenIds(offset);
+
+        // 2. sort the suffixes of the appended witness and merge them into the suffix array
+        final int[] witnessSuffixes = sortSuffixes(offset);
+        final int indexedSuffixes = suffixData.size();
+        final int[] mergedSuffixes = new int[token_array.length];
+        final int[] mergedLCP = new int[token_array.length];
+        boolean previousIndexed = false;
+        for (int idx = 0, indexed = 0, added = 0; idx < mergedSuffixes.length; idx++) {
+            final boolean nextIndexed = added == witnessSuffixes.length
+                    || (indexed < indexedSuffixes && compareSuffixes(suffixData.suffix(indexed), offset + witnessSuffixes[added]) < 0);
+            mergedSuffixes[idx] = (nextIndexed ? suffixData.suffix(indexed) : offset + witnessSuffixes[added]);
+            if (idx == 0) {
+                mergedLCP[idx] = -1;
+            } else if (previousIndexed && nextIndexed) {
+                // 3. LCP values of suffixes, which have been adjacent before, stay valid
+                mergedLCP[idx] = suffixData.lcp(indexed);
+            } else {
+                mergedLCP[idx] = commonPrefixLength(mergedSuffixes[idx - 1], mergedSuffixes[idx]);
+            }
+            if (nextIndexed) {
+                indexed++;
+            } else {
+                added++;
+            }
+            previousIndexed = nextIndexed;
+        }
+        this.suffixData = compacted(SuffixData.of(mergedSuffixes, mergedLCP));
+
+        // 4. derive LCP intervals
         this.blocks = splitLCP_ArrayIntoIntervals();
         constructWitnessToBlockInstancesMap();
     }
 
+    // mirrors the ids assigned by the generic array adapter when building the suffix array of all witnesses
+    private void assignTokenIds(int from) {
+        if (tokenIds == null) {
+            // restore the interned tokens of an index loaded from a snapshot
+            tokenIds = new TreeMap<>(comparator);
+            for (int i = 0; i < from; i++) {
+                tokenIds.putIfAbsent(token_array[i], id_array[i]);
+            }
+        }
+        for (int i = from; i < token_array.length; i++) {
+            tokenIds.putIfAbsent(token_array[i], i);
+            id_array[i] = tokenIds.get(token_array[i]);
+        }
+    }
+
+    // the suffixes of a witness compare equally within the witness and within the whole token array, as they end
+    // with the witness' marker token; the ids of its tokens only have to be compacted to a small alphabet
+    private int[] sortSuffixes(int offset) {
+        final int length = token_array.length - offset;
+        final int[] ids = Arrays.stream(id_array, offset, token_array.length).sorted().distinct().toArray();
+        final int[] input = new int[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = Arrays.binarySearch(ids, id_array[offset + i]);
+        }
+        return new SAIS().buildSuffixArray(input, 0, length);
+    }
+
+    // terminates at the latest at the marker token ending the suffix that starts in the witness appearing first
+    private int compareSuffixes(int a, int b) {
+        for (int k = 0; ; k++) {
+            if (id_array[a + k] != id_array[b + k]) {
+                return Integer.compare(id_array[a + k], id_array[b + k]);
+            }
+        }
+    }
+
+    private int commonPrefixLength(int a, int b) {
+        int length = 0;
+        while (id_array[a + length] == id_array[b + length]) {
+            length++;
+        }
+        return length;
+    }
+
     private Token[] prepareTokenArray() {
         List<Token> tempTokenList = new ArrayList<>();
         int counter = 0;
         witnessToStartToken = new HashMap<>();
         witnessToEndToken = new HashMap<>();
+        // marker token positions, in witness order
+        List<Integer> witnessIndices = new ArrayList<>();
         for (Iterable<Token> tokens : witnesses) {
             final Witness witness = StreamUtil.stream(tokens)
                     .findFirst()
@@ -69,10 +471,20 @@ public class TokenIndex {
                 tempTokenList.add(t);
                 counter++;
             }
+            witnessIndices.add(counter);
             witnessToEndToken.put(witness, counter);
             tempTokenList.add(new MarkerToken(witnessToStartToken.size()));
             counter++;
         }
+        witness_array = new int[counter];
+        for (int position = 0, witnessIndex = 0; position < counter; position++) {
+            if (position == witnessIndices.get(witnessIndex)) {
+                witness_array[position] = -1;
+                witnessIndex++;
+            } else {
+                witness_array[position] = witnessIndex;
+            }
+        }
         return tempTokenList.toArray(new Token[tempTokenList.size()]);
     }
 
@@ -127,45 +539,92 @@ public class TokenIndex {
         }
     }
 
+    // Besides splitting the LCP array into intervals, the sweep collects the witnesses covered by each interval:
+    // every suffix is attributed to the innermost open interval, which passes its witnesses on to the enclosing
+    // interval when it gets closed. Intervals occurring in a single witness only can never match the graph against
+    // a witness and are dropped.
     protected List<Block> splitLCP_ArrayIntoIntervals() {
         List<Block> closedIntervals = new ArrayList<>();
         int previousLCP_value = 0;
         Stack<Block> openIntervals = new Stack<>();
-        for (int idx = 0; idx < LCP_array.length; idx++) {
-            int lcp_value = LCP_array[idx];
+        Stack<BitSet> openIntervalWitnesses = new Stack<>();
+        for (int idx = 0; idx < suffixData.size(); idx++) {
+            int lcp_value = suffixData.lcp(idx);
             if (lcp_value > previousLCP_value) {
                 openIntervals.push(new Block(this, idx - 1, lcp_value));
+                openIntervalWitnesses.push(new BitSet());
+                addSuffixWitness(openIntervalWitnesses, idx - 1);
                 previousLCP_value = lcp_value;
             } else if (lcp_value < previousLCP_value) {
+                addSuffixWitness(openIntervalWitnesses, idx - 1);
                 // close open intervals that are larger than current LCP value
+                int lastClosedStart = 0;
+                BitSet closedWitnesses = null;
                 while (!openIntervals.isEmpty() && openIntervals.peek().length > lcp_value) {
                     Block a = openIntervals.pop();
-                    closedIntervals.add(new Block(this, a.start, idx - 1, a.length));
+                    BitSet witnesses = openIntervalWitnesses.pop();
+                    if (closedWitnesses != null) {
+                        witnesses.or(closedWitnesses);
+                    }
+                    closeInterval(closedIntervals, a.start, idx - 1, a.length, witnesses);
+                    lastClosedStart = a.start;
+                    closedWitnesses = witnesses;
                 }
                 // then: open a new interval starting with filtered intervals
                 if (lcp_value > 0) {
-                    int start = closedIntervals.get(closedIntervals.size() - 1).start;
-                    openIntervals.push(new Block(this, start, lcp_value));
+                    openIntervals.push(new Block(this, lastClosedStart, lcp_value));
+                    openIntervalWitnesses.push(new BitSet());
+                }
+                if (closedWitnesses != null && !openIntervalWitnesses.isEmpty()) {
+                    openIntervalWitnesses.peek().or(closedWitnesses);
                 }
                 previousLCP_value = lcp_value;
+            } else {
+                addSuffixWitness(openIntervalWitnesses, idx - 1);
             }
         }
+        addSuffixWitness(openIntervalWitnesses, suffixData.size() - 1);
         // add all the open intervals to the result
-        for (Block interval : openIntervals) {
+        for (int i = openIntervalWitnesses.size() - 1; i > 0; i--) {
+            openIntervalWitnesses.get(i - 1).or(openIntervalWitnesses.get(i));
+        }
+        for (int i = 0; i < openIntervals.size(); i++) {
+            Block interval = openIntervals.get(i);
             if (interval.length > 0) {
-                closedIntervals.add(new Block(this, interval.start, LCP_array.length - 1, interval.length));
+                closeInterval(closedIntervals, interval.start, suffixData.size() - 1, interval.length, openIntervalWitnesses.get(i));
             }
         }
         return closedIntervals;
     }
 
+    private void addSuffixWitness(Stack<BitSet> openIntervalWitnesses, int suffix) {
+        if (suffix >= 0 && !openIntervalWitnesses.isEmpty()) {
+            final int witness = witness_array[suffixData.suffix(suffix)];
+            if (witness >= 0) {
+                openIntervalWitnesses.peek().set(witness);
+            }
+        }
+    }
+
+    private void closeInterval(List<Block> closedIntervals, int start, int end, int length, BitSet witnesses) {
+        if (witnesses.cardinality() > 1) {
+            closedIntervals.add(new Block(this, start, end, length, (BitSet) witnesses.clone()));
+        }
+    }
+
+    // every witness gets the instances of those blocks only, which also occur in an earlier witness, i.e. in the graph
     private void constructWitnessToBlockInstancesMap() {
         witnessToBlockInstances = new HashMap<>();
         for (Block interval : blocks) {
-            for (Block.Instance instance : interval.getAllInstances()) {
-                Witness w = instance.getWitness();
+            final int firstWitness = interval.witnesses.nextSetBit(0);
+            for (int i = interval.start; i <= interval.end; i++) {
+                int token_position = suffixData.suffix(i);
+                if (witness_array[token_position] <= firstWitness) {
+                    continue;
+                }
+                Witness w = token_array[token_position].getWitness();
                 List<Block.Instance> instances = witnessToBlockInstances.computeIfAbsent(w, v -> new ArrayList<>());
-                instances.add(instance);
+                instances.add(new Block.Instance(token_position, interval));
             }
         }
     }
@@ -178,4 +637,29 @@ public class TokenIndex {
     public int size() {
         return token_array.length;
     }
+
+    /**
+     * @return the start of the <code>i</code>-th suffix of the token array in lexicographic order
+     */
+    public int suffix(int i) {
+        return suffixData.suffix(i);
+    }
+
+    /**
+     * @return the suffix array, materialized anew on every call unless held in plain form
+     */
+    public int[] getSuffixArray() {
+        return suffixData.getSuffixArray();
+    }
+
+    /**
+     * @return the LCP array, materialized anew on every call unless held in plain form
+     */
+    public int[] getLCPArray() {
+        return suffixData.getLCP();
+    }
+
+    public int getNumberOfWitnesses() {
+        return witnesses.size();
+    }
 }
@@ -3,15 +3,12 @@ package eu.interedition.collatex.dekker.token_index;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
-import eu.interedition.collatex.dekker.Match;
-import eu.interedition.collatex.dekker.island.Coordinate;
 import eu.interedition.collatex.dekker.island.Island;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Created by ronald on 4/26/15.
@@ -27,43 +24,33 @@ public class TokenIndexToMatches {
         // an island is a graph instance and a witness instance of the same block combined
         Witness witness = w.iterator().next().getWitness();
         int startTokenPositionForWitness = tokenIndex.getStartTokenPositionForWitness(witness);
+        // project every token already in the graph to a column (the rank of its vertex) once, so islands can be
+        // described by their start positions only; -1 marks tokens without a vertex, i.e. witness separators
+        int[] columns = new int[startTokenPositionForWitness];
+        for (int position = 0; position < startTokenPositionForWitness; position++) {
+            VariantGraph.Vertex v = vertex_array[position];
+            columns[position] = (v == null ? -1 : ranking.apply(v) - 1);
+        }
         List<Block.Instance> instances = tokenIndex.getBlockInstancesForWitness(witness);
         // we have to combine each instance in the witness with the other instances already present in the graph
         for (Block.Instance witnessInstance : instances) {
-            // System.out.println("Debug creating matches for witness block instance: "+witnessInstance);
-            // for every instance of a block in the witness we need to fetch the corresponding graph instances of the block
-            // calculate graph block instances
-            // fetch block
+            // for every instance of a block in the witness we need to fetch the corresponding graph instances of the block,
+            // i.e. the occurrences of the block, which are listed in its suffix array interval, before this witness
             Block block = witnessInstance.block;
-            List<Block.Instance> allInstances = block.getAllInstances();
-            List<Block.Instance> graphInstances = allInstances.stream()//
-                    .filter(instance -> instance.start_token < startTokenPositionForWitness)//
-                    .collect(Collectors.toList());
-            // now for every graph block instance we have to create matches
-            // for backwards compatibility reasons we do that with the Island and Coordinates classes
-            for (Block.Instance graphInstance : graphInstances) {
-                // we need to create an island for every block instance in the graph corresponding to this block instance in the witness
-                Island island = new Island(witnessInstance);
-                // for every matching token from the witness with a vertex in the graph we need to create a coordinate and
-                // 1) add it to the island and 2) set the corresponding cell in the table
-                // set the tokens and vertices on the table
-                int graph_start_token = graphInstance.start_token;
-                for (int i = 0; i < block.length; i++) {
-                    VariantGraph.Vertex v = vertex_array[graph_start_token + i];
-                    if (v == null) {
-                        throw new RuntimeException("Vertex is null for token \"+graph_start_token+i+\" that is supposed to be mapped to a vertex in the graph!");
+            int row = witnessInstance.start_token - startTokenPositionForWitness;
+            for (int i = block.start; i <= block.end; i++) {
+                int graph_start_token = tokenIndex.suffix(i);
+                if (graph_start_token >= startTokenPositionForWitness) {
+                    continue;
+                }
+                for (int t = 0; t < block.length; t++) {
+                    if (columns[graph_start_token + t] < 0) {
+                        throw new RuntimeException("Vertex is null for token " + (graph_start_token + t) + " that is supposed to be mapped to a vertex in the graph!");
                     }
-                    int column = ranking.apply(v) - 1;
-                    int witnessStartToken = witnessInstance.start_token + i;
-                    int row = witnessStartToken - startTokenPositionForWitness;
-                    // create coordinate and at it to the Island for the combination of graph block instance and witness block instance
-                    // /*if (i == 0)*/ System.out.println("We go "+row + " "+column +" "+witnessStartToken);
-                    Token token = tokenIndex.token_array[witnessStartToken];
-                    Match match = new Match(v, token);
-                    Coordinate coordinate = new Coordinate(row, column, match);
-                    island.add(coordinate);
                 }
-                result.add(island);
+                // we need to create an island for every block instance in the graph corresponding to this block instance in the witness;
+                // its coordinates (and matches) are only created when needed, mostly for the islands that get selected
+                result.add(new Island(witnessInstance, row, graph_start_token, columns, vertex_array));
             }
         }
         return result;
@@ -36,6 +36,10 @@ public class EditDistanceTokenComparator implements Comparator<Token> {
         this.threshold = threshold;
     }
 
+    public int getThreshold() {
+        return threshold;
+    }
+
     @Override
     public int compare(Token base, Token witness) {
         final String baseContent = ((SimpleToken) base).getNormalized();
@@ -50,6 +50,7 @@ public class MediteAlgorithm extends CollationAlgorithm.Base {
     public void collate(VariantGraph graph, Iterable<Token> witness) {
         final VariantGraph.Vertex[][] vertices = VariantGraphRanking.of(graph).asArray();
         final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
+        cancellation.check();
 
         final SuffixTree<Token> suffixTree = SuffixTree.build(comparator, tokens);
         final MatchEvaluatorWrapper matchEvaluator = new MatchEvaluatorWrapper(this.matchEvaluator, tokens);
@@ -58,6 +59,7 @@ public class MediteAlgorithm extends CollationAlgorithm.Base {
         final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
 
         while (true) {
+            cancellation.check();
             final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> maximalUniqueMatches = matchCandidates.findMaximalUniqueMatches();
             if (maximalUniqueMatches.isEmpty()) {
                 break;
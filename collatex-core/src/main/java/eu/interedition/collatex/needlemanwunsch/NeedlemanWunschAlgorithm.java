@@ -19,19 +19,43 @@
 
 package eu.interedition.collatex.needlemanwunsch;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationInstrumentation;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.matching.StrictEqualityTokenComparator;
+import eu.interedition.collatex.util.LongestIncreasingSubsequence;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
 
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
 public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
 
+    /**
+     * Comparators, which are consistent with an equivalence of tokens, so that tokens can be interned by them.
+     */
+    private static final Set<Class<?>> EQUIVALENCES = new HashSet<>(Arrays.asList(
+        EqualityTokenComparator.class,
+        StrictEqualityTokenComparator.class
+    ));
+
     private final Comparator<Token> comparator;
     private final NeedlemanWunschScorer<VariantGraph.Vertex[], Token> scorer = new NeedlemanWunschScorer<VariantGraph.Vertex[], Token>() {
 
@@ -45,21 +69,49 @@ public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
             return -1;
         }
     };
+    private boolean anchored;
+    private Executor regionExecutor = Runnable::run;
 
     public NeedlemanWunschAlgorithm(Comparator<Token> comparator) {
         this.comparator = comparator;
     }
 
+    /**
+     * Aligns the witness with the ranks of the graph.
+     * <p>
+     * For the comparators in {@link #EQUIVALENCES}, tokens are interned and aligned via {@link #align(int[][], int[])};
+     * other comparators, e.g. an {@link eu.interedition.collatex.matching.EditDistanceTokenComparator}, need not be
+     * transitive, so ranks and tokens are scored pairwise via {@link #align(Object[], Object[], NeedlemanWunschScorer)}.
+     * Both yield the same alignment. A token aligned with a rank is merged into the rank's first vertex, in the order
+     * of vertex ids, with a matching token.
+     */
     @Override
     public void collate(VariantGraph against, Iterable<Token> witness) {
-        final VariantGraph.Vertex[][] ranks = VariantGraphRanking.of(against).asArray();
         final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
+        final Witness witnessOfTokens = (tokens.length == 0 ? null : tokens[0].getWitness());
+
+        CollationInstrumentation.Phase phase = instrumentation.start("ranking", witnessOfTokens);
+        final VariantGraph.Vertex[][] ranks = VariantGraphRanking.of(against).asArray();
+        for (VariantGraph.Vertex[] rank : ranks) {
+            Arrays.sort(rank, Comparator.comparingInt(VariantGraph.Vertex::id));
+        }
+        phase.size("ranks", ranks.length).end();
+        cancellation.check();
+
+        phase = instrumentation.start("alignment", witnessOfTokens);
+        final Token[] alignedTokens = (EQUIVALENCES.contains(comparator.getClass())
+            ? alignByTokenIds(against, ranks, tokens)
+            : alignByScorer(ranks, tokens));
+        phase.size("cells", (long) ranks.length * tokens.length).end();
 
         final Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
-        for (Map.Entry<VariantGraph.Vertex[], Token> alignment : align(ranks, tokens, scorer).entrySet()) {
+        for (int i = 0; i < ranks.length; i++) {
+            final Token token = alignedTokens[i];
+            if (token == null) {
+                continue;
+            }
             boolean aligned = false;
-            final Token token = alignment.getValue();
-            for (VariantGraph.Vertex vertex : alignment.getKey()) {
+            for (VariantGraph.Vertex vertex : ranks[i]) {
                 for (Token vertexToken : vertex.tokens()) {
                     if (comparator.compare(vertexToken, token) == 0) {
                         alignments.put(token, vertex);
@@ -76,7 +128,249 @@ public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
         merge(against, witness, alignments);
     }
 
+    /**
+     * @return for each rank, the token aligned with it, or <code>null</code>
+     */
+    private Token[] alignByTokenIds(VariantGraph against, VariantGraph.Vertex[][] ranks, Token[] tokens) {
+        // intern the witness tokens and score each rank by the ids of its vertices' tokens
+        final Map<Token, Integer> tokenIds = new TreeMap<>(comparator);
+        final int[] witnessTokenIds = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            witnessTokenIds[i] = tokenIds.computeIfAbsent(tokens[i], t -> tokenIds.size());
+        }
+        final int[][] rankTokenIds = new int[ranks.length][];
+        for (int i = 0; i < ranks.length; i++) {
+            rankTokenIds[i] = Arrays.stream(ranks[i]).map(VariantGraph.Vertex::tokens).flatMap(Set::stream)
+                .map(tokenIds::get).filter(Objects::nonNull).mapToInt(Integer::intValue).distinct().toArray();
+        }
+
+        final int[] aligned = (anchored
+            ? alignBetweenAnchors(against, ranks, rankTokenIds, tokenIds, witnessTokenIds)
+            : align(rankTokenIds, witnessTokenIds, cancellation));
+        final Token[] alignedTokens = new Token[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            alignedTokens[i] = (aligned[i] < 0 ? null : tokens[aligned[i]]);
+        }
+        return alignedTokens;
+    }
+
+    /**
+     * @return for each rank, the token aligned with it, or <code>null</code>
+     */
+    private Token[] alignByScorer(VariantGraph.Vertex[][] ranks, Token[] tokens) {
+        final Map<VariantGraph.Vertex[], Token> aligned = align(ranks, tokens, scorer, cancellation);
+        final Token[] alignedTokens = new Token[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            alignedTokens[i] = aligned.get(ranks[i]);
+        }
+        return alignedTokens;
+    }
+
+    /**
+     * Aligns witnesses between anchors, i.e. tokens occurring once in the witness and in the graph, in a vertex shared
+     * by all witnesses of the graph, instead of filling the complete table for each witness. For long and mostly
+     * identical witnesses, this reduces the cost of the alignment to the size of the regions between anchors, which
+     * can be aligned in parallel via {@link #setRegionExecutor(Executor)}. Alignments may differ from the complete
+     * table's in case the latter does not align anchors.
+     * <p>
+     * Anchors are determined by interned tokens, so the alignment is only anchored for the comparators in
+     * {@link #EQUIVALENCES}.
+     */
+    public void setAnchored(boolean anchored) {
+        this.anchored = anchored;
+    }
+
+    /**
+     * Aligns the regions between anchors on the given executor; on the collating thread by default.
+     *
+     * @see #setAnchored(boolean)
+     */
+    public void setRegionExecutor(Executor regionExecutor) {
+        this.regionExecutor = Objects.requireNonNull(regionExecutor);
+    }
+
+    /**
+     * Splits the table at order-consistent anchors, aligning the regions between them independently.
+     *
+     * @return for each rank, the index of the witness token aligned with it, or <code>-1</code>
+     */
+    private int[] alignBetweenAnchors(VariantGraph against, VariantGraph.Vertex[][] ranks, int[][] rankTokenIds,
+                                      Map<Token, Integer> tokenIds, int[] witnessTokenIds) {
+        final int witnessCount = against.witnesses().size();
+        final int[] tokenCounts = new int[tokenIds.size()];
+        for (int i = 0; i < witnessTokenIds.length; i++) {
+            tokenCounts[witnessTokenIds[i]]++;
+        }
+
+        // rank of the only vertex with a token of the given id, -1 for none, -2 for several or a partial one
+        final int[] anchorRanks = new int[tokenIds.size()];
+        Arrays.fill(anchorRanks, -1);
+        for (int rank = 0; rank < ranks.length; rank++) {
+            for (VariantGraph.Vertex vertex : ranks[rank]) {
+                final boolean shared = (vertex.witnesses().size() == witnessCount);
+                final int vertexRank = rank;
+                vertex.tokens().stream().map(tokenIds::get).filter(Objects::nonNull).mapToInt(Integer::intValue).distinct()
+                    .forEach(id -> anchorRanks[id] = (anchorRanks[id] == -1 && shared ? vertexRank : -2));
+            }
+        }
+
+        final int[] positions = IntStream.range(0, witnessTokenIds.length)
+            .filter(i -> tokenCounts[witnessTokenIds[i]] == 1 && anchorRanks[witnessTokenIds[i]] >= 0)
+            .toArray();
+        final int[] anchorRankSequence = Arrays.stream(positions).map(i -> anchorRanks[witnessTokenIds[i]]).toArray();
+        final int[] anchors = LongestIncreasingSubsequence.of(anchorRankSequence);
+
+        // the anchors, preceded and followed by the boundaries of the table
+        final int[] rankBoundaries = new int[anchors.length + 2];
+        final int[] tokenBoundaries = new int[anchors.length + 2];
+        rankBoundaries[0] = tokenBoundaries[0] = -1;
+        for (int a = 0; a < anchors.length; a++) {
+            rankBoundaries[a + 1] = anchorRankSequence[anchors[a]];
+            tokenBoundaries[a + 1] = positions[anchors[a]];
+        }
+        rankBoundaries[anchors.length + 1] = ranks.length;
+        tokenBoundaries[anchors.length + 1] = witnessTokenIds.length;
+
+        final List<int[]> regions = invokeAll(regionExecutor, anchors.length + 1, r -> align(
+            Arrays.copyOfRange(rankTokenIds, rankBoundaries[r] + 1, rankBoundaries[r + 1]),
+            Arrays.copyOfRange(witnessTokenIds, tokenBoundaries[r] + 1, tokenBoundaries[r + 1]),
+            cancellation
+        ));
+
+        final int[] aligned = new int[ranks.length];
+        Arrays.fill(aligned, -1);
+        for (int r = 0; r < regions.size(); r++) {
+            final int rankOffset = rankBoundaries[r] + 1;
+            final int tokenOffset = tokenBoundaries[r] + 1;
+            if (r > 0) {
+                aligned[rankBoundaries[r]] = tokenBoundaries[r];
+            }
+            final int[] region = regions.get(r);
+            for (int i = 0; i < region.length; i++) {
+                if (region[i] >= 0) {
+                    aligned[rankOffset + i] = tokenOffset + region[i];
+                }
+            }
+        }
+        return aligned;
+    }
+
+    /**
+     * Aligns a sequence of token id sets with a sequence of token ids, scoring a match with <code>1</code> and
+     * a mismatch or a gap with <code>-1</code>.
+     * <p>
+     * Yields the same alignment as {@link #align(Object[], Object[], NeedlemanWunschScorer)} with such a scorer,
+     * though without evaluating it per cell: the scores of a row are derived from the positions of the row's ids
+     * in <code>b</code>, and rows are filled by branch-free passes over <code>int</code> arrays, which the JIT can
+     * vectorize. Only the current and the previous row are kept, along with two bits per cell for the traceback.
+     *
+     * @param a the token ids of each element of the first sequence, e.g. of each rank of a variant graph
+     * @param b the token ids of the second sequence, e.g. of a witness
+     * @return for each element of <code>a</code>, the index of the element of <code>b</code> aligned with it, or
+     * <code>-1</code>
+     */
+    public static int[] align(int[][] a, int[] b) {
+        return align(a, b, Cancellation.NONE);
+    }
+
+    /**
+     * Like {@link #align(int[][], int[])}, polling the given cancellation once per row.
+     *
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static int[] align(int[][] a, int[] b, Cancellation cancellation) {
+        final int n = a.length;
+        final int m = b.length;
+
+        int ids = 0;
+        for (int id : b) {
+            ids = Math.max(ids, id + 1);
+        }
+        final int[] firstOccurrence = new int[ids];
+        final int[] nextOccurrence = new int[m];
+        Arrays.fill(firstOccurrence, -1);
+        for (int j = m - 1; j >= 0; j--) {
+            nextOccurrence[j] = firstOccurrence[b[j]];
+            firstOccurrence[b[j]] = j;
+        }
+
+        // boundary values as set up by the generic variant
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j < m; j++) {
+            previous[j] = -(j + 1);
+        }
+
+        final int[] score = new int[m];
+        Arrays.fill(score, -1);
+        final long[] diagonal = new long[(int) (((long) n * m + 63) >>> 6)];
+        final long[] vertical = new long[diagonal.length];
+        for (int i = 1; i <= n; i++) {
+            cancellation.check();
+            final int[] rowIds = a[i - 1];
+            for (int id : rowIds) {
+                for (int j = (id >= 0 && id < ids ? firstOccurrence[id] : -1); j >= 0; j = nextOccurrence[j]) {
+                    score[j] = 1;
+                }
+            }
+
+            current[0] = (i < n ? -(i + 1) : 0);
+            for (int j = 1; j <= m; j++) {
+                current[j] = Math.max(previous[j - 1] + score[j - 1], previous[j] - 1);
+            }
+            for (int j = 1; j <= m; j++) {
+                current[j] = Math.max(current[j], current[j - 1] - 1);
+            }
+
+            // traceback bits: preferably a match, else a gap in b, else a gap in a
+            final long row = (long) (i - 1) * m - 1;
+            for (int j = 1; j <= m; j++) {
+                final long cell = row + j;
+                final int word = (int) (cell >>> 6);
+                diagonal[word] |= (current[j] == previous[j - 1] + score[j - 1] ? 1L : 0L) << cell;
+                vertical[word] |= (current[j] == previous[j] - 1 ? 1L : 0L) << cell;
+            }
+
+            for (int id : rowIds) {
+                for (int j = (id >= 0 && id < ids ? firstOccurrence[id] : -1); j >= 0; j = nextOccurrence[j]) {
+                    score[j] = -1;
+                }
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        final int[] aligned = new int[n];
+        Arrays.fill(aligned, -1);
+        int ac = n;
+        int bc = m;
+        while (ac > 0 && bc > 0) {
+            final long cell = (long) (ac - 1) * m + (bc - 1);
+            final int word = (int) (cell >>> 6);
+            if ((diagonal[word] & (1L << cell)) != 0) {
+                aligned[ac - 1] = bc - 1;
+                ac--;
+                bc--;
+            } else if ((vertical[word] & (1L << cell)) != 0) {
+                ac--;
+            } else {
+                bc--;
+            }
+        }
+        return aligned;
+    }
+
     public static <A, B> Map<A, B> align(A[] a, B[] b, NeedlemanWunschScorer<A, B> scorer) {
+        return align(a, b, scorer, Cancellation.NONE);
+    }
+
+    /**
+     * Like {@link #align(Object[], Object[], NeedlemanWunschScorer)}, polling the given cancellation once per row.
+     *
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static <A, B> Map<A, B> align(A[] a, B[] b, NeedlemanWunschScorer<A, B> scorer, Cancellation cancellation) {
 
         final Map<A, B> alignments = new HashMap<>();
         final float[][] matrix = new float[a.length + 1][b.length + 1];
@@ -92,6 +386,7 @@ public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
 
         ac = 1;
         for (A aElement : a) {
+            cancellation.check();
             bc = 1;
             for (B bElement : b) {
                 final float k = matrix[ac - 1][bc - 1] + scorer.score(aElement, bElement);
@@ -19,6 +19,7 @@
 
 package eu.interedition.collatex.simple;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.VariantGraph;
 
@@ -49,7 +50,15 @@ public class SimpleCollation {
     }
 
     public VariantGraph collate(VariantGraph graph) {
-        algorithm.collate(graph, witnesses);
+        return collate(graph, Cancellation.NONE);
+    }
+
+    /**
+     * @throws java.util.concurrent.CancellationException if the collation has been given up
+     * @see CollationAlgorithm#collate(VariantGraph, List, Cancellation)
+     */
+    public VariantGraph collate(VariantGraph graph, Cancellation cancellation) {
+        algorithm.collate(graph, witnesses, cancellation);
         if (joined) {
             VariantGraph.JOIN.apply(graph);
         }
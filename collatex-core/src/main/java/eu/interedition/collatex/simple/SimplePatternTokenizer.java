@@ -19,8 +19,10 @@
 
 package eu.interedition.collatex.simple;
 
+import java.nio.CharBuffer;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,14 +37,7 @@ public class SimplePatternTokenizer {
     static final String PUNCT = Pattern.quote(".?!,;:");
 
     static Function<String, Stream<String>> tokenizer(Pattern pattern) {
-        return input -> {
-            final Matcher matcher = pattern.matcher(input);
-            final List<String> tokens = new LinkedList<>();
-            while (matcher.find()) {
-                tokens.add(input.substring(matcher.start(), matcher.end()));
-            }
-            return tokens.stream();
-        };
+        return new PatternTokenizer(pattern);
     }
 
     public static final Function<String, Stream<String>> BY_WHITESPACE = tokenizer(Pattern.compile("\\s*?\\S+\\s*]"));
@@ -51,4 +46,56 @@ public class SimplePatternTokenizer {
 
     public static final Function<String, Stream<String>> BY_WS_OR_PUNCT = tokenizer(Pattern.compile("[" + PUNCT + "]+[\\s]*|[^" + PUNCT + "\\s]+[\\s]*"));
 
-}
\ No newline at end of file
+    /**
+     * Splits text into the subsequences matched by a regular expression.
+     * <p>
+     * Besides tokenizing complete strings, it can tokenize text incrementally, chunk by chunk, so that large inputs
+     * do not have to be held in memory as a whole.
+     */
+    public static class PatternTokenizer implements Function<String, Stream<String>> {
+
+        private final Pattern pattern;
+
+        public PatternTokenizer(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        @Override
+        public Stream<String> apply(String input) {
+            final Matcher matcher = pattern.matcher(input);
+            final List<String> tokens = new LinkedList<>();
+            while (matcher.find()) {
+                tokens.add(input.substring(matcher.start(), matcher.end()));
+            }
+            return tokens.stream();
+        }
+
+        /**
+         * Tokenizes the remaining characters of the given buffer, advancing its position past the last token emitted.
+         * <p>
+         * Unless <code>endOfInput</code> is set, a match reaching the end of the buffer is not emitted, as it might be
+         * continued by subsequent input; the caller is expected to retain the characters left in the buffer and to
+         * append further input to them before calling this method again.
+         *
+         * @param input      the chunk of text to tokenize
+         * @param endOfInput whether no more input follows the given chunk
+         * @param tokens     receives the tokens found in the given chunk
+         */
+        public void tokenize(CharBuffer input, boolean endOfInput, Consumer<String> tokens) {
+            final Matcher matcher = pattern.matcher(input);
+            int consumed = 0;
+            while (matcher.find()) {
+                if (!endOfInput && matcher.hitEnd()) {
+                    break;
+                }
+                tokens.accept(input.subSequence(matcher.start(), matcher.end()).toString());
+                consumed = matcher.end();
+            }
+            input.position(input.position() + (endOfInput ? input.remaining() : consumed));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Selects tokens from XML documents by evaluating a subset of XPath 1.0 on a stream of StAX events, so documents
+ * never have to be held in memory as a whole.
+ * <p>
+ * Supported are unions of location paths, whose steps use the child (<code>/</code>) or the descendant
+ * (<code>//</code>) axis, element name tests or <code>*</code>, attribute predicates like <code>[@type]</code> or
+ * <code>[@type='word']</code>, and an optional final <code>text()</code> step. Names must not be prefixed and are
+ * compared by their local part, ignoring namespaces; abbreviated steps like <code>..</code> and explicit axes are not
+ * supported. Selected elements yield their string value, selected text nodes their content, both in document order.
+ * Examples: <code>//text()</code>, <code>//w | //seg</code>,
+ * <code>/TEI/text//p[@rend='verse']/text()</code>.
+ */
+public class SimpleStreamingXPath {
+
+    private final String expression;
+    private final LocationPath[] paths;
+
+    private SimpleStreamingXPath(String expression, LocationPath[] paths) {
+        this.expression = expression;
+        this.paths = paths;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not part of the supported subset of XPath
+     */
+    public static SimpleStreamingXPath compile(String expression) throws IllegalArgumentException {
+        return new SimpleStreamingXPath(expression, new Parser(expression).parse());
+    }
+
+    public void evaluate(InputStream input, Consumer<String> tokens) throws XMLStreamException {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        final XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
+        try {
+            evaluate(reader, tokens);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void evaluate(XMLStreamReader reader, Consumer<String> tokens) throws XMLStreamException {
+        // per open element and location path: a bit set of the steps, which can be applied to the element's children
+        long[][] states = new long[16][];
+        states[0] = new long[paths.length];
+        Arrays.fill(states[0], 1L);
+        int depth = 0;
+
+        final Deque<Selection> open = new ArrayDeque<>();
+        final Deque<Selection> pending = new ArrayDeque<>();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final long[] parent = states[depth++];
+                    if (depth == states.length) {
+                        states = Arrays.copyOf(states, depth * 2);
+                    }
+                    long[] current = states[depth];
+                    if (current == null) {
+                        current = states[depth] = new long[paths.length];
+                    }
+                    boolean selected = false;
+                    for (int pc = 0; pc < paths.length; pc++) {
+                        current[pc] = paths[pc].enter(parent[pc], reader);
+                        selected = selected || paths[pc].selectsElement(current[pc]);
+                    }
+                    if (selected) {
+                        final Selection selection = new Selection(depth);
+                        open.addLast(selection);
+                        pending.addLast(selection);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (!open.isEmpty() && open.peekLast().depth == depth) {
+                        open.removeLast().complete = true;
+                        while (!pending.isEmpty() && pending.peekFirst().complete) {
+                            tokens.accept(pending.removeFirst().text.toString());
+                        }
+                    }
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth == 0) {
+                        break;
+                    }
+                    final String text = reader.getText();
+                    for (Selection selection : open) {
+                        selection.text.append(text);
+                    }
+                    for (int pc = 0; pc < paths.length; pc++) {
+                        if (paths[pc].selectsText(states[depth][pc])) {
+                            if (pending.isEmpty()) {
+                                tokens.accept(text);
+                            } else {
+                                final Selection selection = new Selection(depth);
+                                selection.text.append(text);
+                                selection.complete = true;
+                                pending.addLast(selection);
+                            }
+                            break;
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static class Selection {
+        final int depth;
+        final StringBuilder text = new StringBuilder();
+        boolean complete = false;
+
+        Selection(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private static class LocationPath {
+        final Step[] steps;
+        final boolean text;
+
+        LocationPath(Step[] steps, boolean text) {
+            this.steps = steps;
+            this.text = text;
+        }
+
+        /**
+         * Steps entered with the given parent states and the current element.
+         * <p>
+         * Bit <code>k</code> of a state denotes that step <code>k</code> can be applied to the children of an
+         * element, either because step <code>k - 1</code> matched the element itself, or because step <code>k</code>
+         * follows the descendant axis and was applicable to one of its ancestors.
+         */
+        long enter(long parent, XMLStreamReader element) {
+            long state = 0;
+            for (int sc = 0; sc < steps.length; sc++) {
+                if ((parent & (1L << sc)) == 0) {
+                    continue;
+                }
+                final Step step = steps[sc];
+                if (step.descendant) {
+                    state |= (1L << sc);
+                }
+                if (step.matches(element)) {
+                    state |= (1L << (sc + 1));
+                }
+            }
+            return state;
+        }
+
+        boolean selectsElement(long state) {
+            return !text && (state & (1L << steps.length)) != 0;
+        }
+
+        boolean selectsText(long state) {
+            return text && (state & (1L << (steps.length - 1))) != 0;
+        }
+    }
+
+    private static class Step {
+        final boolean descendant;
+        final String name;
+        final List<String[]> predicates;
+
+        Step(boolean descendant, String name, List<String[]> predicates) {
+            this.descendant = descendant;
+            this.name = name;
+            this.predicates = predicates;
+        }
+
+        boolean matches(XMLStreamReader element) {
+            if (name == null || (!"*".equals(name) && !name.equals(element.getLocalName()))) {
+                return false;
+            }
+            for (String[] predicate : predicates) {
+                final String value = element.getAttributeValue(null, predicate[0]);
+                if (value == null || (predicate[1] != null && !predicate[1].equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Parser {
+        final String expression;
+        int pos = 0;
+
+        Parser(String expression) {
+            this.expression = expression;
+        }
+
+        LocationPath[] parse() {
+            final List<LocationPath> paths = new ArrayList<>();
+            do {
+                paths.add(path());
+                skipWhitespace();
+            } while (consume("|"));
+            if (pos < expression.length()) {
+                throw unsupported();
+            }
+            return paths.toArray(new LocationPath[paths.size()]);
+        }
+
+        LocationPath path() {
+            final List<Step> steps = new ArrayList<>();
+            skipWhitespace();
+            boolean descendant = consume("//");
+            if (!descendant) {
+                consume("/");
+            }
+            while (true) {
+                skipWhitespace();
+                if (consume("text()")) {
+                    steps.add(new Step(descendant, null, new ArrayList<>()));
+                    return create(steps, true);
+                }
+                final String name = name();
+                final List<String[]> predicates = new ArrayList<>();
+                while (consume("[")) {
+                    predicates.add(predicate());
+                }
+                steps.add(new Step(descendant, name, predicates));
+                if (consume("//")) {
+                    descendant = true;
+                } else if (consume("/")) {
+                    descendant = false;
+                } else {
+                    return create(steps, false);
+                }
+            }
+        }
+
+        LocationPath create(List<Step> steps, boolean text) {
+            if (steps.size() >= Long.SIZE - 1) {
+                throw unsupported();
+            }
+            return new LocationPath(steps.toArray(new Step[steps.size()]), text);
+        }
+
+        String[] predicate() {
+            skipWhitespace();
+            if (!consume("@")) {
+                throw unsupported();
+            }
+            final String attribute = name();
+            String value = null;
+            skipWhitespace();
+            if (consume("=")) {
+                skipWhitespace();
+                final char quote = pos < expression.length() ? expression.charAt(pos) : 0;
+                if (quote != '\'' && quote != '"') {
+                    throw unsupported();
+                }
+                final int end = expression.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    throw unsupported();
+                }
+                value = expression.substring(pos + 1, end);
+                pos = end + 1;
+                skipWhitespace();
+            }
+            if (!consume("]")) {
+                throw unsupported();
+            }
+            return new String[] { attribute, value };
+        }
+
+        String name() {
+            final int start = pos;
+            while (pos < expression.length()) {
+                final char c = expression.charAt(pos);
+                if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.' && c != ':' && c != '*') {
+                    break;
+                }
+                pos++;
+            }
+            if (start == pos) {
+                throw unsupported();
+            }
+            final String name = expression.substring(start, pos);
+            if (name.startsWith(".") || name.indexOf(':') >= 0) {
+                // abbreviated steps, other axes and prefixed names cannot be evaluated on the stream
+                pos = start;
+                throw unsupported();
+            }
+            return name;
+        }
+
+        boolean consume(String token) {
+            if (expression.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        void skipWhitespace() {
+            while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("Unsupported XPath expression at position " + pos + ": " + expression);
+        }
+    }
+}
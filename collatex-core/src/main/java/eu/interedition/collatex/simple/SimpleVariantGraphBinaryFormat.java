@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact binary format of variant graphs of {@link SimpleWitness simple witnesses}, which can be read back into a
+ * graph, e.g. for caching collation results instead of collating again.
+ * <p>
+ * All numbers are written as unsigned variable-length integers (7 bits per byte, least significant group first). The
+ * format consists of
+ * <ol>
+ * <li>the magic bytes <code>CXVG</code> and a version byte,</li>
+ * <li>a table of all strings, i.e. witness sigla and the content and normalized form of tokens, each string once,</li>
+ * <li>the witnesses, ordered by sigil, with their tokens as pairs of string indices,</li>
+ * <li>the vertices in topological order, starting with the start and ending with the end vertex, with the indices
+ * of their tokens among the tokens of all witnesses,</li>
+ * <li>the outgoing edges of each vertex, given by the distance to their target in the topological order and the bit
+ * set of their witnesses' indices, and</li>
+ * <li>the transpositions, given by the distances between the ordered indices of their vertices.</li>
+ * </ol>
+ */
+public class SimpleVariantGraphBinaryFormat {
+
+    private static final byte[] MAGIC = "CXVG".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    /**
+     * A graph read from its binary format.
+     */
+    public static class Result {
+        public final VariantGraph graph;
+        public final List<SimpleWitness> witnesses;
+        public final Map<Token, VariantGraph.Vertex> tokenVertices;
+
+        Result(VariantGraph graph, List<SimpleWitness> witnesses, Map<Token, VariantGraph.Vertex> tokenVertices) {
+            this.graph = graph;
+            this.witnesses = witnesses;
+            this.tokenVertices = tokenVertices;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the graph contains tokens other than {@link SimpleToken simple tokens} of
+     *                                  {@link SimpleWitness simple witnesses}
+     */
+    public static void write(VariantGraph graph, OutputStream stream) throws IOException {
+        final List<SimpleWitness> witnesses = new ArrayList<>();
+        for (Witness witness : graph.witnesses()) {
+            if (!(witness instanceof SimpleWitness)) {
+                throw new IllegalArgumentException("Not a simple witness: " + witness);
+            }
+            witnesses.add((SimpleWitness) witness);
+        }
+        witnesses.sort(Witness.SIGIL_COMPARATOR);
+
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final Map<Token, Integer> tokenIndices = new IdentityHashMap<>();
+        final Map<Witness, Integer> witnessIndices = new HashMap<>();
+        for (SimpleWitness witness : witnesses) {
+            witnessIndices.put(witness, witnessIndices.size());
+            strings.computeIfAbsent(witness.getSigil(), s -> strings.size());
+            for (Token token : witness.getTokens()) {
+                if (!(token instanceof SimpleToken)) {
+                    throw new IllegalArgumentException("Not a simple token: " + token);
+                }
+                final SimpleToken simpleToken = (SimpleToken) token;
+                strings.computeIfAbsent(simpleToken.getContent(), s -> strings.size());
+                strings.computeIfAbsent(simpleToken.getNormalized(), s -> strings.size());
+                tokenIndices.put(token, tokenIndices.size());
+            }
+        }
+
+        final List<VariantGraph.Vertex> vertices = new ArrayList<>();
+        final Map<VariantGraph.Vertex, Integer> vertexIndices = new HashMap<>();
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            vertexIndices.put(vertex, vertices.size());
+            vertices.add(vertex);
+        }
+
+        final Output out = new Output(stream);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(witnesses.size());
+        for (SimpleWitness witness : witnesses) {
+            out.writeInt(strings.get(witness.getSigil()));
+            out.writeInt(witness.getTokens().size());
+            for (Token token : witness.getTokens()) {
+                out.writeInt(strings.get(((SimpleToken) token).getContent()));
+                out.writeInt(strings.get(((SimpleToken) token).getNormalized()));
+            }
+        }
+
+        out.writeInt(vertices.size());
+        for (VariantGraph.Vertex vertex : vertices) {
+            final int[] tokens = new int[vertex.tokens().size()];
+            int t = 0;
+            for (Token token : vertex.tokens()) {
+                final Integer index = tokenIndices.get(token);
+                if (index == null) {
+                    throw new IllegalArgumentException("Not a token of a simple witness: " + token);
+                }
+                tokens[t++] = index;
+            }
+            Arrays.sort(tokens);
+            out.writeInt(tokens.length);
+            for (int token : tokens) {
+                out.writeInt(token);
+            }
+        }
+
+        for (int v = 0; v < vertices.size(); v++) {
+            final Map<VariantGraph.Vertex, Set<Witness>> outgoing = vertices.get(v).outgoing();
+            out.writeInt(outgoing.size());
+            for (Map.Entry<VariantGraph.Vertex, Set<Witness>> edge : outgoing.entrySet()) {
+                out.writeInt(vertexIndices.get(edge.getKey()) - v);
+                final BitSet edgeWitnesses = new BitSet();
+                for (Witness witness : edge.getValue()) {
+                    edgeWitnesses.set(witnessIndices.get(witness));
+                }
+                final long[] words = edgeWitnesses.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+
+        final Set<Set<VariantGraph.Vertex>> transpositions = graph.transpositions();
+        out.writeInt(transpositions.size());
+        for (Set<VariantGraph.Vertex> transposition : transpositions) {
+            final int[] members = transposition.stream().mapToInt(vertexIndices::get).sorted().toArray();
+            out.writeInt(members.length);
+            int last = 0;
+            for (int member : members) {
+                out.writeInt(member - last);
+                last = member;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a graph, along with its witnesses and their tokens.
+     * <p>
+     * Exactly the bytes of the graph are consumed, so that data following the graph can be read from the stream
+     * afterwards. The stream is read byte by byte; pass a buffered stream unless the graph is the last data in it.
+     *
+     * @throws IOException if the stream does not contain a graph in this format
+     */
+    public static Result read(InputStream stream) throws IOException {
+        final Input in = new Input(stream);
+        for (byte magic : MAGIC) {
+            if (in.read() != magic) {
+                throw new IOException("Not a variant graph in binary format");
+            }
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of binary variant graph format: " + version);
+        }
+
+        final List<String> strings = new ArrayList<>();
+        for (int s = in.readInt(); s > 0; s--) {
+            strings.add(new String(in.read(in.readInt()), StandardCharsets.UTF_8));
+        }
+
+        final List<SimpleWitness> witnesses = new ArrayList<>();
+        final List<Token> tokens = new ArrayList<>();
+        for (int w = in.readInt(); w > 0; w--) {
+            final SimpleWitness witness = new SimpleWitness(in.get(strings));
+            final List<Token> witnessTokens = new ArrayList<>();
+            for (int t = in.readInt(); t > 0; t--) {
+                final String content = in.get(strings);
+                witnessTokens.add(new SimpleToken(witness, content, in.get(strings)));
+            }
+            witness.setTokens(witnessTokens);
+            witnesses.add(witness);
+            tokens.addAll(witnessTokens);
+        }
+
+        final VariantGraph graph = new VariantGraph();
+        final int vertexCount = in.readInt();
+        if (vertexCount < 2) {
+            throw new IOException("Variant graph without start and end vertex");
+        }
+        if (vertexCount > tokens.size() + 2) {
+            throw new IOException("More vertices than tokens: " + vertexCount);
+        }
+        final VariantGraph.Vertex[] vertices = new VariantGraph.Vertex[vertexCount];
+        final Map<Token, VariantGraph.Vertex> tokenVertices = new IdentityHashMap<>();
+        for (int v = 0; v < vertices.length; v++) {
+            final VariantGraph.Vertex vertex = (v == 0 ? graph.getStart() : (v == vertices.length - 1 ? graph.getEnd() : new VariantGraph.Vertex(graph)));
+            final List<Token> vertexTokens = new ArrayList<>();
+            for (int t = in.readInt(); t > 0; t--) {
+                final Token token = in.get(tokens);
+                if (tokenVertices.put(token, vertex) != null) {
+                    throw new IOException("Token in more than one vertex: " + token);
+                }
+                vertexTokens.add(token);
+            }
+            vertex.add(vertexTokens);
+            vertices[v] = vertex;
+        }
+
+        final int maxWords = (witnesses.size() + Long.SIZE - 1) / Long.SIZE;
+        for (int v = 0; v < vertices.length; v++) {
+            for (int e = in.readInt(); e > 0; e--) {
+                final int distance = in.readInt();
+                if (distance < 1 || distance >= vertices.length - v) {
+                    throw new IOException("Invalid edge from vertex " + v + " to vertex " + (v + (long) distance));
+                }
+                final VariantGraph.Vertex target = vertices[v + distance];
+                final int wordCount = in.readInt();
+                if (wordCount > maxWords) {
+                    throw new IOException("Invalid witness set of " + wordCount + " words");
+                }
+                final long[] words = new long[wordCount];
+                for (int w = 0; w < words.length; w++) {
+                    words[w] = in.readLong();
+                }
+                final BitSet edgeWitnesses = BitSet.valueOf(words);
+                if (edgeWitnesses.isEmpty()) {
+                    // the edge between the start and the end vertex of an empty graph, which exists already
+                    continue;
+                }
+                if (edgeWitnesses.length() > witnesses.size()) {
+                    throw new IOException("Invalid witness index: " + (edgeWitnesses.length() - 1));
+                }
+                final Set<Witness> witnessSet = new HashSet<>();
+                edgeWitnesses.stream().forEach(w -> witnessSet.add(witnesses.get(w)));
+                graph.connect(vertices[v], target, witnessSet);
+            }
+        }
+
+        for (int t = in.readInt(); t > 0; t--) {
+            final Set<VariantGraph.Vertex> transposition = new HashSet<>();
+            long member = 0;
+            for (int m = in.readInt(); m > 0; m--) {
+                member += in.readInt();
+                if (member >= vertices.length) {
+                    throw new IOException("Invalid transposed vertex: " + member);
+                }
+                transposition.add(vertices[(int) member]);
+            }
+            if (transposition.isEmpty()) {
+                throw new IOException("Empty transposition");
+            }
+            graph.transpose(transposition);
+        }
+
+        return new Result(graph, Collections.unmodifiableList(witnesses), tokenVertices);
+    }
+
+    private static class Output {
+        private final OutputStream out;
+
+        Output(OutputStream out) {
+            this.out = new BufferedOutputStream(out);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        void writeInt(int value) throws IOException {
+            writeLong(value & 0xffffffffL);
+        }
+
+        void writeLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static class Input {
+        /**
+         * The size of chunks in which strings are read, so that a corrupt length does not allocate more than the
+         * stream holds.
+         */
+        private static final int CHUNK_SIZE = 8192;
+
+        private final InputStream in;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        byte[] read(int length) throws IOException {
+            byte[] bytes = new byte[Math.min(length, CHUNK_SIZE)];
+            int read = 0;
+            while (read < length) {
+                if (read == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+                }
+                final int chunk = in.read(bytes, read, bytes.length - read);
+                if (chunk < 0) {
+                    throw new EOFException();
+                }
+                read += chunk;
+            }
+            return bytes;
+        }
+
+        <T> T get(List<T> list) throws IOException {
+            final int index = readInt();
+            if (index >= list.size()) {
+                throw new IOException("Invalid index: " + index + " >= " + list.size());
+            }
+            return list.get(index);
+        }
+
+        int readInt() throws IOException {
+            final long value = readLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid number: " + value);
+            }
+            return (int) value;
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid variable-length number");
+        }
+    }
+}
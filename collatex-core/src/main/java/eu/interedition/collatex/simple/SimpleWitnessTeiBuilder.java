@@ -19,11 +19,12 @@
 
 package eu.interedition.collatex.simple;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -36,78 +37,79 @@ public class SimpleWitnessTeiBuilder {
 
     private static QName w = new QName("http://www.tei-c.org/ns/1.0", "w");
     private static QName seg = new QName("http://www.tei-c.org/ns/1.0", "seg");
-    private static QName p = new QName("http://www.tei-c.org/ns/1.0", "p");
+
+    private final SimpleStreamingXPath tokens;
+
+    /**
+     * Reads the outermost TEI <code>w</code> and <code>seg</code> elements of a document as tokens, a <code>w</code>
+     * nested in a <code>seg</code> or vice versa being part of the enclosing token. The text of a <code>w</code> is
+     * taken as is, the text nodes of a <code>seg</code> are trimmed.
+     */
+    public SimpleWitnessTeiBuilder() {
+        this.tokens = null;
+    }
+
+    /**
+     * @param tokenXPath selects the tokens of a witness; see {@link SimpleStreamingXPath} for the supported expressions
+     */
+    public SimpleWitnessTeiBuilder(String tokenXPath) {
+        this.tokens = SimpleStreamingXPath.compile(tokenXPath);
+    }
 
     public SimpleWitness read(InputStream input) throws XMLStreamException {
         SimpleWitness witness = new SimpleWitness("id");
         List<String> tokenContents = new ArrayList<>();
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLEventReader reader = factory.createXMLEventReader(input);
-        XMLEvent event = null;
-        int numberOfParagraphs = 0;
-        while ((event = reader.peek()) != null && numberOfParagraphs < 10) {
-            // System.out.println(event.toString());
-            if (event.isStartElement() && event.asStartElement().getName().equals(w)) {
-                tokenContents.add(handleWElement(reader));
-            } else if (event.isStartElement() && event.asStartElement().getName().equals(seg)) {
-                tokenContents.add(handleSegElement(reader));
-            } else if (event.isStartElement() && event.asStartElement().getName().equals(p)) {
-                reader.next();
-                numberOfParagraphs++;
-            } else {
-                reader.next();
-            }
+        if (tokens == null) {
+            readTokens(input, tokenContents);
+        } else {
+            tokens.evaluate(input, tokenContents::add);
         }
         witness.setTokenContents(tokenContents.stream(), SimpleTokenNormalizers.LC_TRIM_WS_PUNCT);
         return witness;
     }
 
-    private static String handleWElement(XMLEventReader reader) throws XMLStreamException {
-        XMLEvent event = reader.nextEvent();
-        // Do what you need to do with the start element, e.g. initialize
-        // data structures
-        // System.out.println("W tag is triggered here!");
-        StringBuilder textBuffer = new StringBuilder();
-        while ((event = reader.peek()) != null) {
-            if (event.isEndElement() && event.asEndElement().getName().equals(w)) {
-                // Do what you need to do at the end, e.g. add data
-                // collected from sub elements, etc.
-                event = reader.nextEvent();
-                break;
+    private static void readTokens(InputStream input, List<String> tokenContents) throws XMLStreamException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        final XMLStreamReader reader = factory.createXMLStreamReader(input);
+        try {
+            // depth within the current token element, 0 outside of tokens
+            int depth = 0;
+            boolean trim = false;
+            final StringBuilder token = new StringBuilder();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (depth > 0) {
+                            depth++;
+                        } else if (isElement(reader, w) || isElement(reader, seg)) {
+                            depth = 1;
+                            trim = isElement(reader, seg);
+                            token.setLength(0);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth > 0 && --depth == 0) {
+                            tokenContents.add(token.toString());
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (depth > 0) {
+                            token.append(trim ? reader.getText().trim() : reader.getText());
+                        }
+                        break;
+                }
             }
-
-            // Do what you need to do for start or child elements, e.g.
-            // dispatch to another handler function
-            event = reader.nextEvent();
-            textBuffer.append(event.toString());
-            // System.out.println("Text :"+event.toString());
+        } finally {
+            reader.close();
         }
-
-        return textBuffer.toString();
     }
 
-    private static String handleSegElement(XMLEventReader reader) throws XMLStreamException {
-        XMLEvent event = reader.nextEvent();
-        // Do what you need to do with the start element, e.g. initialize
-        // data structures
-        // System.out.println("Seg tag is triggered here!");
-        StringBuilder textBuffer = new StringBuilder();
-        while ((event = reader.peek()) != null) {
-            if (event.isEndElement() && event.asEndElement().getName().equals(seg)) {
-                // Do what you need to do at the end, e.g. add data
-                // collected from sub elements, etc.
-                event = reader.nextEvent();
-                break;
-            }
-
-            // Do what you need to do for start or child elements, e.g.
-            // dispatch to another handler function
-            event = reader.nextEvent();
-            if (event.getEventType() == XMLEvent.CHARACTERS) {
-                textBuffer.append(event.toString().trim());
-            }
-
-        }
-        return textBuffer.toString();
+    private static boolean isElement(XMLStreamReader reader, QName name) {
+        final String namespace = reader.getNamespaceURI();
+        return name.getLocalPart().equals(reader.getLocalName())
+                && name.getNamespaceURI().equals(namespace == null ? XMLConstants.NULL_NS_URI : namespace);
     }
 }
@@ -41,7 +41,12 @@ public enum Algorithm {
     /**
      * "Larrson-Sadakane qsufsort algorithm
      */
-    QSUFSORT("Larrson-Sadakane qsufsort algorithm");
+    QSUFSORT("Larrson-Sadakane qsufsort algorithm"),
+
+    /**
+     * Manber-Myers prefix doubling, parallelized; LCP arrays get computed in parallel too.
+     */
+    PARALLEL_PREFIX_DOUBLING("Parallel prefix doubling");
 
     /**
      * Full name of the algorithm.
@@ -94,6 +99,8 @@ public enum Algorithm {
             case DEEP_SHALLOW:
                 return new DeepShallow();
 
+            case PARALLEL_PREFIX_DOUBLING:
+                return new ParallelPrefixDoubling();
         }
 
         throw new RuntimeException("No algorithm for constant: " + this);
@@ -120,6 +127,19 @@ public enum Algorithm {
         }
     }
 
+    /**
+     * Computes the LCP array for a suffix array built by this algorithm, in parallel for
+     * parallel algorithms.
+     *
+     * @see SuffixArrays#computeLCP(int[], int, int, int[])
+     * @see SuffixArrays#computeLCPParallel(int[], int, int, int[])
+     */
+    public int[] computeLCP(int[] input, int start, int length, int[] sa) {
+        return (this == PARALLEL_PREFIX_DOUBLING
+            ? SuffixArrays.computeLCPParallel(input, start, length, sa)
+            : SuffixArrays.computeLCP(input, start, length, sa));
+    }
+
     /**
      * Return the full name of the algorithm.
      */
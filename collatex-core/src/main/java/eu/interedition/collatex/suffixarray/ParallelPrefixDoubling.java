@@ -0,0 +1,110 @@
+package eu.interedition.collatex.suffixarray;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Prefix doubling suffix array construction after <tt>U. Manber and G. Myers. Suffix
+ * arrays: a new method for on-line string searches. SIAM Journal on Computing, 22(5),
+ * 1993</tt>, with every doubling step running in parallel on the common fork/join pool.
+ * <p>
+ * In each step, suffixes are ordered by the ranks of their first <code>h</code> symbols
+ * and the ranks of the <code>h</code> symbols following, by means of two parallel sorts of
+ * packed <code>long</code> keys; new ranks are assigned by a parallel prefix sum over
+ * the group boundaries. Doubling stops as soon as all suffixes are ranked differently,
+ * so the number of steps is logarithmic in the length of the longest repeated
+ * subsequence. Though doing more work than the linear time algorithms, this builder
+ * scales with the number of available processors and pays off for very long inputs.
+ * <p>
+ * The algorithm accepts arbitrary input symbols and needs no extra cells after
+ * <code>start + length</code>.
+ */
+public final class ParallelPrefixDoubling implements ISuffixArrayBuilder {
+    /**
+     * Inputs shorter than this are sorted sequentially.
+     */
+    private static final int MIN_PARALLEL_LENGTH = 1 << 13;
+
+    @Override
+    public int[] buildSuffixArray(int[] input, int start, int length) {
+        final int[] sa = new int[length];
+        if (length == 0) {
+            return sa;
+        }
+        final boolean parallel = length >= MIN_PARALLEL_LENGTH;
+
+        // initial ranks: the dense order of the input symbols
+        final long[] keys = new long[length];
+        for (int i = 0; i < length; i++) {
+            keys[i] = ((long) input[start + i] << 32) | i;
+        }
+        sort(keys, parallel);
+        int[] rank = new int[length];
+        int[] groupStart = new int[length];
+        for (int i = 0; i < length; i++) {
+            sa[i] = (int) keys[i];
+            groupStart[i] = (i > 0 && (int) (keys[i] >> 32) == (int) (keys[i - 1] >> 32)) ? 0 : 1;
+        }
+        int groups = assignRanks(sa, groupStart, rank, parallel);
+
+        final long[] secondary = new long[length];
+        int[] spareRank = new int[length];
+        for (int h = 1; groups < length; h <<= 1) {
+            final int[] currentRank = rank;
+            final int offset = h;
+
+            // order by the rank of the following h symbols (0 for suffixes running out of input) ...
+            range(length, parallel).forEach(i -> secondary[i] = ((long) (i + offset < length ? currentRank[i + offset] + 1 : 0) << 32) | i);
+            sort(secondary, parallel);
+            // ... then by the rank of the first h symbols, keeping the previous order for equal ranks
+            range(length, parallel).forEach(k -> keys[k] = ((long) currentRank[(int) secondary[k]] << 32) | k);
+            sort(keys, parallel);
+
+            final int[] groupFlags = groupStart;
+            range(length, parallel).forEach(k -> sa[k] = (int) secondary[(int) keys[k]]);
+            range(length, parallel).forEach(k -> groupFlags[k] = (k == 0
+                    || currentRank[sa[k]] != currentRank[sa[k - 1]]
+                    || secondRank(currentRank, sa[k], offset, length) != secondRank(currentRank, sa[k - 1], offset, length)) ? 1 : 0);
+
+            rank = spareRank;
+            spareRank = currentRank;
+            groups = assignRanks(sa, groupFlags, rank, parallel);
+        }
+        return sa;
+    }
+
+    private static int secondRank(int[] rank, int suffix, int offset, int length) {
+        return (suffix + offset < length ? rank[suffix + offset] : -1);
+    }
+
+    /**
+     * Turns group boundary flags into ranks via a prefix sum.
+     *
+     * @return the number of distinct ranks
+     */
+    private static int assignRanks(int[] sa, int[] groupFlags, int[] rank, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelPrefix(groupFlags, Integer::sum);
+        } else {
+            for (int i = 1; i < groupFlags.length; i++) {
+                groupFlags[i] += groupFlags[i - 1];
+            }
+        }
+        range(sa.length, parallel).forEach(k -> rank[sa[k]] = groupFlags[k] - 1);
+        return groupFlags[groupFlags.length - 1];
+    }
+
+    private static void sort(long[] keys, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSort(keys);
+        } else {
+            Arrays.sort(keys);
+        }
+    }
+
+    private static IntStream range(int length, boolean parallel) {
+        final IntStream range = IntStream.range(0, length);
+        return (parallel ? range.parallel() : range);
+    }
+}
@@ -3,6 +3,7 @@ package eu.interedition.collatex.suffixarray;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /*
  * TODO: ultimately, this class should be "intelligent" enough to pick the best
@@ -34,6 +35,11 @@ public final class SuffixArrays {
      */
     final static int MAX_EXTRA_TRAILING_SPACE = DeepShallow.OVERSHOOT;
 
+    /**
+     * Minimum number of suffixes per task when computing LCP arrays in parallel.
+     */
+    private final static int LCP_CHUNK_SIZE = 1 << 14;
+
     /*
      *
 	 */
@@ -104,12 +110,26 @@ public final class SuffixArrays {
      * comparator.
      */
     public static <T> SuffixData createWithLCP(T[] input, ISuffixArrayBuilder builder, Comparator<? super T> comparator) {
-        final GenericArrayAdapter adapter = new GenericArrayAdapter(builder, comparator);
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(builder, comparator);
         final int[] sa = adapter.buildSuffixArray(input);
         final int[] lcp = computeLCP(adapter.input, 0, input.length, sa);
         return new SuffixData(sa, lcp);
     }
 
+    /**
+     * Create a suffix array and an LCP array for a given generic array, using the given
+     * algorithm and T object comparator. The LCP array gets computed the way the
+     * algorithm prescribes.
+     *
+     * @see Algorithm#computeLCP(int[], int, int, int[])
+     */
+    public static <T> SuffixData createWithLCP(T[] input, Algorithm algorithm, Comparator<? super T> comparator) {
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(algorithm.getDecoratedInstance(), comparator);
+        final int[] sa = adapter.buildSuffixArray(input);
+        final int[] lcp = algorithm.computeLCP(adapter.input, 0, input.length, sa);
+        return new SuffixData(sa, lcp);
+    }
+
     /**
      * Calculate longest prefix (LCP) array for an existing suffix array and input. Index
      * <code>i</code> of the returned array indicates the length of the common prefix
@@ -146,6 +166,47 @@ public final class SuffixArrays {
         return lcp;
     }
 
+    /**
+     * Calculate the same LCP array as {@link #computeLCP(int[], int, int, int[])}, in
+     * parallel on the common fork/join pool.
+     * <p>
+     * The algorithm first derives the permuted LCP array in text order, via the
+     * <code>Φ</code> array pointing from every suffix to its predecessor in the suffix
+     * array, as described in <tt>J. Kärkkäinen, G. Manzini, and S. J. Puglisi. Permuted
+     * longest-common-prefix array. In Proc. 20th Symposium on Combinatorial Pattern
+     * Matching (CPM ’09), pages 181–192. Springer-Verlag LNCS n. 5577, 2009</tt>. The text
+     * is split into chunks, each of which is scanned independently; within a chunk, the
+     * usual amortization argument applies, so the overall work stays linear plus the
+     * restart cost of every chunk.
+     */
+    public static int[] computeLCPParallel(int[] input, final int start, final int length,
+                                           int[] sa) {
+        final int[] plcp = new int[length];
+        IntStream.range(0, length).parallel().forEach(k -> plcp[sa[k]] = (k == 0 ? -1 : sa[k - 1]));
+
+        final int chunkSize = Math.max(LCP_CHUNK_SIZE, length / (4 * Runtime.getRuntime().availableProcessors()) + 1);
+        IntStream.range(0, (length + chunkSize - 1) / chunkSize).parallel().forEach(chunk -> {
+            int h = 0;
+            for (int i = chunk * chunkSize, end = Math.min(length, i + chunkSize); i < end; i++) {
+                final int j = plcp[i];
+                if (j < 0) {
+                    h = 0;
+                    continue;
+                }
+                while (i + h < length && j + h < length
+                    && input[start + i + h] == input[start + j + h]) {
+                    h++;
+                }
+                plcp[i] = h;
+                if (h > 0) h--;
+            }
+        });
+
+        final int[] lcp = new int[length];
+        IntStream.range(0, length).parallel().forEach(k -> lcp[k] = plcp[sa[k]]);
+        return lcp;
+    }
+
     /**
      * @return Return a new instance of the default algorithm for use in other methods. At
      * the moment {@link QSufSort} is used.
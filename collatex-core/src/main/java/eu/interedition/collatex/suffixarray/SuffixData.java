@@ -1,26 +1,214 @@
 package eu.interedition.collatex.suffixarray;
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
 /**
  * A holder structure for a suffix array and longest common prefix array of
  * a given sequence.
+ * <p>
+ * Besides plain <code>int</code> arrays, the structure can hold both arrays in a buffer,
+ * e.g. one mapped from a file (see {@link #of(IntBuffer, int, int)}), or in a compact
+ * representation (see {@link #compact()}): suffix array entries are bit-packed, using
+ * as many bits per entry as needed to address the sequence, and LCP values are stored
+ * in single bytes, with the few values not fitting into a byte kept in an overflow table.
+ * Use {@link #suffix(int)} and {@link #lcp(int)} to access entries independently of the
+ * representation.
  *
  * @author Michał Nowak (Carrot Search)
  * @author Dawid Weiss (Carrot Search)
  */
 public final class SuffixData {
+    /**
+     * Byte value marking LCP values stored in the overflow table.
+     */
+    private static final int LCP_OVERFLOW = 0xff;
+
     private final int[] suffixArray;
     private final int[] lcp;
 
+    private final IntBuffer buffer;
+    private final int bufferIndex;
+
+    private final int length;
+    private final int bitsPerSuffix;
+    private final long[] packedSuffixArray;
+    private final byte[] byteLCP;
+    private final int[] overflowIndices;
+    private final int[] overflowValues;
+
     SuffixData(int[] sa, int[] lcp) {
         this.suffixArray = sa;
         this.lcp = lcp;
+        this.buffer = null;
+        this.bufferIndex = 0;
+        this.length = Math.min(sa.length, lcp.length);
+        this.bitsPerSuffix = 0;
+        this.packedSuffixArray = null;
+        this.byteLCP = null;
+        this.overflowIndices = null;
+        this.overflowValues = null;
+    }
+
+    private SuffixData(int length, int bitsPerSuffix, long[] packedSuffixArray, byte[] byteLCP, int[] overflowIndices, int[] overflowValues) {
+        this.suffixArray = null;
+        this.lcp = null;
+        this.buffer = null;
+        this.bufferIndex = 0;
+        this.length = length;
+        this.bitsPerSuffix = bitsPerSuffix;
+        this.packedSuffixArray = packedSuffixArray;
+        this.byteLCP = byteLCP;
+        this.overflowIndices = overflowIndices;
+        this.overflowValues = overflowValues;
+    }
+
+    private SuffixData(IntBuffer buffer, int index, int length) {
+        this.suffixArray = null;
+        this.lcp = null;
+        this.buffer = buffer;
+        this.bufferIndex = index;
+        this.length = length;
+        this.bitsPerSuffix = 0;
+        this.packedSuffixArray = null;
+        this.byteLCP = null;
+        this.overflowIndices = null;
+        this.overflowValues = null;
+    }
+
+    /**
+     * Wraps the given arrays, for traversals accepting suffix data.
+     */
+    public static SuffixData of(int[] sa, int[] lcp) {
+        return new SuffixData(sa, lcp);
+    }
+
+    /**
+     * Wraps a suffix array and an LCP array of the given length, stored one after the other in the given buffer,
+     * starting at the given index. Entries are read from the buffer on access, so its contents must not change.
+     */
+    public static SuffixData of(IntBuffer buffer, int index, int length) {
+        if (index < 0 || length < 0 || index + 2L * length > buffer.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new SuffixData(buffer, index, length);
     }
 
+    /**
+     * @return the suffix array; materialized anew on every call if this data is compact or held in a buffer
+     */
     public int[] getSuffixArray() {
-        return suffixArray;
+        if (suffixArray != null) {
+            return suffixArray;
+        }
+        final int[] sa = new int[length];
+        for (int i = 0; i < length; i++) {
+            sa[i] = suffix(i);
+        }
+        return sa;
     }
 
+    /**
+     * @return the LCP array; materialized anew on every call if this data is compact or held in a buffer
+     */
     public int[] getLCP() {
-        return lcp;
+        if (lcp != null) {
+            return lcp;
+        }
+        final int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = lcp(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of suffixes
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * @return the start of the <code>i</code>-th suffix in lexicographic order
+     */
+    public int suffix(int i) {
+        if (suffixArray != null) {
+            return suffixArray[i];
+        }
+        if (buffer != null) {
+            return buffer.get(bufferIndex + i);
+        }
+        final long bit = (long) i * bitsPerSuffix;
+        final int word = (int) (bit >>> 6);
+        final int offset = (int) (bit & 63);
+        long value = packedSuffixArray[word] >>> offset;
+        if (offset + bitsPerSuffix > 64) {
+            value |= packedSuffixArray[word + 1] << (64 - offset);
+        }
+        return (int) (value & ((1L << bitsPerSuffix) - 1));
+    }
+
+    /**
+     * @return the length of the common prefix of suffix <code>i</code> and <code>i-1</code>; <code>-1</code> for
+     * the 0-th suffix
+     */
+    public int lcp(int i) {
+        if (lcp != null) {
+            return lcp[i];
+        }
+        if (buffer != null) {
+            return buffer.get(bufferIndex + length + i);
+        }
+        final int value = byteLCP[i] & 0xff;
+        return (value == LCP_OVERFLOW ? overflowValues[Arrays.binarySearch(overflowIndices, i)] : value);
+    }
+
+    public boolean isCompact() {
+        return packedSuffixArray != null;
+    }
+
+    /**
+     * @return a compact representation of this data, which takes <code>log2(n) + 8</code> bits per suffix plus
+     * 8 bytes per LCP value of 255 or more (or negative)
+     */
+    public SuffixData compact() {
+        if (isCompact()) {
+            return this;
+        }
+        final int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, length - 1)));
+        final long[] packed = new long[(int) (((long) length * bits + 63) >>> 6)];
+        for (int i = 0; i < length; i++) {
+            final long value = suffix(i);
+            final long bit = (long) i * bits;
+            final int word = (int) (bit >>> 6);
+            final int offset = (int) (bit & 63);
+            packed[word] |= value << offset;
+            if (offset + bits > 64) {
+                packed[word + 1] |= value >>> (64 - offset);
+            }
+        }
+
+        final byte[] bytes = new byte[length];
+        int overflows = 0;
+        for (int i = 0; i < length; i++) {
+            final int value = lcp(i);
+            if (value < 0 || value >= LCP_OVERFLOW) {
+                overflows++;
+            }
+        }
+        final int[] indices = new int[overflows];
+        final int[] values = new int[overflows];
+        for (int i = 0, o = 0; i < length; i++) {
+            final int value = lcp(i);
+            if (value < 0 || value >= LCP_OVERFLOW) {
+                bytes[i] = (byte) LCP_OVERFLOW;
+                indices[o] = i;
+                values[o++] = value;
+            } else {
+                bytes[i] = (byte) value;
+            }
+        }
+        return new SuffixData(length, bits, packed, bytes, indices, values);
     }
 }
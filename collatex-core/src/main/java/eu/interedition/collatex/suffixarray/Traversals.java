@@ -78,6 +78,18 @@ public final class Traversals {
     public static void postorder(final int sequenceLength, int[] sa, int[] lcp,
                                  IPostOrderVisitor visitor) {
         assert sequenceLength <= sa.length && sequenceLength <= lcp.length : "Input sequence length larger than suffix array or the LCP.";
+        postorder(sequenceLength, SuffixData.of(sa, lcp), visitor);
+    }
+
+    /**
+     * Post-order traversal of all branching nodes in a suffix tree, emulated using the
+     * (possibly compact) suffix and LCP arrays of the given suffix data.
+     *
+     * @see #postorder(int, int[], int[], IPostOrderVisitor)
+     */
+    public static void postorder(final int sequenceLength, SuffixData suffixData,
+                                 IPostOrderVisitor visitor) {
+        assert sequenceLength <= suffixData.size() : "Input sequence length larger than suffix array or the LCP.";
 
         final Deque<Integer> stack = new ArrayDeque<>();
 
@@ -88,7 +100,7 @@ public final class Traversals {
         // Process every leaf.
         int top_h;
         for (int i = 0; i <= sequenceLength; i++) {
-            final int h = (sequenceLength == i ? -1 : lcp[i]);
+            final int h = (sequenceLength == i ? -1 : suffixData.lcp(i));
 
             while (true) {
                 top_h = stack.peek();
@@ -99,7 +111,7 @@ public final class Traversals {
                 final int top_i = stack.pop();
                 final boolean leaf = (top_i < 0);
 
-                visitor.visitNode(sa[leaf ? -(top_i + 1) : top_i], top_h, leaf);
+                visitor.visitNode(suffixData.suffix(leaf ? -(top_i + 1) : top_i), top_h, leaf);
             }
 
             if (top_h < h) {
@@ -110,7 +122,7 @@ public final class Traversals {
             if (i < sequenceLength) {
                 // Mark leaf nodes in the stack.
                 stack.push(-(i + 1));
-                stack.push(sequenceLength - sa[i]);
+                stack.push(sequenceLength - suffixData.suffix(i));
             }
         }
     }
@@ -136,6 +148,19 @@ public final class Traversals {
     public static <E> void postorder(final int sequenceLength, int[] sa, int[] lcp,
                                      E epsilon, IPostOrderComputingVisitor<E> visitor) {
         assert sequenceLength <= sa.length && sequenceLength <= lcp.length : "Input sequence length larger than suffix array or the LCP.";
+        postorder(sequenceLength, SuffixData.of(sa, lcp), epsilon, visitor);
+    }
+
+    /**
+     * Post-order traversal of all branching nodes in a suffix tree, computing aggregate
+     * values and emulated using the (possibly compact) suffix and LCP arrays of the given
+     * suffix data.
+     *
+     * @see #postorder(int, int[], int[], Object, IPostOrderComputingVisitor)
+     */
+    public static <E> void postorder(final int sequenceLength, SuffixData suffixData,
+                                     E epsilon, IPostOrderComputingVisitor<E> visitor) {
+        assert sequenceLength <= suffixData.size() : "Input sequence length larger than suffix array or the LCP.";
 
         final Deque<Integer> stack = new ArrayDeque<>();
         final ArrayList<E> values = new ArrayList<>();
@@ -149,7 +174,7 @@ public final class Traversals {
         int top_h;
         E top_c;
         for (int i = 0; i <= sequenceLength; i++) {
-            final int h = (sequenceLength == i ? -1 : lcp[i]);
+            final int h = (sequenceLength == i ? -1 : suffixData.lcp(i));
             E ci = epsilon;
 
             while (true) {
@@ -163,7 +188,7 @@ public final class Traversals {
                 final boolean leaf = (top_i < 0);
 
                 ci = visitor.aggregate(top_c, ci);
-                visitor.visitNode(sa[leaf ? -(top_i + 1) : top_i], top_h, leaf, ci);
+                visitor.visitNode(suffixData.suffix(leaf ? -(top_i + 1) : top_i), top_h, leaf, ci);
 
                 top_c = values.get(values.size() - 1);
             }
@@ -181,8 +206,8 @@ public final class Traversals {
             if (i < sequenceLength) {
                 // Mark leaf nodes in the stack.
                 stack.push(-(i + 1));
-                stack.push(sequenceLength - sa[i]);
-                values.add(visitor.leafValue(i, sa[i], sequenceLength - sa[i]));
+                stack.push(sequenceLength - suffixData.suffix(i));
+                values.add(visitor.leafValue(i, suffixData.suffix(i), sequenceLength - suffixData.suffix(i)));
             }
         }
     }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renders DOT graph descriptions via an external GraphViz <code>dot</code> process.
+ * <p>
+ * At most <code>maxParallelRenders</code> processes run at the same time; further requests wait in a bounded queue
+ * and are rejected with a {@link RejectedExecutionException} once that queue is full, so callers can turn an
+ * overloaded renderer into a "service unavailable" response instead of piling up work. Processes exceeding the
+ * configured timeout are killed. Rendered results are cached by the SHA-256 hash of their DOT input, and
+ * concurrent requests for the same graph share one rendering.
+ */
+public class GraphvizRenderer implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(GraphvizRenderer.class.getName());
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final String[] command;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor renderThreads;
+    private final ExecutorService processThreads;
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> cache;
+
+    public GraphvizRenderer(String dotPath, int maxParallelRenders, long timeout, TimeUnit timeoutUnit) {
+        this(dotPath, maxParallelRenders, DEFAULT_QUEUE_CAPACITY, timeout, timeoutUnit, DEFAULT_CACHE_SIZE);
+    }
+
+    public GraphvizRenderer(String dotPath, int maxParallelRenders, int queueCapacity, long timeout, TimeUnit timeoutUnit, int cacheSize) {
+        // every running process needs its stdin fed, its stdout and stderr drained and its exit awaited in parallel
+        this(dotPath, maxParallelRenders, queueCapacity, timeout, timeoutUnit, cacheSize,
+            Executors.newFixedThreadPool(4 * Math.max(1, maxParallelRenders), threadFactory("dot-io-")));
+    }
+
+    /**
+     * @param processThreads runs the I/O of <code>dot</code> processes, i.e. four blocking tasks per running process;
+     *                       shut down when this renderer is closed
+     * @see VirtualThreads#newThreadPerTaskExecutor(String)
+     */
+    public GraphvizRenderer(String dotPath, int maxParallelRenders, int queueCapacity, long timeout, TimeUnit timeoutUnit, int cacheSize, ExecutorService processThreads) {
+        if (maxParallelRenders < 1) {
+            throw new IllegalArgumentException("maxParallelRenders < 1");
+        }
+        this.command = new String[] { dotPath, "-Grankdir=LR", "-Gid=VariantGraph", "-Tsvg" };
+        this.timeoutMillis = timeoutUnit.toMillis(timeout);
+        this.renderThreads = new ThreadPoolExecutor(
+            maxParallelRenders, maxParallelRenders,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            threadFactory("dot-render-"),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.processThreads = processThreads;
+        this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Renders the given graph description.
+     *
+     * @return the rendered SVG; completes exceptionally with a {@link TimeoutException} when the <code>dot</code>
+     * process had to be killed
+     * @throws RejectedExecutionException when the render queue is saturated
+     */
+    public CompletableFuture<byte[]> render(String dot) throws RejectedExecutionException {
+        final String key = hash(dot);
+        final byte[] cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final CompletableFuture<byte[]> existing = pending.putIfAbsent(key, result);
+        if (existing != null) {
+            return existing;
+        }
+        // a rendering of the same graph may have completed since the cache lookup; it is cached before it stops pending
+        final byte[] rendered;
+        synchronized (cache) {
+            rendered = cache.get(key);
+        }
+        if (rendered != null) {
+            pending.remove(key, result);
+            result.complete(rendered);
+            return result;
+        }
+        try {
+            renderThreads.execute(() -> {
+                try {
+                    final byte[] svg = execute(dot);
+                    synchronized (cache) {
+                        cache.put(key, svg);
+                    }
+                    result.complete(svg);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    pending.remove(key, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key, result);
+            result.completeExceptionally(e);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of renderings waiting for a free <code>dot</code> process
+     */
+    public int queued() {
+        return renderThreads.getQueue().size();
+    }
+
+    /**
+     * @return the number of <code>dot</code> processes currently running
+     */
+    public int active() {
+        return renderThreads.getActiveCount();
+    }
+
+    private byte[] execute(String dot) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final Process process = new ProcessBuilder(command).start();
+        try (TaskScope scope = new TaskScope(processThreads)) {
+            try {
+                final Future<byte[]> out = scope.fork(() -> drain(process.getInputStream()));
+                final Future<byte[]> errors = scope.fork(() -> drain(process.getErrorStream()));
+                scope.fork(() -> {
+                    try (OutputStream in = process.getOutputStream()) {
+                        in.write(dot.getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+                final Future<Integer> exitValue = scope.fork(process::waitFor);
+
+                if (!scope.join(timeoutMillis)) {
+                    throw new TimeoutException("GraphViz did not finish rendering within " + timeoutMillis + " ms");
+                }
+                if (exitValue.get() != 0) {
+                    throw new IllegalStateException(new String(errors.get(), StandardCharsets.UTF_8));
+                }
+                return out.get();
+            } finally {
+                // unblocks the subtasks still reading from or writing to the process
+                if (process.isAlive()) {
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.log(Level.FINE, "Killing GraphViz process {0}", process);
+                    }
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups the subtasks of a rendering, so that the first failing subtask or a timeout cancels its siblings, and no
+     * subtask outlives the scope.
+     */
+    private static class TaskScope implements AutoCloseable {
+        private final CompletionService<Object> completionService;
+        private final List<Future<?>> subtasks = new ArrayList<>();
+
+        TaskScope(ExecutorService executor) {
+            this.completionService = new ExecutorCompletionService<>(executor);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> Future<T> fork(Callable<T> subtask) {
+            final Future<T> future = (Future<T>) completionService.submit((Callable<Object>) subtask);
+            subtasks.add(future);
+            return future;
+        }
+
+        /**
+         * Waits for all subtasks to complete.
+         *
+         * @return <code>false</code> if the subtasks did not complete in time
+         * @throws ExecutionException the failure of the first failing subtask
+         */
+        boolean join(long timeoutMillis) throws InterruptedException, ExecutionException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (int i = 0; i < subtasks.size(); i++) {
+                final Future<Object> completed = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (completed == null) {
+                    return false;
+                }
+                completed.get();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (Future<?> subtask : subtasks) {
+                subtask.cancel(true);
+            }
+        }
+    }
+
+    private static byte[] drain(InputStream stream) throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            final byte[] chunk = new byte[8192];
+            int len;
+            while ((len = in.read(chunk)) >= 0) {
+                buf.write(chunk, 0, len);
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    private static String hash(String dot) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(dot.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        final AtomicLong counter = new AtomicLong();
+        return r -> {
+            final Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Unwraps the cause of a failed rendering, as reported by the futures returned from {@link #render(String)}.
+     */
+    public static Throwable cause(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    @Override
+    public void close() {
+        renderThreads.shutdownNow();
+        processThreads.shutdownNow();
+    }
+}
@@ -19,6 +19,7 @@
 
 package eu.interedition.collatex.util;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
@@ -64,9 +65,10 @@ public class GreedyStringTilingAlgorithm extends CollationAlgorithm.Base {
     public void collate(VariantGraph graph, Iterable<Token> witness) {
         final VariantGraph.Vertex[][] vertices = VariantGraphRanking.of(graph).asArray();
         final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
+        cancellation.check();
 
         final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
-        for (Match match : match(vertices, tokens, equality, minimumTileLength)) {
+        for (Match match : match(vertices, tokens, equality, minimumTileLength, cancellation)) {
             final SortedSet<VertexMatch.WithTokenIndex> phrase = new TreeSet<>();
             for (int mc = 0, ml = match.length; mc < ml; mc++) {
                 final int rank = match.left + mc;
@@ -79,6 +81,16 @@ public class GreedyStringTilingAlgorithm extends CollationAlgorithm.Base {
     }
 
     public static <A, B> SortedSet<Match> match(A[] left, B[] right, Equality<A, B> equality, int minimumTileLength) {
+        return match(left, right, equality, minimumTileLength, Cancellation.NONE);
+    }
+
+    /**
+     * Like {@link #match(Object[], Object[], Equality, int)}, polling the given cancellation once per element of
+     * <code>right</code> in each iteration.
+     *
+     * @throws java.util.concurrent.CancellationException if cancelled
+     */
+    public static <A, B> SortedSet<Match> match(A[] left, B[] right, Equality<A, B> equality, int minimumTileLength, Cancellation cancellation) {
         final boolean[] markedLeft = new boolean[left.length];
         final boolean[] markedRight = new boolean[right.length];
 
@@ -92,6 +104,7 @@ public class GreedyStringTilingAlgorithm extends CollationAlgorithm.Base {
         do {
             maxMatchLength = minimumTileLength;
             for (int rc = 0; rc < right.length; rc++) {
+                cancellation.check();
                 for (int lc = 0; lc < left.length; lc++) {
                     int matchLength = 0;
                     for (int tc = 0;
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import java.util.Arrays;
+
+/**
+ * Selects order-consistent anchors, e.g. unique matches between a variant graph and a witness: given candidates
+ * ordered by one coordinate, the longest subsequence in which the other coordinate strictly increases.
+ */
+public class LongestIncreasingSubsequence {
+
+    /**
+     * Computes the longest strictly increasing subsequence via patience sorting in <code>O(n log n)</code>.
+     *
+     * @return the indices of the subsequence's elements in <code>values</code>, in ascending order
+     */
+    public static int[] of(int[] values) {
+        // tails[k]: index of the smallest value ending an increasing subsequence of length k + 1
+        final int[] tails = new int[values.length];
+        final int[] tailValues = new int[values.length];
+        final int[] predecessors = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            int k = Arrays.binarySearch(tailValues, 0, length, values[i]);
+            if (k < 0) {
+                k = -(k + 1);
+            }
+            tails[k] = i;
+            tailValues[k] = values[i];
+            predecessors[i] = (k > 0 ? tails[k - 1] : -1);
+            if (k == length) {
+                length++;
+            }
+        }
+
+        final int[] subsequence = new int[length];
+        for (int i = length - 1, element = (length > 0 ? tails[length - 1] : -1); i >= 0; i--, element = predecessors[element]) {
+            subsequence[i] = element;
+        }
+        return subsequence;
+    }
+}
@@ -35,6 +35,7 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -52,6 +53,9 @@ public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>,
     }
 
     public static VariantGraphRanking of(VariantGraph graph) {
+        if (graph instanceof VariantGraph.Frozen) {
+            return ((VariantGraph.Frozen) graph).ranking();
+        }
         final VariantGraphRanking ranking = new VariantGraphRanking(graph);
         for (VariantGraph.Vertex v : graph.vertices()) {
             int rank = -1;
@@ -65,6 +69,21 @@ public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>,
         return ranking;
     }
 
+    /**
+     * Ranks the vertices of a graph by given ranks, e.g. ones precomputed by a {@link VariantGraph.Frozen frozen graph};
+     * the vertices of each rank are exposed as unmodifiable sets.
+     */
+    public static VariantGraphRanking of(VariantGraph graph, ToIntFunction<Vertex> ranks) {
+        final VariantGraphRanking ranking = new VariantGraphRanking(graph);
+        for (VariantGraph.Vertex v : graph.vertices()) {
+            final int rank = ranks.applyAsInt(v);
+            ranking.byVertex.put(v, rank);
+            ranking.byRank.computeIfAbsent(rank, r -> new HashSet<>()).add(v);
+        }
+        ranking.byRank.replaceAll((rank, vertices) -> Collections.unmodifiableSet(vertices));
+        return ranking;
+    }
+
     public static VariantGraphRanking ofOnlyCertainVertices(VariantGraph graph, Set<VariantGraph.Vertex> vertices) {
         final VariantGraphRanking ranking = new VariantGraphRanking(graph);
         for (VariantGraph.Vertex v : graph.vertices()) {
@@ -99,7 +118,7 @@ public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>,
 
     @Override
     public Iterator<Set<VariantGraph.Vertex>> iterator() {
-        return byRank.values().iterator();
+        return Collections.unmodifiableCollection(byRank.values()).iterator();
     }
 
     public List<SortedMap<Witness, Set<Token>>> asTable() {
@@ -24,6 +24,7 @@ import eu.interedition.collatex.dekker.InspectableCollationAlgorithm;
 import eu.interedition.collatex.dekker.Match;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleVariantGraphSerializer;
 import eu.interedition.collatex.simple.SimpleWitness;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
@@ -31,6 +32,8 @@ import eu.interedition.collatex.util.VariantGraphTraversal;
 import org.junit.Assert;
 import org.junit.Before;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -183,6 +186,36 @@ public abstract class AbstractTest {
                 .collect(Collectors.joining("|")));
     }
 
+    protected static String toCsv(VariantGraph graph) throws IOException {
+        final StringWriter csv = new StringWriter();
+        new SimpleVariantGraphSerializer(graph).toCsv(csv);
+        return csv.toString();
+    }
+
+    /**
+     * Describes vertices, edges and transpositions by the positions of tokens in their witnesses, independently of
+     * vertex identities and the iteration order of the graph's hash-based collections.
+     */
+    protected static SortedSet<String> describe(VariantGraph graph) {
+        final SortedSet<String> description = new TreeSet<>();
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            description.add(describe(vertex));
+            vertex.outgoing().forEach((target, witnesses) -> description.add(describe(vertex) + " -> " + describe(target) + " "
+                + witnesses.stream().map(Witness::getSigil).sorted().collect(Collectors.toList())));
+        }
+        for (Set<VariantGraph.Vertex> transposition : graph.transpositions()) {
+            description.add(transposition.stream().map(AbstractTest::describe).sorted().collect(Collectors.joining(" ~ ")));
+        }
+        return description;
+    }
+
+    private static String describe(VariantGraph.Vertex vertex) {
+        return vertex.tokens().stream()
+                .map(t -> t.getWitness().getSigil() + ":" + ((SimpleWitness) t.getWitness()).getTokens().indexOf(t))
+                .sorted()
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
     protected void assertPhraseMatches(String... expectedPhrases) {
         List<List<Match>> phraseMatches = ((InspectableCollationAlgorithm) collationAlgorithm).getPhraseMatches();
         int i = 0;
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex;
+
+import eu.interedition.collatex.dekker.DekkerAlgorithm;
+import eu.interedition.collatex.dekker.editgraphaligner.EditGraphAligner;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschAlgorithm;
+import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschScorer;
+import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.GreedyStringTilingAlgorithm;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTest extends AbstractTest {
+
+    @Test
+    public void deadline() {
+        assertFalse(Cancellation.NONE.isCancelled());
+        assertFalse(Cancellation.withTimeout(1, TimeUnit.HOURS).isCancelled());
+        assertTrue(Cancellation.withTimeout(0, TimeUnit.SECONDS).isCancelled());
+
+        final Cancellation cancellation = Cancellation.create();
+        assertFalse(cancellation.isCancelled());
+        cancellation.cancel();
+        assertTrue(cancellation.isCancelled());
+    }
+
+    @Test
+    public void cancelledCollations() {
+        for (CollationAlgorithm algorithm : Arrays.asList(
+            new DekkerAlgorithm(),
+            new EditGraphAligner(),
+            CollationAlgorithmFactory.needlemanWunsch(new EqualityTokenComparator()),
+            CollationAlgorithmFactory.medite(new EqualityTokenComparator(), SortedSet::size),
+            CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1))) {
+            final Cancellation cancellation = Cancellation.create();
+            cancellation.cancel();
+            try {
+                algorithm.collate(new VariantGraph(), Arrays.asList(createWitnesses("a b c", "a c b")), cancellation);
+                fail(algorithm.getClass().getName());
+            } catch (CancellationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void cancelDuringCollation() {
+        final DekkerAlgorithm algorithm = new DekkerAlgorithm();
+        final Cancellation cancellation = Cancellation.create();
+        algorithm.setInstrumentation(event -> {
+            if (event.phase.equals("matches")) {
+                cancellation.cancel();
+            }
+        });
+        final SimpleWitness[] w = createWitnesses("the black cat", "the white cat", "the black and white cat");
+        final VariantGraph graph = new VariantGraph();
+        try {
+            algorithm.collate(graph, Arrays.asList(w), cancellation);
+            fail();
+        } catch (CancellationException e) {
+            // the state of the cancelled collation has been dropped
+            assertNull(algorithm.tokenIndex);
+        }
+        assertEquals(1, graph.witnesses().size());
+
+        // the algorithm can be reused
+        algorithm.setInstrumentation(CollationInstrumentation.NONE);
+        algorithm.collate(new VariantGraph(), Arrays.asList(w), Cancellation.create());
+    }
+
+    @Test
+    public void cancelWhileFillingTable() {
+        final Cancellation cancellation = Cancellation.create();
+        final Integer[] sequence = { 1, 2, 3, 4, 5 };
+        try {
+            NeedlemanWunschAlgorithm.align(sequence, sequence, new NeedlemanWunschScorer<Integer, Integer>() {
+                @Override
+                public float score(Integer a, Integer b) {
+                    cancellation.cancel();
+                    return (a.equals(b) ? 1 : -1);
+                }
+
+                @Override
+                public float gap() {
+                    return -1;
+                }
+            }, cancellation);
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelWhileTiling() {
+        final Cancellation cancellation = Cancellation.create();
+        final Integer[] sequence = { 1, 2, 3, 4, 5 };
+        try {
+            GreedyStringTilingAlgorithm.match(sequence, sequence, (a, b) -> {
+                cancellation.cancel();
+                return a.equals(b);
+            }, 1, cancellation);
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex;
+
+import eu.interedition.collatex.dekker.DekkerAlgorithm;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CollationInstrumentationTest extends AbstractTest {
+
+    @Test
+    public void aggregatesPhases() {
+        final AggregatingInstrumentation instrumentation = new AggregatingInstrumentation();
+        final DekkerAlgorithm algorithm = new DekkerAlgorithm();
+        algorithm.setInstrumentation(instrumentation);
+        setCollationAlgorithm(algorithm);
+        final SimpleWitness[] w = createWitnesses("the black cat", "the white cat", "the black and white cat");
+        collate(w);
+
+        final SortedMap<String, AggregatingInstrumentation.Statistics> phases = instrumentation.getPhases();
+        assertEquals(1, phases.get("token-index").getCount());
+        assertEquals(3, phases.get("witness").getCount());
+        assertEquals(3, phases.get("merge").getCount());
+        assertEquals(2, phases.get("matches").getCount());
+        assertEquals(2, phases.get("transpositions").getCount());
+        assertEquals(14, (long) phases.get("token-index").getSizes().get("tokens"));
+        assertTrue(phases.get("witness").getNanos() >= phases.get("witness").getMaxNanos());
+
+        assertEquals(1, instrumentation.getWitnesses().get("C").get("matches").getCount());
+        assertEquals(1, instrumentation.getWitnesses().get("A").get("merge").getCount());
+
+        instrumentation.reset();
+        assertTrue(instrumentation.getPhases().isEmpty());
+    }
+}
@@ -19,16 +19,32 @@
 
 package eu.interedition.collatex;
 
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleVariantGraphBinaryFormat;
 import eu.interedition.collatex.simple.SimpleVariantGraphSerializer;
 import eu.interedition.collatex.simple.SimpleWitness;
 import eu.interedition.collatex.util.StreamUtil;
+import eu.interedition.collatex.util.VariantGraphRanking;
 import eu.interedition.collatex.util.VariantGraphTraversal;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -108,6 +124,70 @@ public class VariantGraphTest extends AbstractTest {
         assetGraphSize(graph, 17, 20);
     }
 
+    @Test
+    public void freeze() throws IOException {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1));
+        final VariantGraph graph = collate("the nice black and white cat", "the friendly white and black cat", "a black and white dog");
+        assertFalse(graph.transpositions().isEmpty());
+        final VariantGraph.Frozen frozen = graph.freeze();
+
+        assertEquals(graph.witnesses(), frozen.witnesses());
+        assertEquals(graph.transpositions().size(), frozen.transpositions().size());
+        assertEquals(toString(table(graph)), toString(table(frozen)));
+        assertEquals(toCsv(graph), toCsv(frozen));
+        assertTrue(frozen.ranking() == VariantGraphRanking.of(frozen));
+        assertEquals(VariantGraphRanking.of(graph).size(), frozen.ranking().size());
+
+        assertEquals(0, frozen.getStart().id());
+        assertEquals(1, frozen.getEnd().id());
+        int id = 1;
+        for (VariantGraph.Vertex vertex : frozen.vertices()) {
+            if (vertex != frozen.getStart() && vertex != frozen.getEnd()) {
+                assertEquals(++id, vertex.id());
+            }
+        }
+
+        int rank = 0;
+        for (VariantGraph.Vertex vertex : frozen.vertices()) {
+            assertTrue(frozen.rank(vertex) >= rank);
+            rank = frozen.rank(vertex);
+            assertEquals(vertex.witnesses(), frozen.witnessBits(vertex).stream().mapToObj(frozen.witnessList()::get).collect(Collectors.toSet()));
+            for (Set<VariantGraph.Vertex> transposition : vertex.transpositions()) {
+                assertTrue(transposition.stream().allMatch(v -> v.graph() == frozen));
+            }
+        }
+        assertTrue(frozen.freeze() == frozen);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void frozenGraphsAreImmutable() {
+        final VariantGraph.Frozen frozen = collate("the black cat", "the white cat").freeze();
+        frozen.getStart().outgoing().clear();
+    }
+
+    @Test
+    public void frozenVerticesAreImmutable() {
+        final VariantGraph.Frozen frozen = collate("the black cat", "the white cat").freeze();
+        final List<Token> tokens = new SimpleWitness("C", "a grey cat").getTokens();
+        for (VariantGraph.Vertex vertex : frozen.vertices()) {
+            assertUnsupported(() -> vertex.tokens().clear());
+            assertUnsupported(() -> vertex.incoming().clear());
+            assertUnsupported(() -> vertex.witnesses().clear());
+            assertUnsupported(() -> vertex.add(tokens));
+        }
+        final VariantGraph.Frozen joinable = collate("the black cat", "the black cat").freeze();
+        assertUnsupported(() -> VariantGraph.JOIN.apply(joinable));
+    }
+
+    private static void assertUnsupported(Runnable mutation) {
+        try {
+            mutation.run();
+            fail("Mutated a frozen graph");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
     @Test
     public void joinTwoIdenticalWitnesses() {
         final SimpleWitness[] w = createWitnesses("the black cat", "the black cat");
@@ -197,4 +277,94 @@ public class VariantGraphTest extends AbstractTest {
         assertHasWitnesses(edgeBetween(zin2BVertex, nuendanVertex), w[1]);
         //    assertHasWitnesses(edgeBetween(nuendanVertex, voorVertex2), w[1]);
     }
+
+    @Test
+    public void joinTranspositions() {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1));
+        final SimpleWitness[] w = createWitnesses("a b c d e", "d e c a b");
+        final VariantGraph graph = VariantGraph.JOIN.apply(collate(w));
+
+        final VariantGraph.Vertex abVertex = vertexWith(graph, "a b", w[0]);
+        final VariantGraph.Vertex cVertexA = vertexWith(graph, "c", w[0]);
+        final VariantGraph.Vertex cVertexB = vertexWith(graph, "c", w[1]);
+        final VariantGraph.Vertex deVertexA = vertexWith(graph, "d e", w[0]);
+        final VariantGraph.Vertex deVertexB = vertexWith(graph, "d e", w[1]);
+        assertTrue(abVertex == vertexWith(graph, "a b", w[1]));
+
+        final Set<VariantGraph.Vertex> cTransposition = new HashSet<>(Arrays.asList(cVertexA, cVertexB));
+        final Set<VariantGraph.Vertex> deTransposition = new HashSet<>(Arrays.asList(deVertexA, deVertexB));
+        assertEquals(new HashSet<>(Arrays.asList(cTransposition, deTransposition)), graph.transpositions());
+        assertTrue(abVertex.transpositions().isEmpty());
+        assertEquals(Collections.singleton(cTransposition), cVertexA.transpositions());
+        assertEquals(Collections.singleton(cTransposition), cVertexB.transpositions());
+        assertEquals(Collections.singleton(deTransposition), deVertexA.transpositions());
+        assertEquals(Collections.singleton(deTransposition), deVertexB.transpositions());
+    }
+
+    @Test
+    public void joinEqualsJoiningVertexByVertex() throws IOException {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1));
+        final String[] words = { "a", "b", "c", "d", "e", "f" };
+        final Random random = new Random(42);
+        for (int run = 0; run < 300; run++) {
+            final String[] witnesses = new String[2 + random.nextInt(2)];
+            for (int w = 0; w < witnesses.length; w++) {
+                witnesses[w] = random.ints(2 + random.nextInt(10), 0, words.length).mapToObj(i -> words[i]).collect(Collectors.joining(" "));
+            }
+            final VariantGraph graph = collate(witnesses);
+            assertEquals(Arrays.toString(witnesses), describe(JOIN_VERTEX_BY_VERTEX.apply(copy(graph))), describe(VariantGraph.JOIN.apply(copy(graph))));
+        }
+    }
+
+    private static VariantGraph copy(VariantGraph graph) throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        SimpleVariantGraphBinaryFormat.write(graph, buf);
+        return SimpleVariantGraphBinaryFormat.read(new ByteArrayInputStream(buf.toByteArray())).graph;
+    }
+
+    /**
+     * The previous join, merging one vertex at a time into its predecessor.
+     */
+    private static final Function<VariantGraph, VariantGraph> JOIN_VERTEX_BY_VERTEX = graph -> {
+        final Set<VariantGraph.Vertex> processed = new HashSet<>();
+        final Deque<VariantGraph.Vertex> queue = new ArrayDeque<>(graph.getStart().outgoing().keySet());
+
+        while (!queue.isEmpty()) {
+            final VariantGraph.Vertex vertex = queue.pop();
+            final Set<Set<VariantGraph.Vertex>> transpositions = new HashSet<>(vertex.transpositions());
+            if (vertex.outgoing().size() == 1) {
+                final VariantGraph.Vertex joinCandidateVertex = vertex.outgoing().keySet().iterator().next();
+                final Set<Set<VariantGraph.Vertex>> joinCandidateTranspositions = new HashSet<>(joinCandidateVertex.transpositions());
+
+                boolean canJoin = !graph.getEnd().equals(joinCandidateVertex) && //
+                    joinCandidateVertex.incoming().size() == 1 && //
+                    transpositions.equals(joinCandidateTranspositions);
+                if (canJoin) {
+                    vertex.add(joinCandidateVertex.tokens());
+                    for (Set<VariantGraph.Vertex> t : new HashSet<>(joinCandidateVertex.transpositions())) {
+                        final Set<VariantGraph.Vertex> transposed = new HashSet<>(t);
+                        transposed.remove(joinCandidateVertex);
+                        transposed.add(vertex);
+                        for (VariantGraph.Vertex tv : t) {
+                            graph.transpositionIndex.getOrDefault(tv, Collections.emptySet()).remove(t);
+                        }
+                        graph.transpose(transposed);
+                    }
+
+                    vertex.outgoing().clear();
+                    vertex.outgoing().putAll(joinCandidateVertex.outgoing());
+
+                    vertex.outgoing().keySet().forEach(v -> v.incoming().put(vertex, v.incoming().remove(joinCandidateVertex)));
+
+                    queue.push(vertex);
+                    continue;
+                }
+            }
+
+            processed.add(vertex);
+            vertex.outgoing().keySet().stream().filter(v -> !processed.contains(v)).forEach(queue::push);
+        }
+
+        return graph;
+    };
 }
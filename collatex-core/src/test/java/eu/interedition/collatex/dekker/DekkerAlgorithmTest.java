@@ -202,4 +202,48 @@ public class DekkerAlgorithmTest extends AbstractTest {
         assertThat(graph, graph(w[2]).aligned("those to which the parent-species had been exposed under nature . there is also , i think , some probability"));
         assertThat(graph, graph(w[3]).aligned("those to which the parent-species had been exposed under nature . there is , ").aligned(4, "also").aligned(", some probability"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testProgressiveCollation() {
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "the white cat sat on a mat", "the black cat sat on a mat");
+        final VariantGraph batch = new VariantGraph();
+        new DekkerAlgorithm().collate(batch, w);
+
+        final DekkerAlgorithm aligner = new DekkerAlgorithm();
+        final VariantGraph graph = new VariantGraph();
+        aligner.collate(graph, w[0], w[1]);
+        final VariantGraph.Vertex[] vertices = aligner.getVertexArray();
+
+        final DekkerAlgorithm resumed = new DekkerAlgorithm();
+        resumed.resume(aligner.tokenIndex, vertices);
+        resumed.collate(graph, w[2]);
+
+        assertEquals(toString(table(batch)), toString(table(graph)));
+        assertEquals(resumed.tokenIndex.size(), resumed.getVertexArray().length);
+    }
+
+    @Test
+    public void testReuseForNewGraph() {
+        final SimpleWitness[] w = createWitnesses("the black cat", "the white cat", "the cat sat");
+        final DekkerAlgorithm aligner = new DekkerAlgorithm();
+        aligner.collate(new VariantGraph(), w[0], w[1]);
+
+        // a new graph starts a new collation, which can be continued
+        final VariantGraph graph = new VariantGraph();
+        aligner.collate(graph, w[2]);
+        aligner.collate(graph, w[0]);
+
+        final VariantGraph batch = new VariantGraph();
+        new DekkerAlgorithm().collate(batch, w[2], w[0]);
+        assertEquals(toString(table(batch)), toString(table(graph)));
+
+        // a graph collated by another instance cannot be continued without its state
+        final VariantGraph other = new VariantGraph();
+        new DekkerAlgorithm().collate(other, w[0]);
+        try {
+            aligner.collate(other, w[1]);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+}
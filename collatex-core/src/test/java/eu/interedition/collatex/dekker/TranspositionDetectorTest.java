@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.dekker;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.VariantGraphRanking;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class TranspositionDetectorTest extends AbstractTest {
+
+    private static final String[] WORDS = { "a", "to", "the", "cat", "black", "sat", "on", "mat", "ran" };
+
+    @Test
+    public void transpositionsEqualSortingPerStep() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 300; run++) {
+            // parallel readings yield vertices of equal rank
+            final VariantGraph graph = collate(randomText(random, 1 + random.nextInt(20)), randomText(random, 1 + random.nextInt(20)));
+            final List<VariantGraph.Vertex> vertices = new ArrayList<>();
+            for (VariantGraph.Vertex vertex : graph.vertices()) {
+                if (vertex != graph.getStart() && vertex != graph.getEnd()) {
+                    vertices.add(vertex);
+                }
+            }
+            Collections.shuffle(vertices, random);
+
+            final SimpleWitness witness = new SimpleWitness("W", randomText(random, vertices.size() * 2));
+            final List<Token> tokens = witness.getTokens();
+            final List<List<Match>> phraseMatches = new ArrayList<>();
+            for (int p = 0, t = 0, count = random.nextInt(vertices.size() + 1); p < count; p++) {
+                final List<Match> phraseMatch = new ArrayList<>();
+                for (int m = 1 + random.nextInt(2); m > 0; m--) {
+                    phraseMatch.add(new Match(vertices.get(p), tokens.get(t++)));
+                }
+                phraseMatches.add(phraseMatch);
+            }
+
+            assertEquals(phraseMatches.toString(),
+                new SortingTranspositionDetector().detect(phraseMatches, graph),
+                new TranspositionDetector().detect(phraseMatches, graph));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        return random.ints(length, 0, WORDS.length).mapToObj(w -> WORDS[w]).collect(Collectors.joining(" "));
+    }
+
+    /**
+     * The previous implementation, re-sorting all remaining phrase matches by distance in each step.
+     */
+    private static class SortingTranspositionDetector {
+        private Map<List<Match>, Integer> phraseMatchToIndex;
+
+        List<List<Match>> detect(final List<List<Match>> phraseMatches, VariantGraph base) {
+            if (phraseMatches.isEmpty()) {
+                return new ArrayList<>();
+            }
+            final Set<VariantGraph.Vertex> matchedVertices = new HashSet<>();
+            for (List<Match> phraseMatch : phraseMatches) {
+                matchedVertices.add(phraseMatch.get(0).vertex);
+            }
+            final VariantGraphRanking ranking = VariantGraphRanking.ofOnlyCertainVertices(base, matchedVertices);
+
+            final Comparator<List<Match>> comp = (pm1, pm2) -> {
+                int difference = ranking.apply(pm1.get(0).vertex) - ranking.apply(pm2.get(0).vertex);
+                if (difference != 0) {
+                    return difference;
+                }
+                return phraseMatches.indexOf(pm1) - phraseMatches.indexOf(pm2);
+            };
+            final List<List<Match>> phraseMatchesGraphOrder = new ArrayList<>(phraseMatches);
+            phraseMatchesGraphOrder.sort(comp);
+
+            phraseMatchToIndex = new HashMap<>();
+            for (int i = 0; i < phraseMatchesGraphOrder.size(); i++) {
+                phraseMatchToIndex.put(phraseMatchesGraphOrder.get(i), i);
+            }
+
+            final List<Integer> phraseMatchesGraphIndex = new ArrayList<>();
+            final List<Integer> phraseMatchesWitnessIndex = new ArrayList<>();
+            for (int i = 0; i < phraseMatches.size(); i++) {
+                phraseMatchesGraphIndex.add(i);
+            }
+            for (List<Match> phraseMatch : phraseMatches) {
+                phraseMatchesWitnessIndex.add(phraseMatchToIndex.get(phraseMatch));
+            }
+
+            final List<List<Match>> nonTransposedPhraseMatches = new ArrayList<>(phraseMatches);
+            final List<List<Match>> transpositions = new ArrayList<>();
+            while (true) {
+                final Map<List<Match>, Integer> phraseMatchToDistanceMap = new LinkedHashMap<>();
+                for (int i = 0; i < nonTransposedPhraseMatches.size(); i++) {
+                    phraseMatchToDistanceMap.put(nonTransposedPhraseMatches.get(i), Math.abs(phraseMatchesGraphIndex.get(i) - phraseMatchesWitnessIndex.get(i)));
+                }
+                final List<Integer> distanceList = new ArrayList<>(phraseMatchToDistanceMap.values());
+                if (distanceList.isEmpty() || Collections.max(distanceList) == 0) {
+                    break;
+                }
+
+                final Comparator<List<Match>> comp2 = (pm1, pm2) -> {
+                    int difference = phraseMatchToDistanceMap.get(pm2) - phraseMatchToDistanceMap.get(pm1);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                    return determineSize(pm1) - determineSize(pm2);
+                };
+                final List<List<Match>> sortedPhraseMatches = new ArrayList<>(nonTransposedPhraseMatches);
+                sortedPhraseMatches.sort(comp2);
+
+                final List<Match> transposedPhrase = sortedPhraseMatches.remove(0);
+                final Integer transposedIndex = phraseMatchToIndex.get(transposedPhrase);
+                final Integer graphIndex = phraseMatchesGraphIndex.indexOf(transposedIndex);
+                final Integer transposedWithIndex = phraseMatchesWitnessIndex.get(graphIndex);
+                final List<Match> linkedTransposedPhrase = phraseMatchesGraphOrder.get(transposedWithIndex);
+
+                addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, transposedPhrase);
+
+                final Integer distance = phraseMatchToDistanceMap.get(transposedPhrase);
+                if (Objects.equals(distance, phraseMatchToDistanceMap.get(linkedTransposedPhrase)) && distance > 1) {
+                    addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, linkedTransposedPhrase);
+                }
+            }
+            return transpositions;
+        }
+
+        private void addTransposition(List<Integer> phraseWitnessRanks, List<Integer> phraseGraphRanks, List<List<Match>> nonTransposedPhraseMatches,
+                                      List<List<Match>> transpositions, List<Match> transposedPhrase) {
+            final Integer indexToRemove = phraseMatchToIndex.get(transposedPhrase);
+            nonTransposedPhraseMatches.remove(transposedPhrase);
+            transpositions.add(transposedPhrase);
+            phraseGraphRanks.remove(indexToRemove);
+            phraseWitnessRanks.remove(indexToRemove);
+        }
+
+        private static int determineSize(List<Match> t) {
+            int charLength = 0;
+            for (Match m : t) {
+                charLength += ((SimpleToken) m.token).getNormalized().length();
+            }
+            return charLength;
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package eu.interedition.collatex.dekker.editgraphaligner;
 
 import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.dekker.Match;
+import eu.interedition.collatex.dekker.token_index.TokenIndex;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.StreamUtil;
+import eu.interedition.collatex.util.VariantGraphRanking;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static eu.interedition.collatex.dekker.token_index.VariantGraphMatcher.graph;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Created by Ronald Haentjens Dekker on 06/01/17.
@@ -285,6 +297,143 @@ public class EditGraphMultiWitnessAlignerTest extends AbstractTest {
     assertThat(g, graph(w[1]).aligned("a g c t"));
   }
 
+  @Test
+  public void testReuseForNewGraph() {
+    final SimpleWitness[] w = createWitnesses("the black cat", "the white cat", "the cat sat");
+    final EditGraphAligner aligner = new EditGraphAligner();
+    aligner.collate(new VariantGraph(), w[0], w[1]);
+
+    // a new graph starts a new collation, which can be continued
+    final VariantGraph graph = new VariantGraph();
+    aligner.collate(graph, w[2]);
+    aligner.collate(graph, w[0]);
+
+    final VariantGraph batch = new VariantGraph();
+    new EditGraphAligner().collate(batch, w[2], w[0]);
+    assertEquals(toString(table(batch)), toString(table(graph)));
+
+    // a graph collated by another instance cannot be continued without its state
+    final VariantGraph other = new VariantGraph();
+    new EditGraphAligner().collate(other, w[0]);
+    try {
+      aligner.collate(other, w[1]);
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void testSameAlignmentsAsScoreTable() {
+    // few distinct tokens yield many ties and matches, which are reached from the upper cell
+    final Random random = new Random(42);
+    final String[] vocabulary = { "a", "b", "c", "d" };
+    for (int run = 0; run < 300; run++) {
+      final String[] witnesses = new String[2 + random.nextInt(3)];
+      for (int w = 0; w < witnesses.length; w++) {
+        witnesses[w] = random.ints(1 + random.nextInt(15), 0, vocabulary.length)
+            .mapToObj(i -> vocabulary[i])
+            .collect(Collectors.joining(" "));
+      }
+      setCollationAlgorithm(new ScoreTableAligner());
+      final String expected = toString(table(collate(witnesses)));
+      setCollationAlgorithm(new EditGraphAligner());
+      assertEquals(Arrays.toString(witnesses), expected, toString(table(collate(witnesses))));
+    }
+  }
+
+  /**
+   * The previous implementation, keeping a score object per cell of the edit graph table and following the scores'
+   * parents from the lower right cell to find the matches.
+   */
+  private static class ScoreTableAligner extends CollationAlgorithm.Base {
+    private TokenIndex tokenIndex;
+    private VariantGraph.Vertex[] vertex_array;
+    private Score[][] cells;
+
+    @Override
+    public void collate(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
+      tokenIndex = new TokenIndex(new EqualityTokenComparator(), witnesses);
+      tokenIndex.prepare();
+      vertex_array = new VariantGraph.Vertex[tokenIndex.token_array.length];
+      boolean firstWitness = true;
+      for (Iterable<Token> tokens : witnesses) {
+        if (firstWitness) {
+          merge(graph, tokens, Collections.emptyMap());
+          firstWitness = false;
+        } else {
+          collate(graph, tokens);
+        }
+        int tokenPosition = tokenIndex.getStartTokenPositionForWitness(tokens.iterator().next().getWitness());
+        for (Token token : tokens) {
+          vertex_array[tokenPosition++] = witnessTokenVertices.get(token);
+        }
+      }
+    }
+
+    @Override
+    public void collate(VariantGraph graph, Iterable<Token> tokens) {
+      final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+      final Map<VariantGraph.Vertex, Integer> byVertex = ranking.getByVertex();
+      final int width = (int) StreamUtil.stream(graph.vertices()).map(byVertex::get).distinct().count() - 1;
+      final int height = (int) StreamUtil.stream(tokens).count() + 1;
+      final MatchCube cube = new MatchCube(tokenIndex, tokens, vertex_array, ranking);
+
+      cells = new Score[height][width];
+      cells[0][0] = new Score(false, 0, 0, null, 0);
+      for (int x = 1; x < width; x++) {
+        cells[0][x] = gap(x, 0, cells[0][x - 1]);
+      }
+      for (int y = 1; y < height; y++) {
+        cells[y][0] = gap(0, y, cells[y - 1][0]);
+      }
+      for (int y = 1; y < height; y++) {
+        for (int x = 1; x < width; x++) {
+          final Score fromUpperLeft = score(x, y, cells[y - 1][x - 1], cube);
+          final Score fromLeft = gap(x, y, cells[y][x - 1]);
+          final Score fromUpper = (cube.hasMatch(y - 2, x - 1) ? score(x, y, cells[y - 1][x], cube) : gap(x, y, cells[y - 1][x]));
+          cells[y][x] = Collections.max(Arrays.asList(fromUpperLeft, fromLeft, fromUpper), Comparator.comparingInt(score -> score.globalScore));
+        }
+      }
+
+      final Map<Token, VariantGraph.Vertex> aligned = new HashMap<>();
+      final Set<VariantGraph.Vertex> matchedVertices = new HashSet<>();
+      for (Score score = cells[height - 1][width - 1]; score.parent != null; score = score.parent) {
+        if (score.match) {
+          final Match match = cube.getMatch(score.y - 1, score.x - 1);
+          if (matchedVertices.add(match.vertex)) {
+            aligned.put(match.token, match.vertex);
+          }
+        }
+      }
+      merge(graph, tokens, aligned);
+    }
+
+    private static Score gap(int x, int y, Score parent) {
+      return new Score(false, x, y, parent, parent.globalScore - 1);
+    }
+
+    private static Score score(int x, int y, Score parent, MatchCube cube) {
+      final boolean match = cube.hasMatch(y - 1, x - 1);
+      return new Score(match, x, y, parent, parent.globalScore + (match ? 1 : -1));
+    }
+
+    private static class Score {
+      final boolean match;
+      final int x;
+      final int y;
+      final Score parent;
+      final int globalScore;
+
+      Score(boolean match, int x, int y, Score parent, int globalScore) {
+        this.match = match;
+        this.x = x;
+        this.y = y;
+        this.parent = parent;
+        this.globalScore = globalScore;
+      }
+    }
+  }
+
   private void align(VariantGraph g, SimpleWitness[] w) {
     EditGraphAligner aligner = new EditGraphAligner();
     List<SimpleWitness> witnesses = new ArrayList<>();
@@ -300,4 +449,63 @@ public class EditGraphMultiWitnessAlignerTest extends AbstractTest {
     }
   }
 
+
+  @Test
+  public void testAnchoredAlignmentByUniqueBlocks() {
+    final AtomicInteger regions = new AtomicInteger();
+    final EditGraphAligner anchored = new EditGraphAligner();
+    anchored.setAnchored(true);
+    anchored.setRegionExecutor(task -> {
+      regions.incrementAndGet();
+      task.run();
+    });
+    setCollationAlgorithm(anchored);
+
+    // the block "a b a c" occurs once in each witness, so all of its tokens anchor the second witness, both "a" included
+    final VariantGraph graph = collate("a b a c", "a b a c");
+    assertEquals(5, regions.get());
+    assertEquals("A: |a|b|a|c|\nB: |a|b|a|c|\n", toString(table(graph)));
+  }
+
+  @Test
+  public void testAnchorsOccurInEveryWitness() {
+    final String[] witnesses = { "a b c d", "a b c d", "x y z" };
+    setCollationAlgorithm(new EditGraphAligner());
+    final String expected = toString(table(collate(witnesses)));
+
+    final AtomicInteger regions = new AtomicInteger();
+    final EditGraphAligner anchored = new EditGraphAligner();
+    anchored.setAnchored(true);
+    anchored.setRegionExecutor(task -> {
+      regions.incrementAndGet();
+      task.run();
+    });
+    setCollationAlgorithm(anchored);
+
+    // the block "a b c d" is missing in the third witness, so neither the second nor the third witness is anchored
+    assertEquals(expected, toString(table(collate(witnesses))));
+    assertEquals(2, regions.get());
+  }
+
+  @Test
+  public void testAnchoredAlignmentOnThreadPool() {
+    final String[] witnesses = {
+        "the quick brown fox jumps over the lazy dog and then some",
+        "the quick red fox jumps over a lazy dog and then some more",
+        "a quick brown fox jumped over the lazy dog and then some"
+    };
+    setCollationAlgorithm(new EditGraphAligner());
+    final String expected = toString(table(collate(witnesses)));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final EditGraphAligner anchored = new EditGraphAligner();
+      anchored.setAnchored(true);
+      anchored.setRegionExecutor(executor);
+      setCollationAlgorithm(anchored);
+      assertEquals(expected, toString(table(collate(witnesses))));
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
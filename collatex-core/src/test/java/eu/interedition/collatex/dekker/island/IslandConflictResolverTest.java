@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.dekker.island;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class IslandConflictResolverTest {
+
+    @Test
+    public void competingIslandsEqualPairwiseComparison() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            final List<Island> islands = new ArrayList<>();
+            final int size = 1 + random.nextInt(4);
+            for (int i = 0, count = random.nextInt(30); i < count; i++) {
+                final int row = random.nextInt(40);
+                final int column = random.nextInt(40);
+                islands.add(new Island(new Coordinate(row, column), new Coordinate(row + size - 1, column + size - 1)));
+            }
+            if (!islands.isEmpty() && random.nextBoolean()) {
+                islands.add(islands.get(random.nextInt(islands.size())));
+            }
+
+            final Set<Island> expected = pairwise(islands);
+            final Set<Island> actual = new IslandConflictResolver(new IslandCollection(new HashSet<>())).getCompetingIslands(islands);
+            assertEquals(expected, actual);
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        }
+    }
+
+    private static Set<Island> pairwise(List<Island> islands) {
+        Set<Island> competingIslands = new HashSet<>();
+        for (int i = 0; i < islands.size(); i++) {
+            Island i1 = islands.get(i);
+            for (int j = 1; j < islands.size() - i; j++) {
+                Island i2 = islands.get(i + j);
+                if (i1.isCompetitor(i2)) {
+                    competingIslands.add(i1);
+                    competingIslands.add(i2);
+                }
+            }
+        }
+        return competingIslands;
+    }
+}
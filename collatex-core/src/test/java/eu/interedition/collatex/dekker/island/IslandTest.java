@@ -21,12 +21,17 @@ package eu.interedition.collatex.dekker.island;
 
 import eu.interedition.collatex.AbstractTest;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.dekker.DekkerAlgorithm;
 import eu.interedition.collatex.dekker.legacy.MatchTable;
 import eu.interedition.collatex.dekker.legacy.MatchTableImpl;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleWitness;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -80,6 +85,44 @@ public class IslandTest extends AbstractTest {
         assertEquals(2, arch.size());
     }
 
+    @Test
+    public void testArchipelagoCoordinateIndex() {
+        Archipelago arch = new Archipelago();
+        arch.add(new Island(new Coordinate(0, 2), new Coordinate(1, 3)));
+        arch.add(new Island(new Coordinate(40, 1), new Coordinate(41, 2)));
+        assertTrue(arch.containsCoordinate(1, 3));
+        assertTrue(arch.containsCoordinate(40, 1));
+        assertFalse(arch.containsCoordinate(1, 2));
+        assertFalse(arch.containsCoordinate(2, 4));
+        assertTrue(arch.containsRow(41));
+        assertFalse(arch.containsRow(39));
+        assertTrue(arch.containsVector(-2));
+        assertTrue(arch.containsVector(39));
+        assertFalse(arch.containsVector(0));
+
+        Archipelago copy = new Archipelago(arch);
+        copy.add(new Island(new Coordinate(2, 2), new Coordinate(2, 2)));
+        assertTrue(copy.containsCoordinate(2, 2));
+        assertFalse(arch.containsCoordinate(2, 2));
+    }
+
+    @Test
+    public void testIslandsFromTokenIndexMaterializeLazily() {
+        SimpleWitness[] sw = createWitnesses("the cat and the dog and the cat", "the dog and the cat and the cat");
+        DekkerAlgorithm algorithm = new DekkerAlgorithm();
+        algorithm.collate(new VariantGraph(), Arrays.asList(sw));
+        for (Island island : algorithm.getAllPossibleIslands()) {
+            final int hashCode = island.hashCode();
+            final Coordinate leftEnd = island.getLeftEnd();
+            final List<Coordinate> coordinates = new ArrayList<>();
+            island.forEach(coordinates::add);
+            assertEquals(coordinates.hashCode(), hashCode);
+            assertEquals(coordinates.get(0), leftEnd);
+            assertEquals(coordinates.size(), island.size());
+            assertTrue(algorithm.getAllPossibleIslands().contains(island));
+        }
+    }
+
     @Test
     public void testArchipelagoRivalIslands() {
         SimpleWitness[] sw = createWitnesses("A B C A B", "A B C A B");
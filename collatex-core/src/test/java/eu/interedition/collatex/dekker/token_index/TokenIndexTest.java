@@ -3,19 +3,34 @@ package eu.interedition.collatex.dekker.token_index;
 import eu.interedition.collatex.AbstractTest;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.matching.EditDistanceTokenComparator;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.matching.StrictEqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by ronald on 4/20/15.
  */
 public class TokenIndexTest extends AbstractTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     class MySpecialToken implements Token {
         private final Witness w;
         protected String specialContent;
@@ -80,8 +95,8 @@ public class TokenIndexTest extends AbstractTest {
         //               ...
         // LCP:          -  1  1  0  1  0  2  0  1  1  0  1  0  0  0
         //
-        assertEquals("[0, 11, 6, 1, 13, 2, 8, 12, 3, 9, 7, 4, 5, 10, 14]", Arrays.toString(tokenIndex.suffix_array));
-        assertEquals("[-1, 1, 1, 0, 1, 0, 2, 0, 1, 1, 0, 1, 0, 0, 0]", Arrays.toString(tokenIndex.LCP_array));
+        assertEquals("[0, 11, 6, 1, 13, 2, 8, 12, 3, 9, 7, 4, 5, 10, 14]", Arrays.toString(tokenIndex.getSuffixArray()));
+        assertEquals("[-1, 1, 1, 0, 1, 0, 2, 0, 1, 1, 0, 1, 0, 0, 0]", Arrays.toString(tokenIndex.getLCPArray()));
     }
 
     @Test
@@ -118,8 +133,8 @@ public class TokenIndexTest extends AbstractTest {
         //               ...
         // LCP:          -   2   1   0   1   0   0
         //
-        assertEquals("[0, 4, 2, 1, 5, 3, 6]", Arrays.toString(tokenIndex.suffix_array));
-        assertEquals("[-1, 2, 1, 0, 1, 0, 0]", Arrays.toString(tokenIndex.LCP_array));
+        assertEquals("[0, 4, 2, 1, 5, 3, 6]", Arrays.toString(tokenIndex.getSuffixArray()));
+        assertEquals("[-1, 2, 1, 0, 1, 0, 0]", Arrays.toString(tokenIndex.getLCPArray()));
 
         List<Block> blocks = tokenIndex.splitLCP_ArrayIntoIntervals();
         // start, length, n_witness, n_suffix
@@ -129,6 +144,183 @@ public class TokenIndexTest extends AbstractTest {
         assertEquals(3, blocks.size());
     }
 
+    @Test
+    public void testBlocksCoverMultipleWitnesses() {
+        final Random random = new Random(7);
+        for (int run = 0; run < 50; run++) {
+            final String[] contents = new String[2 + random.nextInt(3)];
+            for (int wc = 0; wc < contents.length; wc++) {
+                final StringBuilder content = new StringBuilder();
+                for (int tc = 0, tl = 1 + random.nextInt(12); tc < tl; tc++) {
+                    content.append((char) ('a' + random.nextInt(4))).append(' ');
+                }
+                contents[wc] = content.toString();
+            }
+            final SimpleWitness[] w = createWitnesses(contents);
+            TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+            tokenIndex.prepare();
+            for (Block block : tokenIndex.blocks) {
+                final Set<Witness> witnesses = new HashSet<>();
+                for (int i = block.start; i <= block.end; i++) {
+                    witnesses.add(tokenIndex.token_array[tokenIndex.suffix(i)].getWitness());
+                }
+                assertEquals(block.toString(), witnesses.size(), block.getDepth());
+                assertTrue(block.toString(), block.getDepth() > 1);
+            }
+            for (int wc = 0; wc < w.length; wc++) {
+                for (Block.Instance instance : tokenIndex.getBlockInstancesForWitness(w[wc])) {
+                    assertEquals(w[wc], instance.getWitness());
+                    boolean inEarlierWitness = false;
+                    for (int i = instance.block.start; i <= instance.block.end; i++) {
+                        inEarlierWitness |= tokenIndex.suffix(i) < tokenIndex.getStartTokenPositionForWitness(w[wc]);
+                    }
+                    assertTrue(instance.toString(), inEarlierWitness);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAppendedWitnessesMatchPreparedIndex() {
+        final Random random = new Random(11);
+        for (int run = 0; run < 50; run++) {
+            final String[] contents = new String[2 + random.nextInt(4)];
+            for (int wc = 0; wc < contents.length; wc++) {
+                final StringBuilder content = new StringBuilder();
+                for (int tc = 0, tl = 1 + random.nextInt(12); tc < tl; tc++) {
+                    content.append((char) ('a' + random.nextInt(4))).append(' ');
+                }
+                contents[wc] = content.toString();
+            }
+            final SimpleWitness[] w = createWitnesses(contents);
+            final TokenIndex prepared = new TokenIndex(new EqualityTokenComparator(), w);
+            prepared.prepare();
+
+            final int initial = 1 + random.nextInt(w.length - 1);
+            final TokenIndex appended = new TokenIndex(new EqualityTokenComparator(), Arrays.asList(w).subList(0, initial));
+            appended.prepare();
+            for (int wc = initial; wc < w.length; wc++) {
+                appended.append(w[wc]);
+            }
+
+            assertEquals(Arrays.toString(prepared.token_array), Arrays.toString(appended.token_array));
+            assertEquals(Arrays.toString(prepared.getSuffixArray()), Arrays.toString(appended.getSuffixArray()));
+            assertEquals(Arrays.toString(prepared.getLCPArray()), Arrays.toString(appended.getLCPArray()));
+            assertEquals(prepared.blocks.toString(), appended.blocks.toString());
+            for (SimpleWitness witness : w) {
+                assertEquals(prepared.getStartTokenPositionForWitness(witness), appended.getStartTokenPositionForWitness(witness));
+                assertEquals(prepared.getBlockInstancesForWitness(witness).toString(), appended.getBlockInstancesForWitness(witness).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshots() throws IOException {
+        final Path snapshots = temporaryFolder.newFolder().toPath();
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "the white cat sat on a mat", "a black cat on a mat");
+        final TokenIndex prepared = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        prepared.prepare(snapshots);
+        final File[] files = snapshots.toFile().listFiles();
+        assertEquals(1, files.length);
+
+        final TokenIndex loaded = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        assertTrue(loaded.load(files[0].toPath(), loaded.snapshotKey()));
+        assertEquals(Arrays.toString(prepared.getSuffixArray()), Arrays.toString(loaded.getSuffixArray()));
+        assertEquals(Arrays.toString(prepared.getLCPArray()), Arrays.toString(loaded.getLCPArray()));
+        assertEquals(prepared.blocks.toString(), loaded.blocks.toString());
+        assertEquals(prepared.getBlockInstancesForWitness(w[1]).toString(), loaded.getBlockInstancesForWitness(w[1]).toString());
+
+        // appending to a loaded index restores the interned tokens first
+        prepared.append(w[2]);
+        loaded.append(w[2]);
+        assertEquals(Arrays.toString(prepared.getSuffixArray()), Arrays.toString(loaded.getSuffixArray()));
+        assertEquals(prepared.blocks.toString(), loaded.blocks.toString());
+
+        // snapshots are keyed by content
+        final TokenIndex other = new TokenIndex(new EqualityTokenComparator(), w[0], w[2]);
+        assertFalse(other.load(files[0].toPath(), other.snapshotKey()));
+        other.prepare(snapshots);
+        assertEquals(2, snapshots.toFile().listFiles().length);
+    }
+
+    @Test
+    public void testCompactIndexMatchesPlainIndex() throws IOException {
+        final Path snapshots = temporaryFolder.newFolder().toPath();
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "the white cat sat on a mat", "a black cat on a mat");
+        final TokenIndex plain = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        plain.prepare(snapshots);
+        final TokenIndex compact = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        compact.setCompact(true);
+        compact.prepare();
+        final TokenIndex loaded = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        loaded.setCompact(true);
+        loaded.prepare(snapshots);
+
+        for (TokenIndex index : Arrays.asList(plain, compact, loaded)) {
+            index.append(w[2]);
+        }
+        for (TokenIndex index : Arrays.asList(compact, loaded)) {
+            assertEquals(Arrays.toString(plain.getSuffixArray()), Arrays.toString(index.getSuffixArray()));
+            assertEquals(Arrays.toString(plain.getLCPArray()), Arrays.toString(index.getLCPArray()));
+            assertEquals(plain.blocks.toString(), index.blocks.toString());
+            assertEquals(plain.getBlockInstancesForWitness(w[2]).toString(), index.getBlockInstancesForWitness(w[2]).toString());
+        }
+    }
+
+    @Test
+    public void testSnapshotsKeyedByComparator() throws IOException {
+        final SimpleWitness[] w = createWitnesses("the black cat", "the white cat");
+        assertFalse(Arrays.equals(
+            new TokenIndex(new EditDistanceTokenComparator(1), w[0], w[1]).snapshotKey(),
+            new TokenIndex(new EditDistanceTokenComparator(2), w[0], w[1]).snapshotKey()));
+        assertFalse(Arrays.equals(
+            new TokenIndex(new EqualityTokenComparator(), w[0], w[1]).snapshotKey(),
+            new TokenIndex(new StrictEqualityTokenComparator(), w[0], w[1]).snapshotKey()));
+
+        // comparators of unknown configuration are not snapshotted
+        final Path snapshots = temporaryFolder.newFolder().toPath();
+        final Comparator<Token> lambda = (a, b) -> new EqualityTokenComparator().compare(a, b);
+        final TokenIndex index = new TokenIndex(lambda, w[0], w[1]);
+        assertNull(index.snapshotKey());
+        index.prepare(snapshots);
+        assertEquals(0, snapshots.toFile().listFiles().length);
+        assertFalse(index.blocks.isEmpty());
+    }
+
+    @Test
+    public void testCorruptSnapshotsGetRebuilt() throws IOException {
+        final Path snapshots = temporaryFolder.newFolder().toPath();
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "the white cat sat on a mat");
+        final TokenIndex prepared = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        prepared.prepare(snapshots);
+        final Path snapshot = snapshots.toFile().listFiles()[0].toPath();
+
+        // keep the header and the witness lengths, scramble the arrays
+        final byte[] data = Files.readAllBytes(snapshot);
+        final int arrays = 4 * Integer.BYTES + 32 + 2 * Integer.BYTES;
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int i = arrays; i + Integer.BYTES <= data.length; i += Integer.BYTES) {
+            buffer.putInt(i, Integer.MAX_VALUE - i);
+        }
+        Files.write(snapshot, data);
+
+        final TokenIndex loaded = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        assertFalse(loaded.load(snapshot, loaded.snapshotKey()));
+        loaded.prepare(snapshots);
+        assertEquals(Arrays.toString(prepared.getSuffixArray()), Arrays.toString(loaded.getSuffixArray()));
+        assertEquals(prepared.blocks.toString(), loaded.blocks.toString());
+        assertTrue(new TokenIndex(new EqualityTokenComparator(), w[0], w[1]).load(snapshot, loaded.snapshotKey()));
+    }
+
+    @Test
+    public void testFailingSnapshotsDoNotFailPreparation() throws IOException {
+        final Path notADirectory = temporaryFolder.newFile().toPath();
+        final SimpleWitness[] w = createWitnesses("the black cat", "the white cat");
+        final TokenIndex index = new TokenIndex(new EqualityTokenComparator(), w[0], w[1]);
+        index.prepare(notADirectory);
+        assertFalse(index.blocks.isEmpty());
+    }
+
     @Test
     public void testCustomTokensAndComparator() {
         Witness w1 = new MySpecialWitness();
@@ -21,9 +21,31 @@ package eu.interedition.collatex.needlemanwunsch;
 
 import eu.interedition.collatex.AbstractTest;
 import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EditDistanceTokenComparator;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.matching.StrictEqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.StreamUtil;
+import eu.interedition.collatex.util.VariantGraphRanking;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
@@ -34,4 +56,164 @@ public class NeedlemanWunschTest extends AbstractTest {
         setCollationAlgorithm(CollationAlgorithmFactory.needlemanWunsch(new EqualityTokenComparator()));
         LOG.fine(toString(table(collate("a b a b a", "a b a"))));
     }
+
+    @Test
+    public void tokenIdAlignment() {
+        final Random random = new Random(11);
+        for (int run = 0; run < 100; run++) {
+            final int[][] a = new int[1 + random.nextInt(30)][];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = random.ints(random.nextInt(3), 0, 5).distinct().toArray();
+            }
+            final Integer[] b = random.ints(1 + random.nextInt(30), 0, 5).boxed().toArray(Integer[]::new);
+
+            final Map<int[], Integer> expected = NeedlemanWunschAlgorithm.align(a, b, new NeedlemanWunschScorer<int[], Integer>() {
+                @Override
+                public float score(int[] ids, Integer id) {
+                    return Arrays.stream(ids).anyMatch(i -> i == id) ? 1 : -1;
+                }
+
+                @Override
+                public float gap() {
+                    return -1;
+                }
+            });
+            final int[] actual = NeedlemanWunschAlgorithm.align(a, Arrays.stream(b).mapToInt(Integer::intValue).toArray());
+            for (int i = 0; i < a.length; i++) {
+                assertEquals(expected.containsKey(a[i]) ? expected.get(a[i]) : null, actual[i] < 0 ? null : b[actual[i]]);
+            }
+        }
+    }
+
+    @Test
+    public void equalityComparatorsAlignAsTheScorer() {
+        assertSameAlignmentsAsScorer(new EqualityTokenComparator());
+        assertSameAlignmentsAsScorer(new StrictEqualityTokenComparator());
+    }
+
+    @Test
+    public void otherComparatorsAlignAsTheScorer() {
+        // not transitive: interning tokens by it would merge tokens, which do not match each other
+        assertSameAlignmentsAsScorer(new EditDistanceTokenComparator(1));
+        assertSameAlignmentsAsScorer((a, b) -> ((SimpleToken) a).getNormalized().charAt(0) - ((SimpleToken) b).getNormalized().charAt(0));
+    }
+
+    private void assertSameAlignmentsAsScorer(Comparator<Token> comparator) {
+        final Random random = new Random(17);
+        final String[] vocabulary = { "a", "b", "c", "ab", "ba", "bb", "abc", "cc" };
+        for (int run = 0; run < 200; run++) {
+            final String[] witnesses = new String[3];
+            for (int w = 0; w < witnesses.length; w++) {
+                witnesses[w] = random.ints(1 + random.nextInt(12), 0, vocabulary.length)
+                    .mapToObj(i -> vocabulary[i])
+                    .collect(Collectors.joining(" "));
+            }
+            setCollationAlgorithm(new ScorerAlignment(comparator));
+            final String expected = toString(table(collate(witnesses)));
+            setCollationAlgorithm(CollationAlgorithmFactory.needlemanWunsch(comparator));
+            assertEquals(Arrays.toString(witnesses), expected, toString(table(collate(witnesses))));
+        }
+    }
+
+    /**
+     * Aligns each witness with the graph by the generic {@link NeedlemanWunschAlgorithm#align(Object[], Object[], NeedlemanWunschScorer)},
+     * scoring each rank against each token with the comparator, as the algorithm did before interning tokens, though
+     * with its order of vertices in a rank.
+     */
+    private static class ScorerAlignment extends CollationAlgorithm.Base {
+        private final Comparator<Token> comparator;
+
+        private ScorerAlignment(Comparator<Token> comparator) {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public void collate(VariantGraph against, Iterable<Token> witness) {
+            final VariantGraph.Vertex[][] ranks = VariantGraphRanking.of(against).asArray();
+            for (VariantGraph.Vertex[] rank : ranks) {
+                Arrays.sort(rank, Comparator.comparingInt(VariantGraph.Vertex::id));
+            }
+            final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
+
+            final Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
+            final Map<VariantGraph.Vertex[], Token> aligned = NeedlemanWunschAlgorithm.align(ranks, tokens, new NeedlemanWunschScorer<VariantGraph.Vertex[], Token>() {
+                @Override
+                public float score(VariantGraph.Vertex[] a, Token b) {
+                    return Arrays.stream(a).map(VariantGraph.Vertex::tokens).flatMap(Set::stream).anyMatch(t -> comparator.compare(t, b) == 0) ? 1 : -1;
+                }
+
+                @Override
+                public float gap() {
+                    return -1;
+                }
+            });
+            for (Map.Entry<VariantGraph.Vertex[], Token> alignment : aligned.entrySet()) {
+                Arrays.stream(alignment.getKey())
+                    .filter(v -> v.tokens().stream().anyMatch(t -> comparator.compare(t, alignment.getValue()) == 0))
+                    .findFirst()
+                    .ifPresent(v -> alignments.put(alignment.getValue(), v));
+            }
+            merge(against, witness, alignments);
+        }
+    }
+
+    @Test
+    public void anchoredAlignment() {
+        final AtomicInteger regions = new AtomicInteger();
+        final NeedlemanWunschAlgorithm anchored = new NeedlemanWunschAlgorithm(new EqualityTokenComparator());
+        anchored.setAnchored(true);
+        anchored.setRegionExecutor(task -> {
+            regions.incrementAndGet();
+            task.run();
+        });
+        setCollationAlgorithm(anchored);
+        final SimpleWitness[] w = createWitnesses("a b a c", "a b a c");
+        final VariantGraph graph = collate(w[0]);
+
+        // "a" occurs twice in the witness, so only "b" and "c" anchor it, splitting the table into three regions
+        regions.set(0);
+        collate(graph, w[1]);
+        assertEquals(3, regions.get());
+        assertEquals("A: |a|b|a|c|\nB: |a|b|a|c|\n", toString(table(graph)));
+    }
+
+    @Test
+    public void anchoringRequiresAnEquivalence() {
+        final String[] witnesses = { "the quick brown fox", "teh quick brown fox" };
+        setCollationAlgorithm(CollationAlgorithmFactory.needlemanWunsch(new EditDistanceTokenComparator(1)));
+        final String expected = toString(table(collate(witnesses)));
+
+        final AtomicInteger regions = new AtomicInteger();
+        final NeedlemanWunschAlgorithm anchored = new NeedlemanWunschAlgorithm(new EditDistanceTokenComparator(1));
+        anchored.setAnchored(true);
+        anchored.setRegionExecutor(task -> {
+            regions.incrementAndGet();
+            task.run();
+        });
+        setCollationAlgorithm(anchored);
+        assertEquals(expected, toString(table(collate(witnesses))));
+        assertEquals(0, regions.get());
+    }
+
+    @Test
+    public void anchoredAlignmentOnThreadPool() {
+        final String[] witnesses = {
+            "in the beginning was the word and the word was with god",
+            "in the beginning was a word and the word was with him",
+            "at the beginning was the word and the word was god"
+        };
+        setCollationAlgorithm(CollationAlgorithmFactory.needlemanWunsch(new EqualityTokenComparator()));
+        final String expected = toString(table(collate(witnesses)));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final NeedlemanWunschAlgorithm anchored = new NeedlemanWunschAlgorithm(new EqualityTokenComparator());
+            anchored.setAnchored(true);
+            anchored.setRegionExecutor(executor);
+            setCollationAlgorithm(anchored);
+            assertEquals(expected, toString(table(collate(witnesses))));
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
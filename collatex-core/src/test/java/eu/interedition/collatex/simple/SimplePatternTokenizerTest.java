@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimplePatternTokenizerTest {
+
+    private static final String TEXT = "The black cat; the white,  fluffy dog. Ends here!";
+
+    @Test
+    public void incrementalTokenizationEqualsWholeInput() {
+        final SimplePatternTokenizer.PatternTokenizer tokenizer = (SimplePatternTokenizer.PatternTokenizer) SimplePatternTokenizer.BY_WS_OR_PUNCT;
+        final List<String> expected = tokenizer.apply(TEXT).collect(Collectors.toList());
+
+        for (int chunkSize = 1; chunkSize <= TEXT.length(); chunkSize++) {
+            final List<String> tokens = new ArrayList<>();
+            final CharBuffer buf = CharBuffer.allocate(TEXT.length());
+            for (int offset = 0; offset < TEXT.length(); offset += chunkSize) {
+                buf.put(TEXT, offset, Math.min(TEXT.length(), offset + chunkSize));
+                buf.flip();
+                tokenizer.tokenize(buf, false, tokens::add);
+                buf.compact();
+            }
+            buf.flip();
+            tokenizer.tokenize(buf, true, tokens::add);
+
+            assertEquals("Chunk size " + chunkSize, expected, tokens);
+        }
+    }
+}
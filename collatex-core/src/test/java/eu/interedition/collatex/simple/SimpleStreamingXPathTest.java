@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SimpleStreamingXPathTest {
+
+    private static final String DOCUMENT = "<text><body>" +
+        "<p n='1'><w>The</w> <w type='adj'>black</w> <seg><w>cat</w><!-- comment --><w>s</w></seg></p>\n" +
+        "<p n='2'>sits <hi rend='it'>on the</hi> mat</p>" +
+        "<seg><seg type='inner'>nested</seg> outer</seg>" +
+        "</body></text>";
+
+    @Test
+    public void selectsLikeXPath() throws Exception {
+        for (String expression : new String[] {
+            "//text()", "//w", "//p/w", "//seg", "//seg//text()", "/text/body/p[@n='2']/text()", "//*[@type]",
+            "//w[@type=\"adj\"] | //hi", "text/body/seg", "//p//*", "/body"
+        }) {
+            assertEquals(expression, xpath(expression), streaming(expression));
+        }
+    }
+
+    @Test
+    public void ignoresNamespaces() throws Exception {
+        final List<String> tokens = new ArrayList<>();
+        SimpleStreamingXPath.compile("//w").evaluate(bytes("<TEI xmlns='http://www.tei-c.org/ns/1.0'><w>a</w><w>b</w></TEI>"), tokens::add);
+        assertEquals(2, tokens.size());
+    }
+
+    @Test
+    public void rejectsUnsupportedExpressions() {
+        for (String expression : new String[] {
+            "//w[position() = 1]", ".//w", "//seg/../w", "//seg/./w", "//w/parent::seg", "//descendant::w", "//x:w", "//w[@xml:id]"
+        }) {
+            try {
+                SimpleStreamingXPath.compile(expression);
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    private static List<String> streaming(String expression) throws Exception {
+        final List<String> tokens = new ArrayList<>();
+        SimpleStreamingXPath.compile(expression).evaluate(bytes(DOCUMENT), tokens::add);
+        return tokens;
+    }
+
+    private static List<String> xpath(String expression) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(bytes(DOCUMENT));
+        document.normalizeDocument();
+        final NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath().compile(expression).evaluate(document, XPathConstants.NODESET);
+        final List<String> tokens = new ArrayList<>();
+        for (int nc = 0; nc < nodes.getLength(); nc++) {
+            tokens.add(nodes.item(nc).getTextContent());
+        }
+        return tokens;
+    }
+
+    private static ByteArrayInputStream bytes(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
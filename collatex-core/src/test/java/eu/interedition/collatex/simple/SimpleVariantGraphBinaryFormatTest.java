@@ -0,0 +1,112 @@
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleVariantGraphBinaryFormatTest extends AbstractTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1));
+        final VariantGraph graph = collate("the black cat sat on the mat", "sat on the mat the black cat", "a black cat ran off the mat");
+        assertFalse(graph.transpositions().isEmpty());
+
+        final SimpleVariantGraphBinaryFormat.Result result = roundTrip(graph);
+
+        assertEquals(3, result.witnesses.size());
+        assertEquals("A", result.witnesses.get(0).getSigil());
+        assertEquals(toCsv(graph), toCsv(result.graph));
+        assertEquals(describe(graph), describe(result.graph));
+        for (SimpleWitness witness : result.witnesses) {
+            for (Token token : witness.getTokens()) {
+                assertTrue(result.tokenVertices.get(token).tokens().contains(token));
+            }
+        }
+        for (Map.Entry<Token, VariantGraph.Vertex> tokenVertex : result.tokenVertices.entrySet()) {
+            assertTrue(tokenVertex.getValue().graph() == result.graph);
+        }
+    }
+
+    @Test
+    public void emptyGraph() throws IOException {
+        final SimpleVariantGraphBinaryFormat.Result result = roundTrip(new VariantGraph());
+        assertTrue(result.witnesses.isEmpty());
+        assertTrue(result.graph.getStart().outgoing().containsKey(result.graph.getEnd()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws IOException {
+        SimpleVariantGraphBinaryFormat.read(new ByteArrayInputStream("digraph G {}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void leavesDataFollowingTheGraph() throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        SimpleVariantGraphBinaryFormat.write(collate("the black cat", "the white cat"), buf);
+        buf.write(new byte[] { 42, 43 });
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(buf.toByteArray());
+        assertEquals(2, SimpleVariantGraphBinaryFormat.read(in).witnesses.size());
+        assertEquals(42, in.read());
+        assertEquals(43, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void rejectsCorruptGraphs() throws IOException {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 1));
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        SimpleVariantGraphBinaryFormat.write(collate("the black cat sat on the mat", "sat on the mat the black cat"), buf);
+        final byte[] data = buf.toByteArray();
+
+        for (int length = 0; length < data.length; length++) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final byte[] corrupt = data.clone();
+            corrupt[MAGIC_LENGTH + random.nextInt(corrupt.length - MAGIC_LENGTH)] = (byte) random.nextInt(256);
+            try {
+                SimpleVariantGraphBinaryFormat.read(new ByteArrayInputStream(corrupt));
+            } catch (IOException e) {
+                // expected for most corruptions; others still describe a graph
+            }
+        }
+        // huge counts and lengths must not be allocated before they are read
+        assertRejected(new byte[] { 'C', 'X', 'V', 'G', 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+        assertRejected(new byte[] { 'C', 'X', 'V', 'G', 1, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+    }
+
+    private static final int MAGIC_LENGTH = 4;
+
+    private static void assertRejected(byte[] data) {
+        try {
+            SimpleVariantGraphBinaryFormat.read(new ByteArrayInputStream(data));
+            fail("Read a graph from corrupt data: " + Arrays.toString(data));
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static SimpleVariantGraphBinaryFormat.Result roundTrip(VariantGraph graph) throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        SimpleVariantGraphBinaryFormat.write(graph, buf);
+        return SimpleVariantGraphBinaryFormat.read(new ByteArrayInputStream(buf.toByteArray()));
+    }
+}
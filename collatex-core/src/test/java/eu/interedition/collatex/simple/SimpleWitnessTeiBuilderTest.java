@@ -24,11 +24,32 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 
 public class SimpleWitnessTeiBuilderTest {
 
+    @Test
+    public void testOutermostTokens() throws IOException, XMLStreamException {
+        final String tei = "<TEI xmlns='http://www.tei-c.org/ns/1.0'><text><body><p>"
+            + "<w>The</w> <seg> black <w>cat</w> </seg> <w>sat<seg>on</seg></w>"
+            + "<w xmlns='urn:other'>ignored</w>"
+            + "</p></body></text></TEI>";
+        final SimpleWitness witness = new SimpleWitnessTeiBuilder().read(new ByteArrayInputStream(tei.getBytes(StandardCharsets.UTF_8)));
+        final List<String> contents = new ArrayList<>();
+        for (Token t : witness) {
+            contents.add(((SimpleToken) t).getContent());
+        }
+        assertEquals(Arrays.asList("The", "blackcat", "saton"), contents);
+    }
+
     @Ignore
     @Test
     public void testTei() throws IOException, XMLStreamException {
@@ -0,0 +1,64 @@
+package eu.interedition.collatex.suffixarray;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParallelPrefixDoublingTest {
+
+    @Test
+    public void sameSuffixArrayAsSAIS() {
+        final Random random = new Random(3);
+        for (int length : new int[] { 1, 2, 17, 1000, 50000 }) {
+            for (int alphabet : new int[] { 1, 2, 4, 1000 }) {
+                final int[] input = randomInput(random, length, alphabet);
+                assertArrayEquals(length + "/" + alphabet,
+                    Algorithm.SAIS.getDecoratedInstance().buildSuffixArray(Arrays.copyOf(input, input.length), 0, length),
+                    Algorithm.PARALLEL_PREFIX_DOUBLING.getDecoratedInstance().buildSuffixArray(Arrays.copyOf(input, input.length), 0, length));
+            }
+        }
+    }
+
+    @Test
+    public void sameLCPArrayAsKasai() {
+        final Random random = new Random(5);
+        for (int length : new int[] { 1, 2, 17, 1000, 100000 }) {
+            for (int alphabet : new int[] { 1, 2, 4, 1000 }) {
+                final int[] input = randomInput(random, length, alphabet);
+                final int[] sa = new SAIS().buildSuffixArray(input, 0, length);
+                assertArrayEquals(length + "/" + alphabet,
+                    SuffixArrays.computeLCP(input, 0, length, sa),
+                    SuffixArrays.computeLCPParallel(input, 0, length, sa));
+            }
+        }
+    }
+
+    @Test
+    public void sortsArbitrarySymbols() {
+        final int[] input = { 7, -3, Integer.MAX_VALUE, -3, Integer.MIN_VALUE, 7, -3 };
+        final Integer[] expected = new Integer[input.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        Arrays.sort(expected, (a, b) -> {
+            for (int k = 0; a + k < input.length && b + k < input.length; k++) {
+                if (input[a + k] != input[b + k]) {
+                    return Integer.compare(input[a + k], input[b + k]);
+                }
+            }
+            return Integer.compare(input.length - a, input.length - b);
+        });
+        assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), new ParallelPrefixDoubling().buildSuffixArray(input, 0, input.length));
+    }
+
+    private static int[] randomInput(Random random, int length, int alphabet) {
+        final int[] input = new int[length + SuffixArrays.MAX_EXTRA_TRAILING_SPACE];
+        for (int i = 0; i < length; i++) {
+            input[i] = random.nextInt(alphabet);
+        }
+        return input;
+    }
+}
@@ -0,0 +1,75 @@
+package eu.interedition.collatex.suffixarray;
+
+import org.junit.Test;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SuffixDataTest {
+
+    @Test
+    public void compactDataEqualsPlainData() {
+        final Random random = new Random(13);
+        for (int length : new int[] { 1, 2, 3, 64, 65, 1000, 70000 }) {
+            // long repeats yield LCP values beyond the byte range
+            final int[] input = new int[length + SuffixArrays.MAX_EXTRA_TRAILING_SPACE];
+            for (int i = 0; i < length; i++) {
+                input[i] = (i % 600 < 400 ? i % 600 : random.nextInt(3));
+            }
+            final SuffixData plain = SuffixArrays.createWithLCP(input, 0, length, new SAIS());
+            final SuffixData compact = plain.compact();
+
+            assertTrue(compact.isCompact());
+            assertEquals(plain.size(), compact.size());
+            assertArrayEquals(plain.getSuffixArray(), compact.getSuffixArray());
+            assertArrayEquals(plain.getLCP(), compact.getLCP());
+            for (int i = 0; i < length; i++) {
+                assertEquals(plain.suffix(i), compact.suffix(i));
+                assertEquals(plain.lcp(i), compact.lcp(i));
+            }
+        }
+    }
+
+    @Test
+    public void bufferedDataEqualsPlainData() {
+        final SuffixData plain = SuffixArrays.createWithLCP("the black cat and the black dog and the white cat");
+        final int length = plain.size();
+        final int[] sa = Arrays.copyOf(plain.getSuffixArray(), length);
+        final int[] lcp = Arrays.copyOf(plain.getLCP(), length);
+        final IntBuffer buffer = IntBuffer.allocate(3 + 2 * length);
+        buffer.put(new int[] { 1, 2, 3 }).put(sa).put(lcp);
+
+        final SuffixData buffered = SuffixData.of(buffer, 3, length);
+        assertFalse(buffered.isCompact());
+        assertEquals(length, buffered.size());
+        assertArrayEquals(sa, buffered.getSuffixArray());
+        assertArrayEquals(lcp, buffered.getLCP());
+        assertArrayEquals(sa, buffered.compact().getSuffixArray());
+        assertArrayEquals(lcp, buffered.compact().getLCP());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void bufferedDataMustFitIntoBuffer() {
+        SuffixData.of(IntBuffer.allocate(10), 1, 5);
+    }
+
+    @Test
+    public void postorderTraversesCompactData() {
+        final CharSequence text = "the black cat and the black dog and the white cat";
+        final SuffixData plain = SuffixArrays.createWithLCP(text);
+        final List<String> expected = new ArrayList<>();
+        Traversals.postorder(text.length(), plain.getSuffixArray(), plain.getLCP(), (start, length, leaf) -> expected.add(start + "/" + length + "/" + leaf));
+
+        final List<String> actual = new ArrayList<>();
+        Traversals.postorder(text.length(), plain.compact(), (start, length, leaf) -> actual.add(start + "/" + length + "/" + leaf));
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Renders graphs with a shell script standing in for <code>dot</code>: it logs its process id per run, echoes its
+ * input as the rendered result, waits for a release file to appear if the input contains "block", and hangs if the
+ * input contains "hang".
+ */
+public class GraphvizRendererTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path runs;
+    private Path release;
+    private String dot;
+
+    @Before
+    public void createDot() throws IOException {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+        final Path directory = temporaryFolder.getRoot().toPath();
+        runs = directory.resolve("runs");
+        release = directory.resolve("release");
+        final Path script = directory.resolve("dot");
+        Files.write(script, String.join("\n",
+            "#!/bin/sh",
+            "echo $$ >> '" + runs + "'",
+            "input=$(cat)",
+            "case \"$input\" in",
+            "  *block*) while [ ! -f '" + release + "' ]; do sleep 0.05; done ;;",
+            "  *hang*) exec sleep 60 ;;",
+            "esac",
+            "printf '<svg>%s</svg>' \"$input\"",
+            ""
+        ).getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        dot = script.toString();
+    }
+
+    @Test(timeout = 30000)
+    public void cachesRenderingsByContent() throws Exception {
+        try (GraphvizRenderer renderer = new GraphvizRenderer(dot, 1, 4, 10, TimeUnit.SECONDS, 2)) {
+            assertEquals("<svg>a</svg>", render(renderer, "a"));
+            assertEquals("<svg>a</svg>", render(renderer, "a"));
+            assertEquals(1, runs().size());
+
+            // "a" is used more recently than "b", so "c" evicts "b"
+            render(renderer, "b");
+            render(renderer, "a");
+            render(renderer, "c");
+            assertEquals(3, runs().size());
+            render(renderer, "a");
+            assertEquals(3, runs().size());
+            render(renderer, "b");
+            assertEquals(4, runs().size());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void sharesConcurrentRenderings() throws Exception {
+        try (GraphvizRenderer renderer = new GraphvizRenderer(dot, 2, 10, TimeUnit.SECONDS)) {
+            final CompletableFuture<byte[]> first = renderer.render("block");
+            final CompletableFuture<byte[]> second = renderer.render("block");
+            assertSame(first, second);
+
+            Files.createFile(release);
+            assertEquals("<svg>block</svg>", new String(second.get(), StandardCharsets.UTF_8));
+            assertEquals(1, runs().size());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void rejectsRenderingsBeyondTheQueue() throws Exception {
+        try (GraphvizRenderer renderer = new GraphvizRenderer(dot, 1, 1, 10, TimeUnit.SECONDS, 16)) {
+            final CompletableFuture<byte[]> running = renderer.render("block 1");
+            while (renderer.active() == 0) {
+                Thread.sleep(10);
+            }
+            final CompletableFuture<byte[]> queued = renderer.render("block 2");
+            assertEquals(1, renderer.queued());
+            try {
+                renderer.render("block 3");
+                fail();
+            } catch (RejectedExecutionException e) {
+            }
+
+            Files.createFile(release);
+            assertEquals("<svg>block 1</svg>", new String(running.get(), StandardCharsets.UTF_8));
+            assertEquals("<svg>block 2</svg>", new String(queued.get(), StandardCharsets.UTF_8));
+            assertEquals(2, runs().size());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void killsProcessesExceedingTheTimeout() throws Exception {
+        try (GraphvizRenderer renderer = new GraphvizRenderer(dot, 1, 500, TimeUnit.MILLISECONDS)) {
+            try {
+                renderer.render("hang").get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(GraphvizRenderer.cause(e) instanceof TimeoutException);
+            }
+            final String pid = runs().get(0);
+            while (isAlive(pid)) {
+                Thread.sleep(10);
+            }
+            assertFalse(isAlive(pid));
+        }
+    }
+
+    private static String render(GraphvizRenderer renderer, String dot) throws Exception {
+        return new String(renderer.render(dot).get(), StandardCharsets.UTF_8);
+    }
+
+    private List<String> runs() throws IOException {
+        return Files.readAllLines(runs, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isAlive(String pid) throws IOException, InterruptedException {
+        return new ProcessBuilder("kill", "-0", pid).start().waitFor() == 0;
+    }
+}
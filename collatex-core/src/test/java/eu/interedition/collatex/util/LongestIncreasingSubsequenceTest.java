@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongestIncreasingSubsequenceTest {
+
+    @Test
+    public void empty() {
+        assertArrayEquals(new int[0], LongestIncreasingSubsequence.of(new int[0]));
+    }
+
+    @Test
+    public void transposedAnchor() {
+        // anchors by witness position, given by their graph rank: the one at rank 0 is out of order
+        assertArrayEquals(new int[] { 0, 1, 3 }, LongestIncreasingSubsequence.of(new int[] { 2, 4, 0, 7 }));
+    }
+
+    @Test
+    public void strictlyIncreasing() {
+        // anchors of equal rank conflict, so only one of them is kept
+        final int[] subsequence = LongestIncreasingSubsequence.of(new int[] { 1, 1, 2 });
+        assertEquals(2, subsequence.length);
+        assertEquals(2, subsequence[1]);
+        assertEquals(1,LongestIncreasingSubsequence.of(new int[] { 3, 3, 3 }).length);
+    }
+
+    @Test
+    public void longestOfRandomSequences() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 500; run++) {
+            final int[] values = random.ints(random.nextInt(40), 0, 20).toArray();
+            final int[] subsequence = LongestIncreasingSubsequence.of(values);
+
+            assertEquals(longest(values), subsequence.length);
+            for (int i = 1; i < subsequence.length; i++) {
+                assertTrue(subsequence[i - 1] < subsequence[i]);
+                assertTrue(values[subsequence[i - 1]] < values[subsequence[i]]);
+            }
+        }
+    }
+
+    /**
+     * The length of the longest strictly increasing subsequence, by quadratic dynamic programming.
+     */
+    private static int longest(int[] values) {
+        final int[] lengths = new int[values.length];
+        int longest = 0;
+        for (int i = 0; i < values.length; i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (values[j] < values[i]) {
+                    lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+                }
+            }
+            longest = Math.max(longest, lengths[i]);
+        }
+        return longest;
+    }
+}
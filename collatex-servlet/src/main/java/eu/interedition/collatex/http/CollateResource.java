@@ -25,9 +25,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
@@ -36,12 +39,16 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.simple.SimpleCollation;
 import eu.interedition.collatex.simple.SimpleToken;
@@ -54,6 +61,8 @@ import eu.interedition.collatex.simple.SimpleWitness;
 @Path("/")
 public class CollateResource {
 
+    private static final long COLLATION_TIMEOUT_SECONDS = 60;
+
     private final File staticPath;
     private final Date initial = new Date();
 
@@ -61,9 +70,18 @@ public class CollateResource {
     private final ExecutorService executor;
 
     public CollateResource(String staticPath, int maxParallelCollations, int maxCollationSize) {
+        this(staticPath, maxParallelCollations, maxParallelCollations * 10, maxCollationSize);
+    }
+
+    /**
+     * @param maxQueuedCollations the number of collations waiting for one of the <code>maxParallelCollations</code>
+     *                            threads, beyond which further requests are rejected
+     */
+    public CollateResource(String staticPath, int maxParallelCollations, int maxQueuedCollations, int maxCollationSize) {
         this.staticPath = staticPath == null || "".equals(staticPath) ? null : new File(staticPath);
         this.maxCollationSize = maxCollationSize;
-        this.executor = Executors.newFixedThreadPool(maxParallelCollations, r -> {
+        this.executor = new ThreadPoolExecutor(maxParallelCollations, maxParallelCollations, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueuedCollations), r -> {
             final Thread t = new Thread(r, CollateResource.class.getName());
             t.setDaemon(true);
             t.setPriority(Thread.MIN_PRIORITY);
@@ -95,15 +113,20 @@ public class CollateResource {
         return corsSupport(hh, Response.ok()).build();
     }
 
+    /**
+     * Collates asynchronously, releasing the container's thread while the collation is queued and runs. Collations are
+     * given up after a timeout; requests exceeding the capacity of the collation queue are rejected right away. In both
+     * cases, clients are answered with <code>503 Service Unavailable</code>.
+     */
     @Path("collate")
     @POST
-    public Response collate(final SimpleCollation collation, @Context HttpHeaders hh) throws ExecutionException, InterruptedException {
+    public void collate(final SimpleCollation collation, @Context HttpHeaders hh, @Suspended AsyncResponse response) {
         if (maxCollationSize > 0) {
             for (SimpleWitness witness : collation.getWitnesses()) {
                 final int witnessLength = witness.getTokens().stream()
                         .filter(t -> t instanceof SimpleToken).map(t -> (SimpleToken) t).mapToInt(t -> t.getContent().length()).sum();
                 if (witnessLength > maxCollationSize) {
-                    return Response.status(new Response.StatusType() {
+                    response.resume(Response.status(new Response.StatusType() {
                         @Override
                         public int getStatusCode() {
                             return 413;
@@ -118,15 +141,36 @@ public class CollateResource {
                         public String getReasonPhrase() {
                             return "Request Entity Too Large";
                         }
-                    }).build();
+                    }).build());
+                    return;
                 }
             }
         }
 
-        return corsSupport(hh, Response.ok(executor.submit(() -> {
-            final VariantGraph graph = new VariantGraph();
-            return (collation == null ? graph : collation.collate(graph));
-        }).get())).build();
+        final Cancellation cancellation = Cancellation.withTimeout(COLLATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        response.setTimeout(COLLATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        response.setTimeoutHandler(timedOut -> {
+            cancellation.cancel();
+            timedOut.resume(corsSupport(hh, Response.status(Response.Status.SERVICE_UNAVAILABLE)).build());
+        });
+        response.register((CompletionCallback) throwable -> cancellation.cancel());
+
+        try {
+            executor.execute(() -> {
+                try {
+                    final VariantGraph graph = new VariantGraph();
+                    // the graph is serialized on this thread, as part of resuming the response, by writers reading a snapshot
+                    response.resume(corsSupport(hh, Response.ok((collation == null ? graph : collation.collate(graph, cancellation)).freeze())).build());
+                } catch (CancellationException e) {
+                    // timed out or completed otherwise
+                    response.resume(corsSupport(hh, Response.status(Response.Status.SERVICE_UNAVAILABLE)).build());
+                } catch (Throwable t) {
+                    response.resume(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.resume(corsSupport(hh, Response.status(Response.Status.SERVICE_UNAVAILABLE)).build());
+        }
     }
 
     Response.ResponseBuilder corsSupport(@Context HttpHeaders hh, Response.ResponseBuilder response) {
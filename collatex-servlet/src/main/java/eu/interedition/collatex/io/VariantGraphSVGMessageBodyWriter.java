@@ -2,6 +2,7 @@ package eu.interedition.collatex.io;
 
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.simple.SimpleVariantGraphSerializer;
+import eu.interedition.collatex.util.GraphvizRenderer;
 
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
@@ -11,10 +12,15 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
-import java.io.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by ronald on 5/6/15.
@@ -24,11 +30,14 @@ import java.util.concurrent.*;
 @Provider
 @Produces("image/svg+xml")
 public class VariantGraphSVGMessageBodyWriter implements MessageBodyWriter<VariantGraph> {
-    private String dotPath;
-    private final ExecutorService processThreads = Executors.newCachedThreadPool();
+    private final GraphvizRenderer renderer;
 
     public VariantGraphSVGMessageBodyWriter(String dotPath) {
-        this.dotPath = dotPath;
+        this(dotPath, Runtime.getRuntime().availableProcessors(), 30);
+    }
+
+    public VariantGraphSVGMessageBodyWriter(String dotPath, int maxParallelRenders, int renderTimeout) {
+        this.renderer = (dotPath == null ? null : new GraphvizRenderer(dotPath, maxParallelRenders, renderTimeout, TimeUnit.SECONDS));
     }
 
     @Override
@@ -43,61 +52,27 @@ public class VariantGraphSVGMessageBodyWriter implements MessageBodyWriter<Varia
 
     @Override
     public void writeTo(VariantGraph graph, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-        if (dotPath == null) {
+        if (renderer == null) {
             throw new WebApplicationException(Response.Status.NO_CONTENT);
         } else {
             final StringWriter dot = new StringWriter();
             new SimpleVariantGraphSerializer(graph).toDot(dot);
 
-            final Process dotProc = new ProcessBuilder(dotPath, "-Grankdir=LR", "-Gid=VariantGraph", "-Tsvg").start();
-            final StringWriter errors = new StringWriter();
+            final byte[] svg;
             try {
-                CompletableFuture.allOf(
-                    CompletableFuture.runAsync(() -> {
-                        final char[] buf = new char[8192];
-                        try (final Reader errorStream = new InputStreamReader(dotProc.getErrorStream())) {
-                            int len;
-                            while ((len = errorStream.read(buf)) >= 0) {
-                                errors.write(buf, 0, len);
-                            }
-                        } catch (IOException e) {
-                            throw new CompletionException(e);
-                        }
-                    }, processThreads),
-                    CompletableFuture.runAsync(() -> {
-                        try (final Writer dotProcStream = new OutputStreamWriter(dotProc.getOutputStream(), "UTF-8")) {
-                            dotProcStream.write(dot.toString());
-                        } catch (IOException e) {
-                            throw new CompletionException(e);
-                        }
-                    }, processThreads),
-                    CompletableFuture.runAsync(() -> {
-                        httpHeaders.add(HttpHeaders.CONTENT_TYPE, "image/svg+xml");
-                        final byte[] buf = new byte[8192];
-                        try (final InputStream in = dotProc.getInputStream(); final OutputStream out = entityStream) {
-                            int len;
-                            while ((len = in.read(buf)) >= 0) {
-                                out.write(buf, 0, len);
-                            }
-                        } catch (IOException e) {
-                            throw new CompletionException(e);
-                        }
-                    }, processThreads),
-                    CompletableFuture.runAsync(() -> {
-                        try {
-                            if (dotProc.waitFor() != 0) {
-                                throw new CompletionException(new IllegalStateException(errors.toString()));
-                            }
-                        } catch (InterruptedException e) {
-                            throw new CompletionException(e);
-                        }
-                    }, processThreads)
-                ).exceptionally(t -> {
-                    throw new WebApplicationException(t);
-                }).get();
-            } catch(InterruptedException|ExecutionException e) {
+                svg = renderer.render(dot.toString()).get();
+            } catch (RejectedExecutionException e) {
+                throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+            } catch (InterruptedException | ExecutionException e) {
+                if (GraphvizRenderer.cause(e) instanceof TimeoutException) {
+                    throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+                }
                 throw new WebApplicationException(e);
             }
+            httpHeaders.add(HttpHeaders.CONTENT_TYPE, "image/svg+xml");
+            try (final OutputStream out = entityStream) {
+                out.write(svg);
+            }
         }
     }
 }
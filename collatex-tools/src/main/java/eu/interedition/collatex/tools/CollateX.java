@@ -41,6 +41,8 @@ public class CollateX {
                 help();
             } else if (commandLine.hasOption("S")) {
                 CollationServer.start(commandLine);
+            } else if (commandLine.hasOption("b")) {
+                CollationBatch.start(commandLine);
             } else {
                 CollationPipe.start(commandLine);
             }
@@ -82,18 +84,26 @@ public class CollateX {
         OPTIONS.addOption("ie", "input-encoding", true, "charset to use for decoding non-XML witnesses; default: UTF-8");
         OPTIONS.addOption("oe", "output-encoding", true, "charset to use for encoding the output; default: UTF-8");
         OPTIONS.addOption("xml", "xml-mode", false, "witnesses are treated as XML documents");
-        OPTIONS.addOption("xp", "xpath", true, "XPath 1.0 expression evaluating to tokens of XML witnesses; default: '//text()'");
+        OPTIONS.addOption("xp", "xpath", true, "XPath 1.0 expression evaluating to tokens of XML witnesses, simple location paths are evaluated while streaming; default: '//text()'");
         OPTIONS.addOption("a", "algorithm", true, "progressive alignment algorithm to use 'dekker' (default), 'medite', 'needleman-wunsch'");
         OPTIONS.addOption("t", "tokenized", false, "consecutive matches of tokens will *not* be joined to segments");
         OPTIONS.addOption("f", "format", true, "result/output format: 'json', 'csv', 'dot', 'graphml', 'tei'");
         OPTIONS.addOption("s", "script", true, "ECMA/JavaScript resource with functions to be plugged into the alignment algorithm");
 
+        OPTIONS.addOption("b", "batch", true, "collate a batch of JSON requests, given inline or as resources, one per line; '-' for standard input");
+        OPTIONS.addOption("bw", "batch-workers", true, "number of batch requests to collate in parallel, default: number of processors");
+        OPTIONS.addOption("bo", "batch-output", true, "directory to write batch results to, one file per request; default: results are part of the JSON lines written to the output");
+        OPTIONS.addOption("u", "unordered", false, "write batch results as they complete instead of in request order");
+
         OPTIONS.addOption("S", "http", false, "start RESTful HTTP server");
         OPTIONS.addOption("cp", "context-path", true, "URL base/context path of the service, default: '/'");
         OPTIONS.addOption("dot", "dot-path", true, "path to Graphviz 'dot', auto-detected by default");
         OPTIONS.addOption("p", "port", true, "HTTP port to bind server to, default: 7369");
-        OPTIONS.addOption("mpc", "max-parallel-collations", true, "maximum number of collations to perform in parallel, default: 2");
+        OPTIONS.addOption("mpc", "max-parallel-collations", true, "maximum number of collations to perform in parallel, default: 2, or the number of processors with virtual threads");
+        OPTIONS.addOption("mpr", "max-parallel-renders", true, "maximum number of GraphViz processes to run in parallel, default: max-parallel-collations");
+        OPTIONS.addOption("rt", "render-timeout", true, "seconds after which a GraphViz process gets killed, default: 30");
         OPTIONS.addOption("mcs", "max-collation-size", true, "maximum number of characters (counted over all witnesses) to perform collations on, default: unlimited");
+        OPTIONS.addOption("vt", "virtual-threads", false, "handle requests and GraphViz processes on virtual threads (Java 21 and later)");
 
     }
 }
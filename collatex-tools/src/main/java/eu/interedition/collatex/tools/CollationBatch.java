@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleCollation;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collates many independent witness sets within one JVM.
+ * <p>
+ * The batch is read line by line: a line starting with <code>{</code> is taken as an inline collation request in the
+ * JSON format understood by {@link JsonProcessor#read(InputStream)}, any other non-empty line as a file or URL
+ * referring to such a request. Requests are collated in parallel on a fixed pool of workers. For every request one
+ * JSON line gets written to the output, carrying the request's id (its line number, or the file or URL it was read
+ * from, without extension), the time spent collating it in milliseconds and either the result, the path of the file
+ * the result was written to, or the error that made it fail. Result files are named after the line number and the
+ * base name of the request, so requests with the same base name do not overwrite each other's results.
+ */
+public class CollationBatch {
+
+    private static final Logger LOG = Logger.getLogger(CollationBatch.class.getName());
+
+    private final String algorithm;
+    private final Comparator<Token> comparator;
+    private final boolean tokenized;
+    private final String outputFormat;
+    private final Charset outputCharset;
+    private final File outputDirectory;
+
+    CollationBatch(String algorithm, Comparator<Token> comparator, boolean tokenized, String outputFormat, Charset outputCharset, File outputDirectory) {
+        this.algorithm = algorithm;
+        this.comparator = comparator;
+        this.tokenized = tokenized;
+        this.outputFormat = outputFormat;
+        this.outputCharset = outputCharset;
+        this.outputDirectory = outputDirectory;
+    }
+
+    public static void start(CommandLine commandLine) throws Exception {
+        Comparator<Token> comparator = new EqualityTokenComparator();
+        final String script = commandLine.getOptionValue("s");
+        if (script != null) {
+            try {
+                comparator = Optional.<Comparator<Token>>ofNullable(PluginScript.read(CollationPipe.argumentToInput(script)).comparator()).orElse(comparator);
+            } catch (IOException e) {
+                throw new ParseException("Failed to read script '" + script + "' - " + e.getMessage());
+            }
+        }
+
+        File outputDirectory = null;
+        if (commandLine.hasOption("bo")) {
+            outputDirectory = new File(commandLine.getOptionValue("bo"));
+            if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                throw new ParseException("Cannot create output directory '" + outputDirectory + "'");
+            }
+        }
+
+        final Charset outputCharset = Charset.forName(commandLine.getOptionValue("oe", StandardCharsets.UTF_8.name()));
+        final CollationBatch batch = new CollationBatch(
+            commandLine.getOptionValue("a", ""),
+            comparator,
+            commandLine.hasOption("t"),
+            commandLine.getOptionValue("f", "json").toLowerCase(),
+            outputCharset,
+            outputDirectory
+        );
+
+        final int workers = Integer.parseInt(commandLine.getOptionValue("bw", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        try (
+            BufferedReader in = new BufferedReader(new InputStreamReader(CollationPipe.argumentToInputStream(commandLine.getOptionValue("b")), StandardCharsets.UTF_8));
+            PrintWriter out = CollationPipe.argumentToOutput(commandLine.getOptionValue("o", "-"), outputCharset)
+        ) {
+            batch.run(in, out, workers, !commandLine.hasOption("u"));
+        }
+    }
+
+    /**
+     * Runs all requests read from the given reader, with at most <code>4 * workers</code> requests in flight.
+     *
+     * @param ordered whether result lines are written in the order of their requests or as soon as they complete
+     */
+    void run(BufferedReader in, PrintWriter out, int workers, boolean ordered) throws IOException, InterruptedException {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            final Thread t = new Thread(r, CollationBatch.class.getSimpleName() + "-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final int window = 4 * workers;
+            final Deque<CompletableFuture<String>> pending = new ArrayDeque<>(window);
+            final Semaphore inFlight = new Semaphore(window);
+            long lineNumber = 0;
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                final long itemNumber = ++lineNumber;
+                final String item = line.trim();
+                if (item.isEmpty()) {
+                    continue;
+                }
+                if (ordered) {
+                    if (pending.size() == window) {
+                        println(out, pending.removeFirst().join());
+                    }
+                    pending.addLast(CompletableFuture.supplyAsync(() -> collate(itemNumber, item), executor));
+                } else {
+                    inFlight.acquire();
+                    CompletableFuture.supplyAsync(() -> collate(itemNumber, item), executor)
+                        .thenAccept(result -> println(out, result))
+                        .whenComplete((result, t) -> {
+                            inFlight.release();
+                            if (t != null) {
+                                LOG.log(Level.SEVERE, t, () -> "Batch request " + itemNumber + " failed");
+                            }
+                        });
+                }
+            }
+            while (!pending.isEmpty()) {
+                println(out, pending.removeFirst().join());
+            }
+            inFlight.acquire(window);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void println(PrintWriter out, String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /**
+     * Collates a single request; never fails but reports errors in the returned line instead.
+     */
+    String collate(long itemNumber, String item) {
+        String id = Long.toString(itemNumber);
+        String name = id;
+        final long start = System.nanoTime();
+        final StringWriter record = new StringWriter();
+        try {
+            final SimpleCollation collation;
+            if (item.startsWith("{")) {
+                collation = JsonProcessor.read(new ByteArrayInputStream(item.getBytes(StandardCharsets.UTF_8)));
+            } else {
+                id = item.replaceFirst("\\.[^./\\\\]*$", "");
+                name = itemNumber + "-" + new File(id).getName();
+                try (InputStream stream = CollationPipe.argumentToInputStream(item)) {
+                    collation = JsonProcessor.read(stream);
+                }
+            }
+
+            final Comparator<Token> collationComparator = (comparator instanceof PluginScript.ScriptComparator
+                ? ((PluginScript.ScriptComparator) comparator).ranked(collation.getWitnesses())
+                : comparator);
+            final CollationAlgorithm collationAlgorithm = CollationPipe.algorithm(algorithm, collationComparator, collation.getAlgorithm());
+            final VariantGraph graph = new VariantGraph();
+            collationAlgorithm.collate(graph, collation.getWitnesses());
+            if (collation.isJoined() && !tokenized) {
+                VariantGraph.JOIN.apply(graph);
+            }
+            final long elapsed = (System.nanoTime() - start) / 1000000;
+
+            if (outputDirectory == null) {
+                try (JsonGenerator jgen = Json.createGenerator(record)) {
+                    jgen.writeStartObject();
+                    jgen.write("id", id);
+                    jgen.write("ms", elapsed);
+                    JsonProcessor.write(jgen, "result", graph);
+                    jgen.writeEnd();
+                }
+            } else {
+                final File output = new File(outputDirectory, name + "." + outputFormat);
+                try (PrintWriter out = CollationPipe.argumentToOutput(output.getPath(), outputCharset)) {
+                    CollationPipe.write(graph, outputFormat, outputCharset, out);
+                }
+                try (JsonGenerator jgen = Json.createGenerator(record)) {
+                    jgen.writeStartObject();
+                    jgen.write("id", id);
+                    jgen.write("ms", elapsed);
+                    jgen.write("output", output.getPath());
+                    jgen.writeEnd();
+                }
+            }
+        } catch (Exception e) {
+            record.getBuffer().setLength(0);
+            try (JsonGenerator jgen = Json.createGenerator(record)) {
+                jgen.writeStartObject();
+                jgen.write("id", id);
+                jgen.write("ms", (System.nanoTime() - start) / 1000000);
+                jgen.write("error", String.valueOf(e.getMessage() == null ? e : e.getMessage()));
+                jgen.writeEnd();
+            }
+        }
+        return record.toString();
+    }
+}
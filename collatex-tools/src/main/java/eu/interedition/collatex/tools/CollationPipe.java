@@ -86,6 +86,7 @@ public class CollationPipe {
         }
 
         final String script = commandLine.getOptionValue("s");
+        PluginScript.ScriptComparator scriptComparator = null;
         try {
             final PluginScript pluginScript = (script == null
                 ? PluginScript.read("<internal>", new StringReader(""))
@@ -93,43 +94,64 @@ public class CollationPipe {
 
             tokenizer = Optional.ofNullable(pluginScript.tokenizer()).orElse(tokenizer);
             normalizer = Optional.ofNullable(pluginScript.normalizer()).orElse(normalizer);
-            comparator = Optional.ofNullable(pluginScript.comparator()).orElse(comparator);
+            scriptComparator = pluginScript.comparator();
         } catch (IOException e) {
             throw new ParseException("Failed to read script '" + script + "' - " + e.getMessage());
         }
 
-        switch (commandLine.getOptionValue("a", "").toLowerCase()) {
-            case "needleman-wunsch":
-                collationAlgorithm = CollationAlgorithmFactory.needlemanWunsch(comparator);
-                break;
-            case "medite":
-                collationAlgorithm = CollationAlgorithmFactory.medite(comparator, SimpleToken.TOKEN_MATCH_EVALUATOR);
-                break;
-            case "gst":
-                collationAlgorithm = CollationAlgorithmFactory.greedyStringTiling(comparator, 2);
-                break;
-            default:
-                collationAlgorithm = Optional.ofNullable(collationAlgorithm).orElse(CollationAlgorithmFactory.dekker(comparator));
-                break;
-        }
-
         if (witnesses == null) {
             final Charset inputCharset = Charset.forName(commandLine.getOptionValue("ie", StandardCharsets.UTF_8.name()));
             final boolean xmlMode = commandLine.hasOption("xml");
-            final XPathExpression tokenXPath = XPathFactory.newInstance().newXPath().compile(commandLine.getOptionValue("xp", "//text()"));
+            final String tokenXPathExpression = commandLine.getOptionValue("xp", "//text()");
+            SimpleStreamingXPath streamingTokenXPath = null;
+            XPathExpression tokenXPath = null;
+            if (xmlMode) {
+                try {
+                    streamingTokenXPath = SimpleStreamingXPath.compile(tokenXPathExpression);
+                } catch (IllegalArgumentException e) {
+                    // expressions beyond the subset evaluated on the fly need the whole document
+                    tokenXPath = XPathFactory.newInstance().newXPath().compile(tokenXPathExpression);
+                }
+            }
 
             witnesses = new ArrayList<>(inputStreams.length);
             for (int wc = 0, wl = inputStreams.length; wc < wl; wc++) {
                 try (InputStream stream = inputStreams[wc]) {
                     final String sigil = "w" + (wc + 1);
                     if (!xmlMode) {
-                        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, inputCharset));
-                        final StringWriter writer = new StringWriter();
-                        final char[] buf = new char[1024];
-                        while (reader.read(buf) != -1) {
-                            writer.write(buf);
+                        final Reader reader = new InputStreamReader(stream, inputCharset);
+                        if (tokenizer instanceof SimplePatternTokenizer.PatternTokenizer) {
+                            final Function<String, String> tokenNormalizer = normalizer;
+                            final SimpleWitness witness = new SimpleWitness(sigil);
+                            final List<Token> tokens = new ArrayList<>();
+                            final TextWitnessReader witnessReader = new TextWitnessReader(
+                                (SimplePatternTokenizer.PatternTokenizer) tokenizer,
+                                content -> tokens.add(new SimpleToken(witness, content, tokenNormalizer.apply(content)))
+                            );
+                            final File witnessFile = new File(witnessSpecs[wc]);
+                            if (witnessFile.isFile()) {
+                                witnessReader.read(witnessFile.toPath(), inputCharset);
+                            } else {
+                                witnessReader.read(reader);
+                            }
+                            witness.setTokens(tokens);
+                            witnesses.add(witness);
+                        } else {
+                            final StringWriter writer = new StringWriter();
+                            final char[] buf = new char[8192];
+                            int read;
+                            while ((read = reader.read(buf)) != -1) {
+                                writer.write(buf, 0, read);
+                            }
+                            witnesses.add(new SimpleWitness(sigil, writer.toString(), tokenizer, normalizer));
                         }
-                        witnesses.add(new SimpleWitness(sigil, writer.toString(), tokenizer, normalizer));
+                    } else if (streamingTokenXPath != null) {
+                        final Function<String, String> tokenNormalizer = normalizer;
+                        final SimpleWitness witness = new SimpleWitness(sigil);
+                        final List<Token> tokens = new ArrayList<>();
+                        streamingTokenXPath.evaluate(stream, tokenText -> tokens.add(new SimpleToken(witness, tokenText, tokenNormalizer.apply(tokenText))));
+                        witness.setTokens(tokens);
+                        witnesses.add(witness);
                     } else {
                         final DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
                         final Document document = documentBuilder.parse(stream);
@@ -149,6 +171,11 @@ public class CollationPipe {
             }
         }
 
+        if (scriptComparator != null) {
+            comparator = scriptComparator.ranked(witnesses);
+        }
+        collationAlgorithm = algorithm(commandLine.getOptionValue("a", ""), comparator, collationAlgorithm);
+
         final VariantGraph variantGraph = new VariantGraph();
         collationAlgorithm.collate(variantGraph, witnesses);
 
@@ -161,40 +188,57 @@ public class CollationPipe {
         final String outputFormat = commandLine.getOptionValue("f", "json").toLowerCase();
 
         try (PrintWriter out = argumentToOutput(output, outputCharset)) {
-            final SimpleVariantGraphSerializer serializer = new SimpleVariantGraphSerializer(variantGraph);
-            if ("csv".equals(outputFormat)) {
-                serializer.toCsv(out);
-            } else if ("dot".equals(outputFormat)) {
-                serializer.toDot(out);
-            } else if ("graphml".equals(outputFormat) || "tei".equals(outputFormat)) {
-                XMLStreamWriter xml = null;
-                try {
-                    xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
-                    xml.writeStartDocument(outputCharset.name(), "1.0");
-                    if ("graphml".equals(outputFormat)) {
-                        serializer.toGraphML(xml);
-                    } else {
-                        serializer.toTEI(xml);
-                    }
-                    xml.writeEndDocument();
-                } catch (XMLStreamException e) {
-                    throw new IOException(e);
-                } finally {
-                    if (xml != null) {
-                        try {
-                            xml.close();
-                        } catch (XMLStreamException e) {
-                            // ignored
-                        }
+            write(variantGraph, outputFormat, outputCharset, out);
+        }
+    }
+
+    static CollationAlgorithm algorithm(String name, Comparator<Token> comparator, CollationAlgorithm defaultAlgorithm) {
+        switch (name.toLowerCase()) {
+            case "needleman-wunsch":
+                return CollationAlgorithmFactory.needlemanWunsch(comparator);
+            case "medite":
+                return CollationAlgorithmFactory.medite(comparator, SimpleToken.TOKEN_MATCH_EVALUATOR);
+            case "gst":
+                return CollationAlgorithmFactory.greedyStringTiling(comparator, 2);
+            default:
+                return Optional.ofNullable(defaultAlgorithm).orElse(CollationAlgorithmFactory.dekker(comparator));
+        }
+    }
+
+    static void write(VariantGraph variantGraph, String outputFormat, Charset outputCharset, PrintWriter out) throws IOException {
+        final SimpleVariantGraphSerializer serializer = new SimpleVariantGraphSerializer(variantGraph);
+        if ("csv".equals(outputFormat)) {
+            serializer.toCsv(out);
+        } else if ("dot".equals(outputFormat)) {
+            serializer.toDot(out);
+        } else if ("graphml".equals(outputFormat) || "tei".equals(outputFormat)) {
+            XMLStreamWriter xml = null;
+            try {
+                xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+                xml.writeStartDocument(outputCharset.name(), "1.0");
+                if ("graphml".equals(outputFormat)) {
+                    serializer.toGraphML(xml);
+                } else {
+                    serializer.toTEI(xml);
+                }
+                xml.writeEndDocument();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                if (xml != null) {
+                    try {
+                        xml.close();
+                    } catch (XMLStreamException e) {
+                        // ignored
                     }
                 }
-            } else {
-                JsonProcessor.write(variantGraph, out);
             }
+        } else {
+            JsonProcessor.write(variantGraph, out);
         }
     }
 
-    private static URL argumentToInput(String arg) throws MalformedURLException {
+    static URL argumentToInput(String arg) throws MalformedURLException {
         final File witnessFile = new File(arg);
         if (witnessFile.exists()) {
             return witnessFile.toURI().normalize().toURL();
@@ -203,7 +247,7 @@ public class CollationPipe {
         }
     }
 
-    private static InputStream argumentToInputStream(String arg) throws IOException {
+    static InputStream argumentToInputStream(String arg) throws IOException {
         if ("-".equals(arg)) {
 	    return System.in;
         }
@@ -215,7 +259,7 @@ public class CollationPipe {
         }
     }
 
-    private static PrintWriter argumentToOutput(String arg, Charset outputCharset) throws ParseException, IOException {
+    static PrintWriter argumentToOutput(String arg, Charset outputCharset) throws ParseException, IOException {
         if ("-".equals(arg)) {
             return new PrintWriter(new OutputStreamWriter(System.out, outputCharset));
         }
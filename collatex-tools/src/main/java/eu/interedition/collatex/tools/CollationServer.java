@@ -19,11 +19,14 @@
 
 package eu.interedition.collatex.tools;
 
+import eu.interedition.collatex.Cancellation;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.simple.SimpleCollation;
 import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.simple.SimpleVariantGraphSerializer;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.GraphvizRenderer;
+import eu.interedition.collatex.util.VirtualThreads;
 import org.apache.commons.cli.CommandLine;
 import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.http.CompressionConfig;
@@ -53,14 +56,36 @@ import java.util.stream.Collectors;
  */
 public class CollationServer {
     private static final Logger LOG = Logger.getLogger(CollationServer.class.getName());
+    private static final long COLLATION_TIMEOUT_SECONDS = 60;
 
     private final int maxCollationSize;
-    private final String dotPath;
-    private final ExecutorService collationThreads;
-    private final ExecutorService processThreads = Executors.newCachedThreadPool();
+    private final ThreadPoolExecutor collationThreads;
+    private final ExecutorService ioThreads;
+    private final Executor responseThreads;
+    private final GraphvizRenderer svgRenderer;
+    private final ServerMetrics metrics;
 
     public CollationServer(int maxParallelCollations, int maxCollationSize, String dotPath) {
-        this.collationThreads = Executors.newFixedThreadPool(maxParallelCollations, new ThreadFactory() {
+        this(maxParallelCollations, maxCollationSize, dotPath, maxParallelCollations, 30);
+    }
+
+    public CollationServer(int maxParallelCollations, int maxCollationSize, String dotPath, int maxParallelRenders, int renderTimeout) {
+        this(maxParallelCollations, maxCollationSize, dotPath, maxParallelRenders, renderTimeout, false);
+    }
+
+    /**
+     * @param virtualThreads whether to handle requests, stream responses and feed and drain GraphViz processes on
+     *                       virtual threads, leaving the platform threads of the collation pool to the collations
+     *                       themselves; ignored with a warning on runtimes not supporting virtual threads
+     */
+    public CollationServer(int maxParallelCollations, int maxCollationSize, String dotPath, int maxParallelRenders, int renderTimeout, boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            LOG.warning("Virtual threads are not supported by this Java runtime; falling back to platform threads");
+            virtualThreads = false;
+        }
+        this.ioThreads = (virtualThreads ? VirtualThreads.newThreadPerTaskExecutor("http-") : null);
+        this.responseThreads = (virtualThreads ? ioThreads : Runnable::run);
+        this.collationThreads = new ThreadPoolExecutor(maxParallelCollations, maxParallelCollations, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
             private final AtomicLong counter = new AtomicLong();
 
             @Override
@@ -72,15 +97,26 @@ public class CollationServer {
             }
         });
 
+        this.metrics = new ServerMetrics(collationThreads);
         this.maxCollationSize = maxCollationSize;
-        this.dotPath = dotPath;
+        this.svgRenderer = (dotPath == null ? null : virtualThreads
+            ? new GraphvizRenderer(dotPath, maxParallelRenders, GraphvizRenderer.DEFAULT_QUEUE_CAPACITY, renderTimeout, TimeUnit.SECONDS,
+                GraphvizRenderer.DEFAULT_CACHE_SIZE, VirtualThreads.newThreadPerTaskExecutor("dot-io-"))
+            : new GraphvizRenderer(dotPath, maxParallelRenders, renderTimeout, TimeUnit.SECONDS));
     }
 
     public static void start(CommandLine commandLine) {
+        final boolean virtualThreads = commandLine.hasOption("vt");
+        // with virtual threads handling all blocking I/O, collations can occupy all processors
+        final int maxParallelCollations = Integer.parseInt(commandLine.getOptionValue("mpc",
+            virtualThreads ? Integer.toString(Runtime.getRuntime().availableProcessors()) : "2"));
         final CollationServer collator = new CollationServer(
-            Integer.parseInt(commandLine.getOptionValue("mpc", "2")),
+            maxParallelCollations,
             Integer.parseInt(commandLine.getOptionValue("mcs", "0")),
-            Optional.ofNullable(commandLine.getOptionValue("dot")).orElse(detectDotPath())
+            Optional.ofNullable(commandLine.getOptionValue("dot")).orElse(detectDotPath()),
+            Integer.parseInt(commandLine.getOptionValue("mpr", Integer.toString(maxParallelCollations))),
+            Integer.parseInt(commandLine.getOptionValue("rt", "30")),
+            virtualThreads
         );
         final String staticPath = System.getProperty("collatex.static.path", "");
         final HttpHandler httpHandler = staticPath.isEmpty() ? new CLStaticHttpHandler(CollationPipe.class.getClassLoader(), "/static/") {
@@ -96,6 +132,9 @@ public class CollationServer {
         };
 
         final NetworkListener httpListener = new NetworkListener("http", "0.0.0.0", Integer.parseInt(commandLine.getOptionValue("p", "7369")));
+        if (collator.ioThreads != null) {
+            httpListener.getTransport().setWorkerThreadPool(collator.ioThreads);
+        }
 
         final CompressionConfig compressionConfig = httpListener.getCompressionConfig();
         compressionConfig.setCompressionMode(CompressionConfig.CompressionMode.ON);
@@ -124,148 +163,201 @@ public class CollationServer {
 
     public void service(Request request, Response response) throws Exception {
         final Deque<String> path = path(request);
-        if (path.isEmpty() || !"collate".equals(path.pop())) {
+        final String resource = (path.isEmpty() ? "" : path.pop());
+        if ("metrics".equals(resource)) {
+            response.setContentType("text/plain; version=0.0.4");
+            response.setCharacterEncoding("utf-8");
+            try (PrintWriter out = new PrintWriter(response.getWriter())) {
+                metrics.write(out);
+            }
+            return;
+        }
+        if (!"collate".equals(resource)) {
             response.sendError(404);
             return;
         }
 
+        final long start = System.nanoTime();
+        final String clientAccepts = Optional.ofNullable(request.getHeader(Header.Accept)).orElse("");
+        final String format = outputFormat(clientAccepts);
+
         final SimpleCollation collation = JsonProcessor.read(request.getInputStream());
+        metrics.collationReceived(collation.getWitnesses().size(), collation.getWitnesses().stream().mapToLong(w -> w.getTokens().size()).sum());
         if (maxCollationSize > 0) {
             for (SimpleWitness witness : collation.getWitnesses()) {
                 final int witnessLength = witness.getTokens().stream()
                         .filter(t -> t instanceof SimpleToken).map(t -> (SimpleToken) t).mapToInt(t -> t.getContent().length()).sum();
                 if (witnessLength > maxCollationSize) {
+                    metrics.requestRejected("too_large");
                     response.sendError(413, "Request Entity Too Large");
                     return;
                 }
             }
         }
 
-        response.suspend(60, TimeUnit.SECONDS, new EmptyCompletionHandler<>());
-        collationThreads.submit(() -> {
+        // give up collations as soon as their responses time out or their clients disconnect
+        final Cancellation cancellation = Cancellation.withTimeout(COLLATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        response.suspend(COLLATION_TIMEOUT_SECONDS, TimeUnit.SECONDS, new EmptyCompletionHandler<Response>() {
+            @Override
+            public void cancelled() {
+                cancellation.cancel();
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                cancellation.cancel();
+            }
+        });
+        // executed rather than submitted, as a future would swallow any failure not handled here
+        collationThreads.execute(() -> {
+            final VariantGraph graph;
             try {
-                final VariantGraph graph = new VariantGraph();
-                collation.collate(graph);
-
-                // CORS support
-                response.setHeader("Access-Control-Allow-Origin", Optional.ofNullable(request.getHeader("Origin")).orElse("*"));
-                response.setHeader("Access-Control-Allow-Methods", Optional.ofNullable(request.getHeader("Access-Control-Request-Method")).orElse("GET, POST, HEAD, OPTIONS"));
-                response.setHeader("Access-Control-Allow-Headers", Optional.ofNullable(request.getHeader("Access-Control-Request-Headers")).orElse("Content-Type, Accept, X-Requested-With"));
-                response.setHeader("Access-Control-Max-Age", "86400");
-                response.setHeader("Access-Control-Allow-Credentials", "true");
-
-                final String clientAccepts = Optional.ofNullable(request.getHeader(Header.Accept)).orElse("");
-
-                if (clientAccepts.contains("text/plain")) {
-                    response.setContentType("text/plain");
-                    response.setCharacterEncoding("utf-8");
-                    try (final Writer out = response.getWriter()) {
-                        new SimpleVariantGraphSerializer(graph).toDot(out);
-                    }
-                    response.resume();
+                // responses are written on other threads, so they get an immutable snapshot
+                graph = collation.collate(new VariantGraph(), cancellation).freeze();
+            } catch (CancellationException e) {
+                metrics.requestRejected("timeout");
+                LOG.log(Level.FINE, e, e::getMessage);
+                return;
+            } catch (Throwable t) {
+                metrics.collationFailed();
+                LOG.log(Level.WARNING, t, () -> "Failed to collate: " + t.getMessage());
+                try {
+                    response.sendError(500);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, e, () -> "Failed to write error response: " + e.getMessage());
+                } finally {
+                    resume(response, format, start);
+                }
+                return;
+            }
+            // streaming the response blocks on the client, so it may leave the bounded pool of collation threads
+            responseThreads.execute(() -> respond(request, response, graph, clientAccepts, format, start));
+        });
+    }
 
-                } else if (clientAccepts.contains("application/tei+xml")) {
-                    XMLStreamWriter xml = null;
-                    try {
-                        response.setContentType("application/tei+xml");
-                        try (OutputStream responseStream = response.getOutputStream()) {
-                            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
-                            xml.writeStartDocument();
-                            new SimpleVariantGraphSerializer(graph).toTEI(xml);
-                            xml.writeEndDocument();
-                        } finally {
-                            if (xml != null) {
-                                xml.close();
-                            }
+    private void respond(Request request, Response response, VariantGraph graph, String clientAccepts, String format, long start) {
+        try {
+            // CORS support
+            response.setHeader("Access-Control-Allow-Origin", Optional.ofNullable(request.getHeader("Origin")).orElse("*"));
+            response.setHeader("Access-Control-Allow-Methods", Optional.ofNullable(request.getHeader("Access-Control-Request-Method")).orElse("GET, POST, HEAD, OPTIONS"));
+            response.setHeader("Access-Control-Allow-Headers", Optional.ofNullable(request.getHeader("Access-Control-Request-Headers")).orElse("Content-Type, Accept, X-Requested-With"));
+            response.setHeader("Access-Control-Max-Age", "86400");
+            response.setHeader("Access-Control-Allow-Credentials", "true");
+
+            if (clientAccepts.contains("text/plain")) {
+                response.setContentType("text/plain");
+                response.setCharacterEncoding("utf-8");
+                try (final Writer out = response.getWriter()) {
+                    new SimpleVariantGraphSerializer(graph).toDot(out);
+                }
+                resume(response, format, start);
+
+            } else if (clientAccepts.contains("application/tei+xml")) {
+                XMLStreamWriter xml = null;
+                try {
+                    response.setContentType("application/tei+xml");
+                    try (OutputStream responseStream = response.getOutputStream()) {
+                        xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
+                        xml.writeStartDocument();
+                        new SimpleVariantGraphSerializer(graph).toTEI(xml);
+                        xml.writeEndDocument();
+                    } finally {
+                        if (xml != null) {
+                            xml.close();
                         }
-                        response.resume();
-                    } catch (XMLStreamException e) {
-                        e.printStackTrace();
                     }
-                } else if (clientAccepts.contains("application/graphml+xml")) {
-                    XMLStreamWriter xml = null;
-                    try {
-                        response.setContentType("application/graphml+xml");
-                        try (OutputStream responseStream = response.getOutputStream()) {
-                            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
-                            xml.writeStartDocument();
-                            new SimpleVariantGraphSerializer(graph).toGraphML(xml);
-                            xml.writeEndDocument();
-                        } finally {
-                            if (xml != null) {
-                                xml.close();
-                            }
+                    resume(response, format, start);
+                } catch (XMLStreamException e) {
+                    e.printStackTrace();
+                }
+            } else if (clientAccepts.contains("application/graphml+xml")) {
+                XMLStreamWriter xml = null;
+                try {
+                    response.setContentType("application/graphml+xml");
+                    try (OutputStream responseStream = response.getOutputStream()) {
+                        xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
+                        xml.writeStartDocument();
+                        new SimpleVariantGraphSerializer(graph).toGraphML(xml);
+                        xml.writeEndDocument();
+                    } finally {
+                        if (xml != null) {
+                            xml.close();
                         }
-                        response.resume();
-                    } catch (XMLStreamException e) {
-                        e.printStackTrace();
-                    }
-                } else if (clientAccepts.contains("image/svg+xml")) {
-                    if (dotPath == null) {
-                        response.sendError(204);
-                        response.resume();
-                    } else {
-                        final StringWriter dot = new StringWriter();
-                        new SimpleVariantGraphSerializer(graph).toDot(dot);
-
-                        final Process dotProc = new ProcessBuilder(dotPath, "-Grankdir=LR", "-Gid=VariantGraph", "-Tsvg").start();
-                        final StringWriter errors = new StringWriter();
-                        CompletableFuture.allOf(
-                            CompletableFuture.runAsync(() -> {
-                                final char[] buf = new char[8192];
-                                try (final Reader errorStream = new InputStreamReader(dotProc.getErrorStream())) {
-                                    int len;
-                                    while ((len = errorStream.read(buf)) >= 0) {
-                                        errors.write(buf, 0, len);
-                                    }
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                try (final Writer dotProcStream = new OutputStreamWriter(dotProc.getOutputStream(), "UTF-8")) {
-                                    dotProcStream.write(dot.toString());
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                response.setContentType("image/svg+xml");
-                                final byte[] buf = new byte[8192];
-                                try (final InputStream in = dotProc.getInputStream(); final OutputStream out = response.getOutputStream()) {
-                                    int len;
-                                    while ((len = in.read(buf)) >= 0) {
-                                        out.write(buf, 0, len);
-                                    }
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                try {
-                                    if (dotProc.waitFor() != 0) {
-                                        throw new CompletionException(new IllegalStateException(errors.toString()));
-                                    }
-                                } catch (InterruptedException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads)
-                        ).exceptionally(t -> {
-                            t.printStackTrace();
-                            return null;
-                        }).thenRunAsync(response::resume, processThreads);
                     }
+                    resume(response, format, start);
+                } catch (XMLStreamException e) {
+                    e.printStackTrace();
+                }
+            } else if (clientAccepts.contains("image/svg+xml")) {
+                if (svgRenderer == null) {
+                    response.sendError(204);
+                    resume(response, format, start);
                 } else {
-                    response.setContentType("application/json");
-                    try (final OutputStream responseStream = response.getOutputStream()) {
-                        JsonProcessor.write(graph, responseStream);
+                    final StringWriter dot = new StringWriter();
+                    new SimpleVariantGraphSerializer(graph).toDot(dot);
+
+                    final long renderStart = System.nanoTime();
+                    CompletableFuture<byte[]> svg;
+                    try {
+                        svg = svgRenderer.render(dot.toString());
+                    } catch (RejectedExecutionException e) {
+                        metrics.requestRejected("render_saturated");
+                        response.sendError(503, "Service Unavailable");
+                        resume(response, format, start);
+                        return;
                     }
-                    response.resume();
+                    svg.whenCompleteAsync((rendered, t) -> {
+                        try {
+                            if (t == null) {
+                                metrics.renderCompleted(renderStart);
+                                response.setContentType("image/svg+xml");
+                                try (final OutputStream out = response.getOutputStream()) {
+                                    out.write(rendered);
+                                }
+                            } else if (GraphvizRenderer.cause(t) instanceof TimeoutException) {
+                                response.sendError(503, "Service Unavailable");
+                            } else {
+                                LOG.log(Level.WARNING, t, t::getMessage);
+                                response.sendError(500);
+                            }
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, e, () -> "Failed to write SVG response: " + e.getMessage());
+                        } finally {
+                            resume(response, format, start);
+                        }
+                    }, responseThreads);
+                }
+            } else {
+                response.setContentType("application/json");
+                try (final OutputStream responseStream = response.getOutputStream()) {
+                    JsonProcessor.write(graph, responseStream);
                 }
-            } catch (IOException e) {
-                // FIXME: ignored
+                resume(response, format, start);
             }
-        });
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e, () -> "Failed to write " + format + " response: " + e.getMessage());
+        }
+    }
+
+    private void resume(Response response, String format, long start) {
+        metrics.requestCompleted(format, start);
+        response.resume();
+    }
+
+    /**
+     * @return the output format requested by the given <code>Accept</code> header, as a label for metrics
+     */
+    private static String outputFormat(String clientAccepts) {
+        if (clientAccepts.contains("text/plain")) {
+            return "dot";
+        } else if (clientAccepts.contains("application/tei+xml")) {
+            return "tei";
+        } else if (clientAccepts.contains("application/graphml+xml")) {
+            return "graphml";
+        } else if (clientAccepts.contains("image/svg+xml")) {
+            return "svg";
+        }
+        return "json";
     }
 
     private static Deque<String> path(Request request) {
@@ -221,10 +221,21 @@ public class JsonProcessor {
     }
 
     protected static void write(JsonGenerator jgen, VariantGraph graph) {
+        write(jgen, null, graph);
+    }
+
+    /**
+     * Writes the alignment table of the given graph as an object, named if written as a member of an enclosing object.
+     */
+    protected static void write(JsonGenerator jgen, String name, VariantGraph graph) {
         ParallelSegmentationApparatus.generate(VariantGraphRanking.of(graph), new ParallelSegmentationApparatus.GeneratorCallback() {
             @Override
             public void start() {
-                jgen.writeStartObject();
+                if (name == null) {
+                    jgen.writeStartObject();
+                } else {
+                    jgen.writeStartObject(name);
+                }
 
                 jgen.writeStartArray("witnesses");
                 graph.witnesses().stream().sorted(Witness.SIGIL_COMPARATOR).map(Witness::getSigil).forEach(jgen::write);
@@ -32,12 +32,21 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -52,11 +61,26 @@ public class PluginScript {
     static final String NORMALIZER_FUNCTION = "normalize";
     static final String COMPARATOR_FUNCTION = "compare";
 
-    final Invocable script;
+    /**
+     * Upper bound of memoized normalizations and comparisons; beyond it, results are computed but not cached anymore.
+     */
+    static final int MAX_CACHE_SIZE = 1 << 20;
+
+    final String filename;
+    final String source;
     final boolean tokenizer;
     final boolean normalizer;
     final boolean comparator;
 
+    /**
+     * Script engines are not safe to be called from parallel collations; every invocation borrows an engine of its
+     * own, which is created on demand, so the pool grows up to the number of concurrent invocations.
+     */
+    private final Queue<Invocable> engines = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, String> normalized = new ConcurrentHashMap<>();
+    private final Map<ComparedPair, Integer> compared = new ConcurrentHashMap<>();
+
     public static PluginScript read(URL source) throws ScriptException, IOException {
         try (Reader sourceReader = new BufferedReader(new InputStreamReader(source.openStream(), SCRIPT_CHARSET))) {
             return read(source.toString(), sourceReader);
@@ -64,20 +88,34 @@ public class PluginScript {
     }
 
     public static PluginScript read(String filename, Reader source) throws ScriptException, IOException {
+        final StringWriter sourceBuffer = new StringWriter();
+        final char[] buf = new char[8192];
+        int read;
+        while ((read = source.read(buf)) != -1) {
+            sourceBuffer.write(buf, 0, read);
+        }
+        return new PluginScript(filename, sourceBuffer.toString());
+    }
+
+    PluginScript(String filename, String source) throws ScriptException {
+        this.filename = filename;
+        this.source = source;
+
+        final Invocable script = engine();
+        tokenizer = hasFunction(script, TOKENIZER_FUNCTION, "");
+        normalizer = hasFunction(script, NORMALIZER_FUNCTION, "");
+        comparator = hasFunction(script, COMPARATOR_FUNCTION, "", "");
+        engines.add(script);
+    }
+
+    Invocable engine() throws ScriptException {
         final ScriptEngine scriptEngine = Objects.requireNonNull(new ScriptEngineManager().getEngineByExtension("js"));
         scriptEngine.put(ScriptEngine.FILENAME, filename);
 
         final CompiledScript script = ((Compilable) scriptEngine).compile(source);
         script.eval();
 
-        return new PluginScript((Invocable) script.getEngine());
-    }
-
-    PluginScript(Invocable script) throws ScriptException {
-        this.script = script;
-        tokenizer = hasFunction(TOKENIZER_FUNCTION, "");
-        normalizer = hasFunction(NORMALIZER_FUNCTION, "");
-        comparator = hasFunction(COMPARATOR_FUNCTION, "", "");
+        return (Invocable) script.getEngine();
     }
 
     Function<String, Stream<String>> tokenizer() {
@@ -107,40 +145,28 @@ public class PluginScript {
 
     Function<String, String> normalizer() {
         return (normalizer ? input -> {
+            final String cached = normalized.get(input);
+            if (cached != null) {
+                return cached;
+            }
             final Object result = invoke(NORMALIZER_FUNCTION, input);
             if (!(result instanceof String)) {
                 throw new PluginScriptExecutionException("Wrong result type of " +
                     NORMALIZER_FUNCTION + "(); expected a string, found " +
                     result.getClass());
             }
+            if (normalized.size() < MAX_CACHE_SIZE) {
+                normalized.put(input, (String) result);
+            }
             return (String) result;
         } : null);
     }
 
-    Comparator<Token> comparator() {
-        return (comparator ? (o1, o2) -> {
-            if (!(o1 instanceof SimpleToken)) {
-                throw new PluginScriptExecutionException(COMPARATOR_FUNCTION + "() called with wrong token type '" + o1.getClass());
-            }
-            if (!(o2 instanceof SimpleToken)) {
-                throw new PluginScriptExecutionException(COMPARATOR_FUNCTION + "() called with wrong token type '" + o2.getClass());
-            }
-
-            final Object result = invoke(COMPARATOR_FUNCTION, ((SimpleToken) o1).getNormalized(), ((SimpleToken) o2).getNormalized());
-            if (result instanceof Number) {
-                return ((Number) result).intValue();
-            }
-            if (result instanceof Boolean) {
-                return (((Boolean) result) ? 0 : 1);
-            }
-
-            throw new PluginScriptExecutionException("Wrong result type of " +
-                COMPARATOR_FUNCTION + "(); expected a number or boolean type, found " +
-                result.getClass());
-        } : null);
+    ScriptComparator comparator() {
+        return (comparator ? new ScriptComparator() : null);
     }
 
-    boolean hasFunction(String name, Object... testArgs) throws ScriptException {
+    static boolean hasFunction(Invocable script, String name, Object... testArgs) throws ScriptException {
         try {
             script.invokeFunction(name, testArgs);
             return true;
@@ -151,11 +177,19 @@ public class PluginScript {
 
     Object invoke(String function, Object... args) throws PluginScriptExecutionException {
         try {
-            Object result = script.invokeFunction(function, args);
-            if (result == null) {
-                throw new PluginScriptExecutionException(function + "() returned null");
+            Invocable script = engines.poll();
+            if (script == null) {
+                script = engine();
+            }
+            try {
+                final Object result = script.invokeFunction(function, args);
+                if (result == null) {
+                    throw new PluginScriptExecutionException(function + "() returned null");
+                }
+                return result;
+            } finally {
+                engines.offer(script);
             }
-            return result;
         } catch (ScriptException e) {
             throw new PluginScriptExecutionException(e);
         } catch (NoSuchMethodException e) {
@@ -163,6 +197,126 @@ public class PluginScript {
         }
     }
 
+    /**
+     * Compares tokens by calling the script's comparator function on their normalized content, memoizing the result
+     * per distinct pair.
+     */
+    class ScriptComparator implements Comparator<Token> {
+
+        @Override
+        public int compare(Token o1, Token o2) {
+            return compare(normalized(o1), normalized(o2));
+        }
+
+        int compare(String n1, String n2) {
+            final ComparedPair pair = new ComparedPair(n1, n2);
+            final Integer cached = compared.get(pair);
+            if (cached != null) {
+                return cached;
+            }
+
+            final Object result = invoke(COMPARATOR_FUNCTION, n1, n2);
+            final int comparison;
+            if (result instanceof Number) {
+                comparison = ((Number) result).intValue();
+            } else if (result instanceof Boolean) {
+                comparison = (((Boolean) result) ? 0 : 1);
+            } else {
+                throw new PluginScriptExecutionException("Wrong result type of " +
+                    COMPARATOR_FUNCTION + "(); expected a number or boolean type, found " +
+                    result.getClass());
+            }
+            if (compared.size() < MAX_CACHE_SIZE) {
+                compared.put(pair, comparison);
+            }
+            return comparison;
+        }
+
+        /**
+         * Turns this comparator into an integer comparison for the tokens of the given witnesses.
+         * <p>
+         * The distinct normalized contents of all tokens are sorted once and ranked, tokens being equal to their
+         * predecessor sharing its rank; comparisons during a collation then compare these ranks without calling
+         * into the script. Ranks are only used if the script's function agrees with them for every pair of contents,
+         * both ways round, so that a fuzzy function matching "ab" with "ac" but ordering "abzz" in between them does
+         * not split the matching contents into different ranks. Otherwise, e.g. when the function only returns
+         * booleans, or when checking all pairs would take more than {@link #MAX_CACHE_SIZE} calls, this comparator
+         * is returned unchanged.
+         */
+        Comparator<Token> ranked(Iterable<? extends Iterable<Token>> witnesses) {
+            final Set<String> contents = new HashSet<>();
+            for (Iterable<Token> witness : witnesses) {
+                for (Token token : witness) {
+                    contents.add(normalized(token));
+                }
+            }
+            if ((long) contents.size() * (contents.size() - 1) > MAX_CACHE_SIZE) {
+                return this;
+            }
+            final String[] sorted = contents.toArray(new String[contents.size()]);
+            try {
+                Arrays.sort(sorted, this::compare);
+            } catch (IllegalArgumentException e) {
+                // an inconsistent order may or may not be detected while sorting; it is checked below anyway
+                return this;
+            }
+
+            final int[] rank = new int[sorted.length];
+            for (int sc = 1; sc < sorted.length; sc++) {
+                rank[sc] = rank[sc - 1] + (compare(sorted[sc - 1], sorted[sc]) < 0 ? 1 : 0);
+            }
+            for (int sc = 0; sc < sorted.length; sc++) {
+                for (int oc = sc + 1; oc < sorted.length; oc++) {
+                    final int expected = Integer.compare(rank[sc], rank[oc]);
+                    if (Integer.signum(compare(sorted[sc], sorted[oc])) != expected || Integer.signum(compare(sorted[oc], sorted[sc])) != -expected) {
+                        return this;
+                    }
+                }
+            }
+
+            final Map<String, Integer> ranks = new HashMap<>();
+            for (int sc = 0; sc < sorted.length; sc++) {
+                ranks.put(sorted[sc], rank[sc]);
+            }
+            return (o1, o2) -> {
+                final Integer r1 = ranks.get(normalized(o1));
+                final Integer r2 = ranks.get(normalized(o2));
+                return (r1 == null || r2 == null ? compare(o1, o2) : Integer.compare(r1, r2));
+            };
+        }
+
+        private String normalized(Token token) {
+            if (!(token instanceof SimpleToken)) {
+                throw new PluginScriptExecutionException(COMPARATOR_FUNCTION + "() called with wrong token type '" + token.getClass());
+            }
+            return ((SimpleToken) token).getNormalized();
+        }
+    }
+
+    private static class ComparedPair {
+        final String first;
+        final String second;
+
+        ComparedPair(String first, String second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof ComparedPair) {
+                final ComparedPair other = (ComparedPair) obj;
+                return first.equals(other.first) && second.equals(other.second);
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * first.hashCode() + second.hashCode();
+        }
+    }
+
     static class PluginScriptExecutionException extends RuntimeException {
 
         PluginScriptExecutionException(String message) {
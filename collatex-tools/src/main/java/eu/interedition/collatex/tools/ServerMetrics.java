@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link CollationServer}, exposed in the text format of <a href="https://prometheus.io/">Prometheus</a>.
+ * <p>
+ * Requests are counted and timed per output format; collation sizes and render times are kept in histograms with
+ * logarithmic buckets. All of them are updated via {@link LongAdder}s, so recording does not contend between the
+ * threads serving requests.
+ */
+class ServerMetrics {
+
+    private final ConcurrentMap<String, Histogram> requestDurations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> rejectedRequests = new ConcurrentHashMap<>();
+    private final LongAdder failedCollations = new LongAdder();
+    private final Histogram witnesses = new Histogram(1, 10);
+    private final Histogram tokens = new Histogram(1, 24);
+    private final Histogram renderDurations = new Histogram(1e-6, 27);
+    private final ThreadPoolExecutor collationThreads;
+
+    ServerMetrics(ThreadPoolExecutor collationThreads) {
+        this.collationThreads = collationThreads;
+        for (String reason : new String[] { "too_large", "render_saturated", "timeout" }) {
+            rejectedRequests.put(reason, new LongAdder());
+        }
+    }
+
+    void requestCompleted(String format, long startNanos) {
+        requestDurations.computeIfAbsent(format, f -> new Histogram(1e-6, 27)).record(micros(startNanos));
+    }
+
+    void requestRejected(String reason) {
+        rejectedRequests.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    void collationFailed() {
+        failedCollations.increment();
+    }
+
+    void collationReceived(int witnessCount, long tokenCount) {
+        witnesses.record(witnessCount);
+        tokens.record(tokenCount);
+    }
+
+    void renderCompleted(long startNanos) {
+        renderDurations.record(micros(startNanos));
+    }
+
+    private static long micros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    void write(PrintWriter out) {
+        header(out, "collatex_request_duration_seconds", "histogram", "Duration of collation requests by output format.");
+        requestDurations.forEach((format, histogram) -> histogram.write(out, "collatex_request_duration_seconds", "format=\"" + format + "\""));
+
+        header(out, "collatex_requests_rejected_total", "counter", "Requests rejected, by reason.");
+        rejectedRequests.forEach((reason, count) -> sample(out, "collatex_requests_rejected_total", "reason=\"" + reason + "\"", count.sum()));
+
+        header(out, "collatex_collations_failed_total", "counter", "Collations failed with an error.");
+        sample(out, "collatex_collations_failed_total", "", failedCollations.sum());
+
+        header(out, "collatex_collation_queue_depth", "gauge", "Collations waiting for a collation thread.");
+        sample(out, "collatex_collation_queue_depth", "", collationThreads.getQueue().size());
+        header(out, "collatex_collations_active", "gauge", "Collations running.");
+        sample(out, "collatex_collations_active", "", collationThreads.getActiveCount());
+
+        header(out, "collatex_collation_witnesses", "histogram", "Number of witnesses per collation.");
+        witnesses.write(out, "collatex_collation_witnesses", "");
+        header(out, "collatex_collation_tokens", "histogram", "Number of tokens per collation.");
+        tokens.write(out, "collatex_collation_tokens", "");
+        header(out, "collatex_dot_render_duration_seconds", "histogram", "Duration of rendering graphs via GraphViz' dot.");
+        renderDurations.write(out, "collatex_dot_render_duration_seconds", "");
+
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_memory_bytes_used", "gauge", "Used bytes of the heap.");
+        sample(out, "jvm_memory_bytes_used", "area=\"heap\"", heap.getUsed());
+        header(out, "jvm_memory_bytes_committed", "gauge", "Committed bytes of the heap.");
+        sample(out, "jvm_memory_bytes_committed", "area=\"heap\"", heap.getCommitted());
+        header(out, "jvm_memory_bytes_max", "gauge", "Maximum bytes of the heap.");
+        sample(out, "jvm_memory_bytes_max", "area=\"heap\"", heap.getMax());
+
+        header(out, "jvm_gc_collection_seconds", "summary", "Time spent in garbage collections.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            final String labels = "gc=\"" + escape(gc.getName()) + "\"";
+            sample(out, "jvm_gc_collection_seconds_count", labels, gc.getCollectionCount());
+            sample(out, "jvm_gc_collection_seconds_sum", labels, gc.getCollectionTime() / 1e3);
+        }
+        out.flush();
+    }
+
+    private static void header(PrintWriter out, String name, String type, String help) {
+        out.print("# HELP " + name + " " + help + "\n");
+        out.print("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void sample(PrintWriter out, String name, String labels, Number value) {
+        out.print(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + format(value) + "\n");
+    }
+
+    private static String format(Number value) {
+        return (value instanceof Double ? String.format(Locale.ROOT, "%s", value) : value.toString());
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A histogram of non-negative values with buckets for powers of two, i.e. bucket <code>i</code> counts values in
+     * <code>(2^(i-1), 2^i]</code>, and bucket <code>0</code> counts values up to 1.
+     */
+    static class Histogram {
+        private final double unit;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * @param unit    the factor for exposing recorded values, e.g. <code>1e-6</code> for microseconds as seconds
+         * @param buckets the number of buckets; larger values are only counted for <code>+Inf</code>
+         */
+        Histogram(double unit, int buckets) {
+            this.unit = unit;
+            this.buckets = new LongAdder[buckets];
+            for (int i = 0; i < buckets; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            final int bucket = (value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1));
+            if (bucket < buckets.length) {
+                buckets[bucket].increment();
+            }
+            count.increment();
+            sum.add(Math.max(0, value));
+        }
+
+        void write(PrintWriter out, String name, String labels) {
+            final String prefix = (labels.isEmpty() ? "" : labels + ",");
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                sample(out, name + "_bucket", prefix + "le=\"" + format((1L << i) * unit) + "\"", cumulative);
+            }
+            final long total = count.sum();
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"", Math.max(total, cumulative));
+            sample(out, name + "_count", labels, total);
+            sample(out, name + "_sum", labels, sum.sum() * unit);
+        }
+    }
+}
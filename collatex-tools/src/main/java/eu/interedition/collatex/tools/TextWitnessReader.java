@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.simple.SimplePatternTokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Tokenizes plain-text witnesses in a streaming fashion.
+ * <p>
+ * Files are memory-mapped in windows of at most {@link #MAPPING_SIZE} bytes and decoded into a reusable character
+ * buffer of initially {@link #BUFFER_SIZE} characters, which is handed to a
+ * {@link SimplePatternTokenizer.PatternTokenizer} whenever it fills up. Only the characters of a token spanning two
+ * buffer fills are carried over, so neither the raw bytes nor the decoded text of a witness are ever held in memory as
+ * a whole; the buffer only grows for tokens longer than itself.
+ */
+class TextWitnessReader {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long MAPPING_SIZE = 64L * 1024 * 1024;
+
+    private final SimplePatternTokenizer.PatternTokenizer tokenizer;
+    private final Consumer<String> tokens;
+    private final long mappingSize;
+    private CharBuffer chars;
+
+    TextWitnessReader(SimplePatternTokenizer.PatternTokenizer tokenizer, Consumer<String> tokens) {
+        this(tokenizer, tokens, BUFFER_SIZE, MAPPING_SIZE);
+    }
+
+    TextWitnessReader(SimplePatternTokenizer.PatternTokenizer tokenizer, Consumer<String> tokens, int bufferSize, long mappingSize) {
+        if (bufferSize < 1 || mappingSize < 1) {
+            throw new IllegalArgumentException("Buffer and mapping size must be positive");
+        }
+        this.tokenizer = tokenizer;
+        this.tokens = tokens;
+        this.mappingSize = mappingSize;
+        this.chars = CharBuffer.allocate(bufferSize);
+    }
+
+    void read(Path file, Charset charset) throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            long window = mappingSize;
+            do {
+                final MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+                final boolean lastWindow = (position + bytes.limit()) == size;
+                while (decoder.decode(bytes, chars, lastWindow).isOverflow()) {
+                    tokenize(false);
+                }
+                // an incomplete byte sequence at the end of a window is decoded as part of the next one
+                position += bytes.position();
+                if (lastWindow) {
+                    break;
+                }
+                // unless the window is too small to hold a single character
+                window = (bytes.position() == 0 ? window * 2 : mappingSize);
+            } while (true);
+
+            CoderResult result;
+            while ((result = decoder.flush(chars)).isOverflow()) {
+                tokenize(false);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+        tokenize(true);
+    }
+
+    void read(Reader reader) throws IOException {
+        while (reader.read(chars) >= 0) {
+            tokenize(false);
+        }
+        tokenize(true);
+    }
+
+    private void tokenize(boolean endOfInput) {
+        chars.flip();
+        tokenizer.tokenize(chars, endOfInput, tokens);
+        if (chars.position() == 0 && chars.limit() == chars.capacity()) {
+            // a single token exceeds the buffer
+            chars = CharBuffer.allocate(chars.capacity() * 2).put(chars);
+        } else {
+            chars.compact();
+        }
+    }
+}
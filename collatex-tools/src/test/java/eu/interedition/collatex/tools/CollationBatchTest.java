@@ -0,0 +1,98 @@
+package eu.interedition.collatex.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.json.Json;
+
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CollationBatchTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String INLINE = "{ \"witnesses\": [ { \"id\": \"A\", \"content\": \"a b c\" }, { \"id\": \"B\", \"content\": \"a c\" } ] }";
+
+    @Test
+    public void collatesInRequestOrderAndIsolatesFailures() throws Exception {
+        final String file = CollectionPipeTest.fixturesFilePath("base-2w").toString();
+        final String batchInput = String.join("\n",
+            INLINE,
+            "{ \"witnesses\": [] }",
+            "",
+            file
+        );
+
+        final String[] lines = run(batchInput, true);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{\"id\":\"1\",") && lines[0].contains("\"result\":{\"witnesses\":[\"A\",\"B\"]"));
+        assertTrue(lines[1], lines[1].startsWith("{\"id\":\"2\",") && lines[1].contains("\"error\":\"No witnesses in collation\""));
+        assertTrue(lines[2], lines[2].startsWith(Json.createObjectBuilder().add("id", file.replaceFirst("\\.json$", "")).build().toString().replaceFirst("}$", ",")) && lines[2].contains("\"result\":{\"witnesses\":[\"doc1\",\"doc2\"]"));
+    }
+
+    @Test
+    public void collatesUnordered() throws Exception {
+        final StringBuilder batchInput = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            batchInput.append(INLINE).append('\n');
+        }
+        assertEquals(20, run(batchInput.toString(), false).length);
+    }
+
+    @Test
+    public void writesResultsOfRequestsWithTheSameBaseName() throws Exception {
+        final File request = CollectionPipeTest.fixturesFilePath("base-2w").toFile();
+        final File first = new File(temporaryFolder.newFolder("first"), request.getName());
+        final File second = new File(temporaryFolder.newFolder("second"), request.getName());
+        Files.copy(request.toPath(), first.toPath());
+        Files.copy(request.toPath(), second.toPath());
+
+        final File outputDirectory = temporaryFolder.newFolder("output");
+        final CollationBatch batch = new CollationBatch("", new EqualityTokenComparator(), false, "csv", StandardCharsets.UTF_8, outputDirectory);
+        final StringWriter output = new StringWriter();
+        try (PrintWriter out = new PrintWriter(output)) {
+            batch.run(new BufferedReader(new StringReader(first + "\n" + second)), out, 2, false);
+        }
+        assertEquals(2, outputDirectory.listFiles().length);
+        assertTrue(output.toString(), output.toString().contains(new File(outputDirectory, "1-base-2w.csv").getPath()));
+        assertTrue(output.toString(), output.toString().contains(new File(outputDirectory, "2-base-2w.csv").getPath()));
+    }
+
+    @Test(timeout = 10000)
+    public void completesUnorderedBatchesWhenWritingFails() throws Exception {
+        final CollationBatch batch = new CollationBatch("", new EqualityTokenComparator(), false, "json", StandardCharsets.UTF_8, null);
+        final StringBuilder batchInput = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            batchInput.append(INLINE).append('\n');
+        }
+        try (PrintWriter out = new PrintWriter(new StringWriter()) {
+            @Override
+            public void println(String x) {
+                throw new IllegalStateException();
+            }
+        }) {
+            batch.run(new BufferedReader(new StringReader(batchInput.toString())), out, 2, false);
+        }
+    }
+
+    private static String[] run(String input, boolean ordered) throws Exception {
+        final StringWriter output = new StringWriter();
+        final CollationBatch batch = new CollationBatch("", new EqualityTokenComparator(), false, "json", StandardCharsets.UTF_8, null);
+        try (PrintWriter out = new PrintWriter(output)) {
+            batch.run(new BufferedReader(new StringReader(input)), out, 2, ordered);
+        }
+        return output.toString().split("\\r?\\n");
+    }
+}
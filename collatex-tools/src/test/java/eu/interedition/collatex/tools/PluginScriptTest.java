@@ -0,0 +1,189 @@
+package eu.interedition.collatex.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.script.Invocable;
+import javax.script.ScriptException;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+/**
+ * Runs plugin scripts on stubbed engines, whose functions are given in Java, as script engines are not available on
+ * every JDK.
+ */
+public class PluginScriptTest {
+
+    private final AtomicInteger engines = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void memoizesNormalizationsAndComparisons() throws Exception {
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put(PluginScript.NORMALIZER_FUNCTION, args -> ((String) args[0]).toLowerCase());
+        functions.put(PluginScript.COMPARATOR_FUNCTION, args -> ((String) args[0]).compareTo((String) args[1]));
+        final PluginScript script = script(functions);
+        calls.set(0);
+
+        final Function<String, String> normalizer = script.normalizer();
+        assertEquals("cat", normalizer.apply("Cat"));
+        assertEquals("cat", normalizer.apply("Cat"));
+        assertEquals(1, calls.get());
+
+        final PluginScript.ScriptComparator comparator = script.comparator();
+        assertEquals(-1, comparator.compare("a", "b"));
+        assertEquals(-1, comparator.compare("a", "b"));
+        assertEquals(2, calls.get());
+        assertEquals(1, comparator.compare("b", "a"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void rankedComparatorAgreesWithScript() throws Exception {
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put(PluginScript.COMPARATOR_FUNCTION, args -> ((String) args[0]).compareToIgnoreCase((String) args[1]));
+        final PluginScript.ScriptComparator comparator = script(functions).comparator();
+
+        final String[] words = { "a", "A", "cat", "Cat", "CAT", "black", "sat", "Sat", "on", "the", "mat" };
+        final Random random = new Random(42);
+        final List<Token> tokens = new ArrayList<>();
+        final SimpleWitness witness = new SimpleWitness("A");
+        for (int tc = 0; tc < 100; tc++) {
+            final String word = words[random.nextInt(words.length)];
+            tokens.add(new SimpleToken(witness, word, word));
+        }
+
+        final Comparator<Token> ranked = comparator.ranked(Collections.singletonList(tokens));
+        assertNotSame(comparator, ranked);
+        for (Token t1 : tokens) {
+            for (Token t2 : tokens) {
+                assertEquals(t1 + " vs. " + t2, Integer.signum(comparator.compare(t1, t2)), Integer.signum(ranked.compare(t1, t2)));
+            }
+        }
+    }
+
+    @Test
+    public void keepsComparatorOfFuzzyScripts() throws Exception {
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        // matches contents differing in their last character only, but orders "abzz" between "ab" and "ac"
+        functions.put(PluginScript.COMPARATOR_FUNCTION, args -> {
+            final String s1 = (String) args[0];
+            final String s2 = (String) args[1];
+            final boolean similar = s1.length() == s2.length() && s1.length() > 0 && s1.regionMatches(0, s2, 0, s1.length() - 1);
+            return (similar ? 0 : s1.compareTo(s2));
+        });
+        final PluginScript.ScriptComparator comparator = script(functions).comparator();
+        assertSame(comparator, comparator.ranked(Collections.singletonList(tokens("ab", "abzz", "ac"))));
+
+        functions.put(PluginScript.COMPARATOR_FUNCTION, args -> args[0].equals(args[1]));
+        final PluginScript.ScriptComparator booleanComparator = script(functions).comparator();
+        assertSame(booleanComparator, booleanComparator.ranked(Collections.singletonList(tokens("a", "b"))));
+    }
+
+    @Test(timeout = 10000)
+    public void poolsEnginesPerConcurrentInvocation() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put(PluginScript.NORMALIZER_FUNCTION, args -> {
+            if (args[0].equals("a") || args[0].equals("b")) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return args[0];
+        });
+        final PluginScript script = script(functions);
+        assertEquals(1, engines.get());
+
+        // both invocations wait for each other, so each needs an engine of its own
+        final Function<String, String> normalizer = script.normalizer();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(() -> normalizer.apply("a"));
+            final Future<String> second = executor.submit(() -> normalizer.apply("b"));
+            assertEquals("a", first.get());
+            assertEquals("b", second.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, engines.get());
+
+        // returned engines are reused
+        assertEquals("c", normalizer.apply("c"));
+        assertEquals("d", normalizer.apply("d"));
+        assertEquals(2, engines.get());
+    }
+
+    private static List<Token> tokens(String... contents) {
+        final SimpleWitness witness = new SimpleWitness("A");
+        final List<Token> tokens = new ArrayList<>();
+        for (String content : contents) {
+            tokens.add(new SimpleToken(witness, content, content));
+        }
+        return tokens;
+    }
+
+    private PluginScript script(Map<String, Function<Object[], Object>> functions) throws ScriptException {
+        return new PluginScript("test.js", "") {
+            @Override
+            Invocable engine() {
+                engines.incrementAndGet();
+                return new FunctionInvocable(functions);
+            }
+        };
+    }
+
+    private class FunctionInvocable implements Invocable {
+        private final Map<String, Function<Object[], Object>> functions;
+
+        FunctionInvocable(Map<String, Function<Object[], Object>> functions) {
+            this.functions = functions;
+        }
+
+        @Override
+        public Object invokeFunction(String name, Object... args) throws NoSuchMethodException {
+            final Function<Object[], Object> function = functions.get(name);
+            if (function == null) {
+                throw new NoSuchMethodException(name);
+            }
+            calls.incrementAndGet();
+            return function.apply(args);
+        }
+
+        @Override
+        public Object invokeMethod(Object thiz, String name, Object... args) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T getInterface(Class<T> clasz) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T getInterface(Object thiz, Class<T> clasz) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package eu.interedition.collatex.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ServerMetricsTest {
+
+    @Test
+    public void countsValuesInPowerOfTwoBuckets() {
+        final ServerMetrics.Histogram histogram = new ServerMetrics.Histogram(1, 4);
+        for (long value : new long[] { -5, 0, 1, 2, 3, 4, 5, 8, 9, 100 }) {
+            histogram.record(value);
+        }
+        assertEquals(String.join("\n",
+            "sizes_bucket{le=\"1.0\"} 3",
+            "sizes_bucket{le=\"2.0\"} 4",
+            "sizes_bucket{le=\"4.0\"} 6",
+            "sizes_bucket{le=\"8.0\"} 8",
+            "sizes_bucket{le=\"+Inf\"} 10",
+            "sizes_count 10",
+            "sizes_sum 132.0",
+            ""
+        ), write(histogram, "sizes", ""));
+    }
+
+    @Test
+    public void scalesBucketsAndSumByUnit() {
+        final ServerMetrics.Histogram histogram = new ServerMetrics.Histogram(0.25, 3);
+        histogram.record(3);
+        histogram.record(1500);
+        assertEquals(String.join("\n",
+            "durations_bucket{format=\"svg\",le=\"0.25\"} 0",
+            "durations_bucket{format=\"svg\",le=\"0.5\"} 0",
+            "durations_bucket{format=\"svg\",le=\"1.0\"} 1",
+            "durations_bucket{format=\"svg\",le=\"+Inf\"} 2",
+            "durations_count{format=\"svg\"} 2",
+            "durations_sum{format=\"svg\"} 375.75",
+            ""
+        ), write(histogram, "durations", "format=\"svg\""));
+    }
+
+    @Test
+    public void writesEmptyHistograms() {
+        assertEquals(String.join("\n",
+            "empty_bucket{le=\"1.0\"} 0",
+            "empty_bucket{le=\"+Inf\"} 0",
+            "empty_count 0",
+            "empty_sum 0.0",
+            ""
+        ), write(new ServerMetrics.Histogram(1, 1), "empty", ""));
+    }
+
+    private static String write(ServerMetrics.Histogram histogram, String name, String labels) {
+        final StringWriter out = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(out)) {
+            histogram.write(writer, name, labels);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package eu.interedition.collatex.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import eu.interedition.collatex.simple.SimplePatternTokenizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TextWitnessReaderTest {
+
+    private static final SimplePatternTokenizer.PatternTokenizer TOKENIZER = (SimplePatternTokenizer.PatternTokenizer) SimplePatternTokenizer.BY_WS_OR_PUNCT;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void tokenizesAcrossWindowsAndBufferFills() throws IOException {
+        final String text = "The black cat, the white cat; and the mat.\nThe end!";
+        final Path file = write(text, StandardCharsets.UTF_8);
+        for (int bufferSize = 1; bufferSize <= 8; bufferSize++) {
+            for (int mappingSize = 1; mappingSize <= 8; mappingSize++) {
+                assertEquals(bufferSize + "/" + mappingSize, tokenize(text), read(file, StandardCharsets.UTF_8, bufferSize, mappingSize));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void decodesCharactersSplitAcrossWindows() throws IOException {
+        // two-, three- and four-byte sequences in UTF-8, the latter a surrogate pair
+        final String text = "Käse für 3€, 𝄞 oder ß.";
+        final Path file = write(text, StandardCharsets.UTF_8);
+        for (int mappingSize = 1; mappingSize <= 7; mappingSize++) {
+            assertEquals(String.valueOf(mappingSize), tokenize(text), read(file, StandardCharsets.UTF_8, 4, mappingSize));
+        }
+    }
+
+    @Test
+    public void readsEmptyFiles() throws IOException {
+        assertEquals(Collections.emptyList(), read(write("", StandardCharsets.UTF_8), StandardCharsets.UTF_8, 4, 4));
+    }
+
+    @Test
+    public void growsTheBufferForLongTokens() throws IOException {
+        final String text = "a supercalifragilisticexpialidocious b";
+        assertEquals(tokenize(text), read(write(text, StandardCharsets.UTF_8), StandardCharsets.UTF_8, 2, 3));
+
+        final List<String> tokens = new ArrayList<>();
+        new TextWitnessReader(TOKENIZER, tokens::add, 2, 3).read(new StringReader(text));
+        assertEquals(tokenize(text), tokens);
+    }
+
+    private static List<String> tokenize(String text) {
+        return TOKENIZER.apply(text).collect(Collectors.toList());
+    }
+
+    private static List<String> read(Path file, Charset charset, int bufferSize, long mappingSize) throws IOException {
+        final List<String> tokens = new ArrayList<>();
+        new TextWitnessReader(TOKENIZER, tokens::add, bufferSize, mappingSize).read(file, charset);
+        return tokens;
+    }
+
+    private Path write(String text, Charset charset) throws IOException {
+        final Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, text.getBytes(charset));
+        return file;
+    }
+}